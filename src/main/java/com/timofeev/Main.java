@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
@@ -75,8 +76,7 @@ public class Main {
                 .longOpt("url")
                 .hasArg()
                 .type(String.class)
-                .required()
-                .desc("Model URL")
+                .desc("Model URL, required without -ls")
                 .build());
 
         options.addOption(Option.builder("k")
@@ -115,6 +115,335 @@ public class Main {
                 .desc("Use mocked model")
                 .build());
 
+        options.addOption(Option.builder("r")
+                .longOpt("rate")
+                .hasArg()
+                .type(Double.class)
+                .desc("Open-loop arrival rate, requests per second")
+                .build());
+
+        options.addOption(Option.builder("ad")
+                .longOpt("arrival")
+                .hasArg()
+                .type(String.class)
+                .desc("Open-loop arrival distribution: fixed or poisson")
+                .build());
+
+        options.addOption(Option.builder("ex")
+                .longOpt("executor")
+                .hasArg()
+                .type(String.class)
+                .desc("Executor mode: platform or virtual")
+                .build());
+
+        options.addOption(Option.builder("sw")
+                .longOpt("sweep")
+                .hasArg()
+                .type(String.class)
+                .desc("Sweep load steps: list (1,2,4,8) or geometric ramp (1..64x2)")
+                .build());
+
+        options.addOption(Option.builder("slo")
+                .longOpt("slo")
+                .hasArg()
+                .type(String.class)
+                .desc("Search max QPS for latency target, e.g. p95<500")
+                .build());
+
+        options.addOption(Option.builder("slow")
+                .longOpt("slo-warmup")
+                .hasArg()
+                .type(Integer.class)
+                .desc("SLO probe warmup in seconds")
+                .build());
+
+        options.addOption(Option.builder("slom")
+                .longOpt("slo-measure")
+                .hasArg()
+                .type(Integer.class)
+                .desc("SLO probe measured window in seconds")
+                .build());
+
+        options.addOption(Option.builder("wr")
+                .longOpt("warmup-requests")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Warmup requests excluded from statistics")
+                .build());
+
+        options.addOption(Option.builder("ws")
+                .longOpt("warmup-sec")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Warmup duration in seconds excluded from statistics")
+                .build());
+
+        options.addOption(Option.builder("ss")
+                .longOpt("steady-state")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Extend warmup until rolling latency stabilizes")
+                .build());
+
+        options.addOption(Option.builder("dur")
+                .longOpt("duration")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Run duration in seconds, the dataset is cycled")
+                .build());
+
+        options.addOption(Option.builder("win")
+                .longOpt("window")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Statistics window in seconds")
+                .build());
+
+        options.addOption(Option.builder("tr")
+                .longOpt("trace")
+                .hasArg()
+                .type(String.class)
+                .desc("JSONL trace to replay")
+                .build());
+
+        options.addOption(Option.builder("trs")
+                .longOpt("trace-speedup")
+                .hasArg()
+                .type(Double.class)
+                .desc("Trace replay time compression")
+                .build());
+
+        options.addOption(Option.builder("cf")
+                .longOpt("cancel-fraction")
+                .hasArg()
+                .type(Double.class)
+                .desc("Fraction of requests cancelled in flight")
+                .build());
+
+        options.addOption(Option.builder("cmin")
+                .longOpt("cancel-min-ms")
+                .hasArg()
+                .type(Long.class)
+                .desc("Min cancel delay after sending in ms")
+                .build());
+
+        options.addOption(Option.builder("cmax")
+                .longOpt("cancel-max-ms")
+                .hasArg()
+                .type(Long.class)
+                .desc("Max cancel delay after sending in ms")
+                .build());
+
+        options.addOption(Option.builder("hv")
+                .longOpt("http-version")
+                .hasArg()
+                .type(String.class)
+                .desc("HTTP version: 1.1 or 2")
+                .build());
+
+        options.addOption(Option.builder("ncr")
+                .longOpt("new-connection-per-request")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("New HttpClient and connection for every request")
+                .build());
+
+        options.addOption(Option.builder("cps")
+                .longOpt("connection-pool-size")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Max idle connections kept alive")
+                .build());
+
+        options.addOption(Option.builder("ka")
+                .longOpt("keep-alive")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Idle connection keep-alive in seconds")
+                .build());
+
+        options.addOption(Option.builder("st")
+                .longOpt("stream")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Stream completions and measure time to first token")
+                .build());
+
+        options.addOption(Option.builder("as")
+                .longOpt("async")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Non-blocking client with a bounded in-flight window")
+                .build());
+
+        options.addOption(Option.builder("mif")
+                .longOpt("max-in-flight")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Open-loop async in-flight window")
+                .build());
+
+        options.addOption(Option.builder("prr")
+                .longOpt("pre-render")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Render request bodies before the run")
+                .build());
+
+        options.addOption(Option.builder("ser")
+                .longOpt("serialization-report")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Report client CPU and allocation per request body")
+                .build());
+
+        options.addOption(Option.builder("sp")
+                .longOpt("streaming-parser")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Parse completion responses incrementally")
+                .build());
+
+        options.addOption(Option.builder("bs")
+                .longOpt("batch-size")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Prompts per request")
+                .build());
+
+        options.addOption(Option.builder("ab")
+                .longOpt("adaptive-batch")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Search the batch size during the run")
+                .build());
+
+        options.addOption(Option.builder("rt")
+                .longOpt("retries")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Retries of failed requests")
+                .build());
+
+        options.addOption(Option.builder("rtb")
+                .longOpt("retry-backoff")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Backoff before the first retry in ms")
+                .build());
+
+        options.addOption(Option.builder("hp")
+                .longOpt("hedge-percentile")
+                .hasArg()
+                .type(Double.class)
+                .desc("Hedge after this percentile of answer times")
+                .build());
+
+        options.addOption(Option.builder("hu")
+                .longOpt("hedge-url")
+                .hasArg()
+                .type(String.class)
+                .desc("Endpoint for hedged copies")
+                .build());
+
+        options.addOption(Option.builder("ls")
+                .longOpt("local-server")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Serve completions from an embedded server, -u is not needed")
+                .build());
+
+        options.addOption(Option.builder("lss")
+                .longOpt("local-server-slots")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Requests the embedded server decodes at once")
+                .build());
+
+        options.addOption(Option.builder("lsp")
+                .longOpt("local-server-prefill-us")
+                .hasArg()
+                .type(Double.class)
+                .desc("Embedded server prefill cost per prompt token, microseconds")
+                .build());
+
+        options.addOption(Option.builder("lsd")
+                .longOpt("local-server-decode-ms")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Embedded server decode cost per output token, ms")
+                .build());
+
+        options.addOption(Option.builder("ce")
+                .longOpt("cache-entries")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Completions cached on the client side, 0 disables the cache")
+                .build());
+
+        options.addOption(Option.builder("cb")
+                .longOpt("cache-bytes")
+                .hasArg()
+                .type(Long.class)
+                .desc("Memory the completion cache may take")
+                .build());
+
+        options.addOption(Option.builder("ct")
+                .longOpt("cache-ttl-ms")
+                .hasArg()
+                .type(Long.class)
+                .desc("Cached completions expire this long after they were stored")
+                .build());
+
+        options.addOption(Option.builder("rpf")
+                .longOpt("repeat-fraction")
+                .hasArg()
+                .type(Double.class)
+                .desc("Share of requests that repeat a recently sent prompt")
+                .build());
+
+        options.addOption(Option.builder("rpd")
+                .longOpt("repeat-distance")
+                .hasArg()
+                .type(Double.class)
+                .desc("Mean number of new prompts back a repeated prompt was sent")
+                .build());
+
+        options.addOption(Option.builder("ty")
+                .longOpt("typing-keystrokes")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Keystrokes per typing session, 0 sends independent prompts")
+                .build());
+
+        options.addOption(Option.builder("tyg")
+                .longOpt("typing-gap-ms")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Mean gap between keystrokes of a typing session")
+                .build());
+
+        options.addOption(Option.builder("rows")
+                .longOpt("rows")
+                .hasArg()
+                .type(Boolean.class)
+                .desc("Write per-request rows to the report")
+                .build());
+
+        options.addOption(Option.builder("mp")
+                .longOpt("metrics-port")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Serve Prometheus metrics on this port during the run")
+                .build());
+
+        options.addOption(Option.builder("br")
+                .longOpt("binary-report")
+                .hasArg()
+                .type(String.class)
+                .desc("Also write the report in the binary columnar format: raw or deflate")
+                .build());
+
         final CommandLineParser parser = new DefaultParser();
         try {
             final CommandLine cmd = parser.parse(options, args);
@@ -123,6 +452,11 @@ public class Main {
                 printWelcomeMessage();
             }
 
+            // The embedded server stands in for the model URL
+            if (!cmd.hasOption("u") && !Boolean.TRUE.equals(cmd.getParsedOptionValue("ls"))) {
+                throw new MissingOptionException(List.of("u"));
+            }
+
             return Benchmark.BenchmarkParams.builder()
                     .withSampleLimit(cmd.getParsedOptionValue("sl"))
                     .withThreads(cmd.getParsedOptionValue("t"))
@@ -135,6 +469,53 @@ public class Main {
                     .withTokenizer(cmd.getOptionValue("tk"))
                     .withDataset(cmd.getOptionValue("ds"))
                     .withMock(cmd.getParsedOptionValue("mck"))
+                    .withArrivalRate(cmd.getParsedOptionValue("r"))
+                    .withArrivalDistribution(cmd.getOptionValue("ad"))
+                    .withExecutorMode(cmd.getOptionValue("ex"))
+                    .withSweep(cmd.getOptionValue("sw"))
+                    .withSlo(cmd.getOptionValue("slo"))
+                    .withSloWarmupSec(cmd.getParsedOptionValue("slow"))
+                    .withSloMeasureSec(cmd.getParsedOptionValue("slom"))
+                    .withWarmupRequests(cmd.getParsedOptionValue("wr"))
+                    .withWarmupSec(cmd.getParsedOptionValue("ws"))
+                    .withSteadyState(cmd.getParsedOptionValue("ss"))
+                    .withDurationSec(cmd.getParsedOptionValue("dur"))
+                    .withWindowSec(cmd.getParsedOptionValue("win"))
+                    .withTrace(cmd.getOptionValue("tr"))
+                    .withTraceSpeedup(cmd.getParsedOptionValue("trs"))
+                    .withCancelFraction(cmd.getParsedOptionValue("cf"))
+                    .withCancelMinMs(cmd.getParsedOptionValue("cmin"))
+                    .withCancelMaxMs(cmd.getParsedOptionValue("cmax"))
+                    .withHttpVersion(cmd.getOptionValue("hv"))
+                    .withNewConnectionPerRequest(cmd.getParsedOptionValue("ncr"))
+                    .withConnectionPoolSize(cmd.getParsedOptionValue("cps"))
+                    .withKeepAliveSec(cmd.getParsedOptionValue("ka"))
+                    .withStream(cmd.getParsedOptionValue("st"))
+                    .withAsync(cmd.getParsedOptionValue("as"))
+                    .withMaxInFlight(cmd.getParsedOptionValue("mif"))
+                    .withPreRender(cmd.getParsedOptionValue("prr"))
+                    .withSerializationReport(cmd.getParsedOptionValue("ser"))
+                    .withStreamingParser(cmd.getParsedOptionValue("sp"))
+                    .withBatchSize(cmd.getParsedOptionValue("bs"))
+                    .withAdaptiveBatch(cmd.getParsedOptionValue("ab"))
+                    .withRetries(cmd.getParsedOptionValue("rt"))
+                    .withRetryBackoffMs(cmd.getParsedOptionValue("rtb"))
+                    .withHedgePercentile(cmd.getParsedOptionValue("hp"))
+                    .withHedgeUrl(cmd.getOptionValue("hu"))
+                    .withLocalServer(cmd.getParsedOptionValue("ls"))
+                    .withLocalServerSlots(cmd.getParsedOptionValue("lss"))
+                    .withLocalServerPrefillUs(cmd.getParsedOptionValue("lsp"))
+                    .withLocalServerDecodeMs(cmd.getParsedOptionValue("lsd"))
+                    .withCacheEntries(cmd.getParsedOptionValue("ce"))
+                    .withCacheMaxBytes(cmd.getParsedOptionValue("cb"))
+                    .withCacheTtlMs(cmd.getParsedOptionValue("ct"))
+                    .withRepeatFraction(cmd.getParsedOptionValue("rpf"))
+                    .withRepeatDistance(cmd.getParsedOptionValue("rpd"))
+                    .withTypingKeystrokes(cmd.getParsedOptionValue("ty"))
+                    .withTypingGapMs(cmd.getParsedOptionValue("tyg"))
+                    .withRows(cmd.getParsedOptionValue("rows"))
+                    .withMetricsPort(cmd.getParsedOptionValue("mp"))
+                    .withBinaryReport(cmd.getOptionValue("br"))
                     .build();
         } catch (ParseException e) {
             LOG.error("Error parsing command line: {}", e.getMessage());
@@ -249,13 +630,62 @@ public class Main {
                         3) Delay between requests in ms (default: 0) [-d]
                         4) GPU configuration string (default: null) [-g]
                         5) Model name (required) [-m]
-                        6) Model URL (required) [-u]
+                        6) Model URL (required without -ls) [-u]
                         7) API key (default: null) [-k]
                         8) Context size (required) [-cs]
                         9) Path to tokenizer json (default: Qwen2.5-Coder-14B tokenizer) [-tk]
                         10) Path to dataset json (default: repoEval line-level) [-ds]
                         11) Use mocked model (default: false) [-mck]
                         
+                        Load options (command line only):
+                        Open-loop arrival rate, requests per second; -t and -d are ignored (default: null, closed loop) [-r]
+                        Open-loop arrival distribution: fixed or poisson (default: fixed) [-ad]
+                        Executor mode: platform or virtual threads (default: platform) [-ex]
+                        Sweep threads (or rate with -r): list 1,2,4,8 or geometric ramp 1..64x2 (default: null) [-sw]
+                        Search max QPS meeting a latency target, e.g. "p95<500"; -r is the first probed rate (default: null) [-slo]
+                        SLO probe warmup in seconds (default: 10) [-slow]
+                        SLO probe measured window in seconds (default: 30) [-slom]
+                        Warmup requests reported separately from statistics (default: 0) [-wr]
+                        Warmup duration in seconds reported separately from statistics (default: 0) [-ws]
+                        Extend warmup until rolling median latency stabilizes (default: false) [-ss]
+                        Run duration in seconds, the dataset is cycled and reshuffled every pass (default: null) [-dur]
+                        Statistics window in seconds (default: 300 for duration runs, otherwise off) [-win]
+                        Replay JSONL trace {"timestamp", "prompt_tokens", "cancelled", "cancel_after_ms", "prompt"} with original inter-arrival times (default: null) [-tr]
+                        Trace replay time compression, 2 replays twice as fast (default: 1) [-trs]
+                        Fraction of requests cancelled in flight, as when the user keeps typing; cancelled requests are reported separately (default: 0) [-cf]
+                        Min cancel delay after sending in ms, also for trace rows cancelled without cancel_after_ms (default: 50) [-cmin]
+                        Max cancel delay after sending in ms (default: 500) [-cmax]
+                        HTTP version: 1.1 or 2 (default: 1.1) [-hv]
+                        New HttpClient, connection and handshake for every request instead of one shared pooled client (default: false) [-ncr]
+                        Max idle HTTP/1.1 connections kept alive, 0 for unbounded (default: 0) [-cps]
+                        Idle connection keep-alive in seconds (default: 30) [-ka]
+                        Stream completions (SSE) and report time to first token, inter-token gaps and token count (default: false) [-st]
+                        Non-blocking client: one thread submits, responses are timed on completion; -t is the in-flight window in closed loop (default: false) [-as]
+                        Open-loop async in-flight window, sending waits while it is full (default: 256) [-mif]
+                        Render request bodies to bytes before the run instead of GSON on the sending thread (default: true) [-prr]
+                        Only report client CPU and allocation per request body for GSON, encoder and pre-rendered bodies (default: false) [-ser]
+                        Parse completion responses from the byte stream, pulling only text, finish_reason and usage (default: true) [-sp]
+                        Prompts packed into one /v1/completions request in closed loop, the upper bound with -ab (default: 1) [-bs]
+                        Double the batch size while the time per prompt keeps improving, then keep the best one (default: false) [-ab]
+                        Retries of requests failed with a connection error, timeout, 429 or 5xx (default: 0) [-rt]
+                        Backoff before the first retry in ms, doubled for every next one with jitter; Retry-After on 429/503 takes precedence (default: 100) [-rtb]
+                        Send a copy of a request unanswered after this percentile of answer times, e.g. 95; the first answer wins (default: no hedging) [-hp]
+                        Endpoint hedged copies go to, e.g. another replica (default: -u) [-hu]
+                        Serve completions from an embedded OpenAI-compatible server instead of -u (default: false) [-ls]
+                        Requests the embedded server decodes at once, the rest are queued (default: 8) [-lss]
+                        Embedded server prefill cost per prompt token, microseconds (default: 100) [-lsp]
+                        Embedded server decode cost per output token, ms (default: 15) [-lsd]
+                        Completions cached on the client side with LRU eviction, 0 disables the cache (default: 0) [-ce]
+                        Memory the completion cache may take in bytes (default: 64 MB) [-cb]
+                        Cached completions expire this long after they were stored, ms (default: 60000) [-ct]
+                        Share of requests that repeat a recently sent prompt, e.g. 0.3 (default: 0) [-rpf]
+                        Mean number of new prompts back a repeated prompt was sent, geometric, 1 repeats the last one (default: 4) [-rpd]
+                        Send every dataset row as a typing session: the cursor line grows by this many keystrokes, one request each; the report splits first-in-session and follow-up latency (default: 0, off) [-ty]
+                        Mean gap between keystrokes of a typing session, lognormal, ms (default: 200) [-tyg]
+                        Write per-request rows to the report as requests complete; percentiles come from histograms either way (default: true) [-rows]
+                        Serve live Prometheus metrics at http://<host>:<port>/metrics during the run: requests by outcome, in flight, request time by prompt size, completion tokens; 0 picks a free port (default: off) [-mp]
+                        Also write the report as report-<start time>.bin, binary columns for reports of millions of rows: raw (memory-mapped as is) or deflate (compressed); convert with com.timofeev.benchmark.ColumnarReport (default: off) [-br]
+                        
                         
                         """
         );
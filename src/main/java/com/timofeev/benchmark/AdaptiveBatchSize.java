@@ -0,0 +1,69 @@
+package com.timofeev.benchmark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Searches the batch size during the run: starts with single prompts and doubles the size while
+// the time per prompt (batch time / prompts) improves by at least MIN_GAIN, then keeps the best size.
+// Every size is measured over a few batches of exactly that size per worker, so batches that were
+// formed before a change or cut short by the end of the dataset don't count. Thread-safe.
+public class AdaptiveBatchSize implements IBatchSizePolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBatchSize.class);
+
+    private static final int PROBE_BATCHES_PER_WORKER = 4;
+    private static final double MIN_GAIN = 0.1;
+
+    private final int maxSize;
+    private final int probeBatches;
+
+    private int size = 1;
+    private int samples = 0;
+    private long totalMs = 0;
+    private int bestSize = 1;
+    private double bestMsPerPrompt = Double.MAX_VALUE;
+    private boolean settled;
+
+    public AdaptiveBatchSize(int maxSize, int workers) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize should be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.probeBatches = PROBE_BATCHES_PER_WORKER * workers;
+        this.settled = maxSize == 1;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void onBatch(int prompts, long timeMs) {
+        if (settled || prompts != size) {
+            return;
+        }
+        samples++;
+        totalMs += timeMs;
+        if (samples < probeBatches) {
+            return;
+        }
+
+        final double msPerPrompt = (double) totalMs / samples / size;
+        LOG.info("Batch size {}: {} ms per prompt", size, String.format("%.1f", msPerPrompt));
+        final boolean improved = msPerPrompt < bestMsPerPrompt * (1 - MIN_GAIN);
+        if (improved) {
+            bestSize = size;
+            bestMsPerPrompt = msPerPrompt;
+        }
+        if (improved && size < maxSize) {
+            size = Math.min(maxSize, size * 2);
+            samples = 0;
+            totalMs = 0;
+            return;
+        }
+
+        size = bestSize;
+        settled = true;
+        LOG.info("Batch size settled on {}: {} ms per prompt", size, String.format("%.1f", bestMsPerPrompt));
+    }
+}
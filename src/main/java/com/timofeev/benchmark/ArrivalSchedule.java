@@ -0,0 +1,59 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+// Produces send times for open-loop runs.
+// Offsets are accumulated as doubles relative to the run start, so the schedule doesn't drift
+// when the scheduler thread wakes up late.
+public class ArrivalSchedule implements IArrivalSchedule {
+
+    @NotNull
+    private final Distribution distribution;
+
+    private final double meanIntervalMs;
+
+    @NotNull
+    private final Random random;
+
+    private double offsetMs = 0;
+
+    public ArrivalSchedule(
+            double requestsPerSecond,
+            @NotNull Distribution distribution,
+            long seed
+    ) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("requestsPerSecond should be positive: " + requestsPerSecond);
+        }
+        this.distribution = distribution;
+        this.meanIntervalMs = 1000.0 / requestsPerSecond;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public long nextOffsetMs() {
+        final long current = (long) offsetMs;
+        offsetMs += nextIntervalMs();
+        return current;
+    }
+
+    private double nextIntervalMs() {
+        return switch (distribution) {
+            case FIXED -> meanIntervalMs;
+            // Exponential inter-arrival times give a Poisson arrival process
+            case POISSON -> -Math.log(1.0 - random.nextDouble()) * meanIntervalMs;
+        };
+    }
+
+    public enum Distribution {
+        FIXED,
+        POISSON;
+
+        @NotNull
+        public static Distribution parse(@NotNull String value) {
+            return Distribution.valueOf(value.trim().toUpperCase());
+        }
+    }
+}
@@ -2,11 +2,18 @@ package com.timofeev.benchmark;
 
 import ai.djl.huggingface.tokenizers.Encoding;
 import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import com.timofeev.llm.HedgingPolicy;
+import com.timofeev.llm.CachingLlmClient;
+import com.timofeev.llm.HttpClientSettings;
+import com.timofeev.llm.ILlmInlineClient;
 import com.timofeev.llm.OpenAiLlmClient;
+import com.timofeev.llm.RetryPolicy;
+import com.timofeev.llm.SerializationCost;
 import com.timofeev.prompt.IInlinePromptComputer;
 import com.timofeev.prompt.RepoEvalQwenPromptComputer;
 import com.timofeev.prompt.TokenizedCompletionPrompt;
-import org.apache.commons.collections4.ListUtils;
+import com.timofeev.server.LocalCompletionServer;
+import com.timofeev.server.MetricsServer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -16,18 +23,29 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
 
 public class Benchmark {
     private static final Logger LOG = LoggerFactory.getLogger(Benchmark.class);
 
-    private static final Random RANDOM = new Random(0);
+    // Prompt sources of every mode are seeded with it, so runs are repeatable
+    static final long SEED = 0;
+    private static final Random RANDOM = new Random(SEED);
+
+    private static final int DURATION_WINDOW_SEC_DEFAULT = 300;
 
     private static final Map<String, String> DEFAULT_TOKENIZER_OPTIONS = Map.of(
             "padding", "true",
@@ -36,37 +54,231 @@ public class Benchmark {
 
     private static final IInlinePromptComputer PROMPT_COMPUTER = new RepoEvalQwenPromptComputer();
 
+    // With localServer the whole run goes to an embedded server that lives as long as the run
     public static void run(@NotNull BenchmarkParams params) throws IOException {
-        final LlmTimingHolder timingHolder = new LlmTimingHolder();
-        final OpenAiLlmClient llmClient = getLlmClient(
-                params,
-                timingHolder
-        );
+        if (!params.localServer) {
+            runBenchmark(params);
+            return;
+        }
+        try (
+                final LocalCompletionServer server = LocalCompletionServer.start(new LocalCompletionServer.LatencyModel(
+                        params.localServerSlots,
+                        LocalCompletionServer.LatencyModel.DEFAULT.overheadMs(),
+                        params.localServerPrefillUs,
+                        params.localServerDecodeMs,
+                        LocalCompletionServer.LatencyModel.DEFAULT.outputTokens()
+                ))
+        ) {
+            runBenchmark(params.toBuilder().withModelUrl(server.getUrl()).build());
+        }
+    }
 
-        final List<TokenizedCompletionPrompt> tokenizedPrompts = getTokenizedPrompts(
-                params
-        );
+    private static void runBenchmark(@NotNull BenchmarkParams params) throws IOException {
+        newHttpClientSettings(params).applyPoolProperties();
+
+        final HuggingFaceTokenizer tokenizer = newTokenizer(params);
+        final TypingSessions typingSessions = params.typingKeystrokes > 0
+                ? new TypingSessions(getTypingSessions(params, tokenizer))
+                : null;
+        final List<TokenizedCompletionPrompt> tokenizedPrompts = typingSessions != null
+                ? typingSessions.prompts()
+                : getTokenizedPrompts(params, tokenizer);
 
         LOG.info("Parsed prompts number: {}", tokenizedPrompts.size());
 
-        final List<List<TokenizedCompletionPrompt>> batches = ListUtils.partition(
-                tokenizedPrompts,
-                tokenizedPrompts.size() / params.threads
+        if (params.serializationReport) {
+            writeSerializationReport(params, tokenizedPrompts);
+            return;
+        }
+
+        // Steps and probes measure the server itself, a cache warmed by earlier steps would skew them
+        if ((params.slo != null || params.sweep != null) && params.cacheEntries > 0) {
+            LOG.warn("Completion cache (-ce, -cb, -ct) is ignored with -slo and -sw, requests go to the server");
+        }
+
+        if (params.slo != null) {
+            CapacitySearch.run(params, tokenizedPrompts);
+            return;
+        }
+
+        if (params.sweep != null) {
+            BenchmarkSweep.run(params, tokenizedPrompts);
+            return;
+        }
+
+        // Rows go straight to the report file, the holder keeps only the statistics
+        final ReportWriter reportWriter = ReportWriter.open(new File("."), "INFO: " + params + "\n\n");
+        final LlmTimingHolder timingHolder = newTimingHolder(params, params.rows ? reportWriter : null);
+        CachingLlmClient cache = null;
+        MetricsServer metricsServer = null;
+        try (
+                final OpenAiLlmClient llmClient = getLlmClient(
+                        params,
+                        timingHolder,
+                        tokenizedPrompts
+                )
+        ) {
+            if (params.metricsPort != null) {
+                metricsServer = MetricsServer.start(params.metricsPort, () -> PrometheusMetrics.format(timingHolder));
+            }
+            // Cache hits never reach the timing holder, its rows are the requests that went to the server
+            if (params.cacheEntries > 0) {
+                cache = new CachingLlmClient(llmClient, params.cacheEntries, params.cacheMaxBytes, params.cacheTtlMs);
+            }
+            final ILlmInlineClient client = cache == null ? llmClient : cache;
+            if (typingSessions != null) {
+                typingSessions.run(params, client);
+            } else if (params.trace != null) {
+                TraceReplay.run(params, client, tokenizer, tokenizedPrompts);
+            } else {
+                execute(params, client, tokenizedPrompts);
+            }
+        } finally {
+            // Scraped while requests run, not while the report is written
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+            final StringBuilder summary = new StringBuilder();
+
+            summary.append(timingHolder.getSummaryReport());
+            if (cache != null) {
+                summary.append(cache.getReport());
+            }
+            if (typingSessions != null) {
+                summary.append(typingSessions.getReport());
+            }
+
+            LOG.info("Report: \n\n {}", summary);
+
+            try (reportWriter) {
+                reportWriter.finish(summary.toString());
+            }
+
+            LOG.info("Report saved to: {}", reportWriter.getFile().getAbsolutePath());
+        }
+
+        // Only after a successful run, a failed conversion in finally would hide why the run failed
+        if (params.binaryReport != null) {
+            final File binaryReport = new File(reportWriter.getFile().getPath().replaceFirst("\\.csv$", ".bin"));
+            ColumnarReport.fromCsv(reportWriter.getFile(), binaryReport, params.binaryReport);
+            LOG.info("Binary report saved to: {}", binaryReport.getAbsolutePath());
+        }
+    }
+
+    static void execute(
+            @NotNull BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull List<TokenizedCompletionPrompt> tokenizedPrompts
+    ) {
+        execute(params, llmClient, newPromptSource(params, tokenizedPrompts), null);
+    }
+
+    // Duration-based runs cycle the dataset, otherwise every prompt is sent once
+    // (plus the repeats with repeatFraction)
+    @NotNull
+    static IPromptSource newPromptSource(
+            @NotNull BenchmarkParams params,
+            @NotNull List<TokenizedCompletionPrompt> tokenizedPrompts
+    ) {
+        IPromptSource source = params.durationSec == null
+                ? new ListPromptSource(tokenizedPrompts)
+                : new CyclingPromptSource(tokenizedPrompts, SEED);
+        if (params.repeatFraction > 0) {
+            source = new RepeatingPromptSource(source, params.repeatFraction, params.repeatDistance, SEED);
+        }
+        if (params.durationSec == null) {
+            return source;
+        }
+        return new DeadlinePromptSource(source, System.currentTimeMillis() + params.durationSec * 1000L);
+    }
+
+    // Duration-based runs don't keep per-request rows, so memory stays flat however long they last
+    @NotNull
+    static LlmTimingHolder newTimingHolder(@NotNull BenchmarkParams params) {
+        return newTimingHolder(params, null);
+    }
+
+    // With a rowWriter rows are streamed to it instead of kept in memory
+    @NotNull
+    static LlmTimingHolder newTimingHolder(@NotNull BenchmarkParams params, @Nullable ReportWriter rowWriter) {
+        final long windowMs;
+        if (params.windowSec != null) {
+            windowMs = params.windowSec * 1000L;
+        } else if (params.durationSec != null) {
+            windowMs = DURATION_WINDOW_SEC_DEFAULT * 1000L;
+        } else {
+            windowMs = 0;
+        }
+        return new LlmTimingHolder(
+                WarmupDetector.of(params),
+                rowWriter == null && params.rows && params.durationSec == null,
+                windowMs,
+                rowWriter
+        );
+    }
+
+    // abort is polled before every request; once it returns true no new requests are sent
+    // and in-flight ones are interrupted
+    static void execute(
+            @NotNull BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull IPromptSource promptSource,
+            @Nullable BooleanSupplier abort
+    ) {
+        final BooleanSupplier shouldAbort = abort == null ? () -> false : abort;
+        if (params.batchSize > 1 || params.adaptiveBatch) {
+            runBatches(params, llmClient, promptSource, shouldAbort);
+        } else if (params.arrivalRate != null) {
+            final ArrivalSchedule schedule = new ArrivalSchedule(
+                    params.arrivalRate,
+                    params.arrivalDistribution,
+                    SEED
+            );
+            runOpenLoop(params, llmClient, promptSource, schedule, newCancellationPolicy(params), shouldAbort);
+        } else if (params.async) {
+            runAsync(params, llmClient, promptSource, null, newCancellationPolicy(params), shouldAbort);
+        } else {
+            runClosedLoop(params, llmClient, promptSource, newCancellationPolicy(params), shouldAbort);
+        }
+    }
+
+    @NotNull
+    static ICancellationPolicy newCancellationPolicy(@NotNull BenchmarkParams params) {
+        if (params.cancelFraction <= 0) {
+            return ICancellationPolicy.NONE;
+        }
+        return new RandomCancellationPolicy(
+                params.cancelFraction,
+                params.cancelMinMs,
+                params.cancelMaxMs,
+                SEED
         );
+    }
 
-        final List<CompletableFuture<Void>> futures = new ArrayList<>(batches.size());
+    private static void runClosedLoop(
+            @NotNull BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull IPromptSource promptSource,
+            @NotNull ICancellationPolicy cancellationPolicy,
+            @NotNull BooleanSupplier abort
+    ) {
+        // Workers pull prompts from one shared queue, so the requested concurrency holds until the queue is empty
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(params.threads);
         try (
-                final ExecutorService executor = Executors.newFixedThreadPool(params.threads)
+                final ExecutorService executor = params.executorMode.newExecutor(params.threads)
         ) {
             AtomicInteger counter = new AtomicInteger(0);
-            for (List<TokenizedCompletionPrompt> batch : batches) {
+            for (int worker = 0; worker < params.threads; worker++) {
+                final long submittedMs = System.currentTimeMillis();
                 final CompletableFuture<Void> future = CompletableFuture.runAsync(
                         () -> compute(
                                 params,
                                 llmClient,
-                                batch,
+                                promptSource,
+                                cancellationPolicy,
+                                abort,
                                 counter,
-                                batches.stream().mapToLong(Collection::size).sum()
+                                submittedMs
                                 ),
                         executor
                 );
@@ -78,30 +290,193 @@ public class Benchmark {
             );
 
             mergedFuture.join();
-        } finally {
-            final StringBuilder report = new StringBuilder();
+        }
+    }
+
+    // Closed loop where every worker sends several prompts per request.
+    // Cancellation doesn't apply, a batch is only useful as a whole.
+    private static void runBatches(
+            @NotNull BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull IPromptSource promptSource,
+            @NotNull BooleanSupplier abort
+    ) {
+        final IBatchSizePolicy batchSize = params.adaptiveBatch
+                ? new AdaptiveBatchSize(params.batchSize, params.threads)
+                : IBatchSizePolicy.fixed(params.batchSize);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(params.threads);
+        try (
+                final ExecutorService executor = params.executorMode.newExecutor(params.threads)
+        ) {
+            final AtomicInteger counter = new AtomicInteger(0);
+            for (int worker = 0; worker < params.threads; worker++) {
+                final long submittedMs = System.currentTimeMillis();
+                futures.add(CompletableFuture.runAsync(
+                        () -> computeBatches(params, llmClient, promptSource, batchSize, abort, counter, submittedMs),
+                        executor
+                ));
+            }
+
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        }
+        LOG.info("Batch size at the end of the run: {}", batchSize.size());
+    }
+
+    private static void computeBatches(
+            @NotNull BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull IPromptSource promptSource,
+            @NotNull IBatchSizePolicy batchSize,
+            @NotNull BooleanSupplier abort,
+            @NotNull AtomicInteger counter,
+            long submittedMs
+    ) {
+        long scheduledMs = submittedMs;
+        while (!abort.getAsBoolean()) {
+            final int size = batchSize.size();
+            final List<TokenizedCompletionPrompt> batch = new ArrayList<>(size);
+            TokenizedCompletionPrompt prompt;
+            while (batch.size() < size && (prompt = promptSource.next()) != null) {
+                batch.add(prompt);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            final long startMs = System.currentTimeMillis();
+            llmClient.generateBatch(batch, scheduledMs);
+            batchSize.onBatch(batch.size(), System.currentTimeMillis() - startMs);
+
+            scheduledMs = System.currentTimeMillis() + params.delayMs;
+            try {
+                Thread.sleep(params.delayMs);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                logProgress(counter.incrementAndGet(), promptSource);
+            }
+        }
+    }
 
-            report.append("INFO: ").append(params).append("\n\n");
+    // Open loop: every request is sent at its scheduled time whether or not earlier requests have finished,
+    // so a slow server doesn't get less traffic (no coordinated omission).
+    static void runOpenLoop(
+            @NotNull BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull IPromptSource promptSource,
+            @NotNull IArrivalSchedule schedule,
+            @NotNull ICancellationPolicy cancellationPolicy,
+            @NotNull BooleanSupplier abort
+    ) {
+        if (params.async) {
+            runAsync(params, llmClient, promptSource, schedule, cancellationPolicy, abort);
+            return;
+        }
 
-            report.append(timingHolder.getTimingReport());
+        final AtomicInteger counter = new AtomicInteger(0);
 
-            LOG.info("Report: \n\n {}", report);
+        try (
+                final ExecutorService executor = params.executorMode.newExecutor(null)
+        ) {
+            final long startMs = System.currentTimeMillis();
+            TokenizedCompletionPrompt prompt;
+            while ((prompt = promptSource.next()) != null) {
+                final long scheduledMs = startMs + schedule.nextOffsetMs();
+                final long waitMs = scheduledMs - System.currentTimeMillis();
+                if (waitMs > 0) {
+                    try {
+                        Thread.sleep(waitMs);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                if (abort.getAsBoolean()) {
+                    executor.shutdownNow();
+                    break;
+                }
 
-            final File reportFile = new File("report.csv");
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(reportFile))) {
-                writer.write(report.toString());
+                final TokenizedCompletionPrompt scheduledPrompt = prompt;
+                // Drawn on the scheduling thread, so the cancelled requests don't depend on thread timing
+                final long cancelAfterMs = cancellationPolicy.nextCancelAfterMs();
+                executor.execute(() -> {
+                    llmClient.generate(scheduledPrompt, scheduledMs, cancelAfterMs);
+                    logProgress(counter.incrementAndGet(), promptSource);
+                });
             }
+        }
+    }
+
+    // Async transport: a single thread submits every request and completions are handled by the HTTP client,
+    // so worker scheduling doesn't leak into the measured latency. The in-flight window gives backpressure:
+    // -t requests for closed loop (a finished request frees its slot after -d), -mif for open loop.
+    // In open loop a full window delays sending, which shows up in responseTimeMs rather than being hidden.
+    private static void runAsync(
+            @NotNull BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull IPromptSource promptSource,
+            @Nullable IArrivalSchedule schedule,
+            @NotNull ICancellationPolicy cancellationPolicy,
+            @NotNull BooleanSupplier abort
+    ) {
+        final int windowSize = schedule == null ? params.threads : params.maxInFlight;
+        final Semaphore window = new Semaphore(windowSize);
+        final Executor releaseExecutor = schedule == null && params.delayMs > 0
+                ? CompletableFuture.delayedExecutor(params.delayMs, TimeUnit.MILLISECONDS)
+                : Runnable::run;
+        final AtomicInteger counter = new AtomicInteger(0);
+        final Set<CompletableFuture<String>> inFlight = ConcurrentHashMap.newKeySet();
 
-            LOG.info("Report saved to: {}", reportFile.getAbsolutePath());
+        try {
+            final long startMs = System.currentTimeMillis();
+            TokenizedCompletionPrompt prompt;
+            while (!abort.getAsBoolean() && (prompt = promptSource.next()) != null) {
+                long scheduledMs = System.currentTimeMillis();
+                if (schedule != null) {
+                    scheduledMs = startMs + schedule.nextOffsetMs();
+                    final long waitMs = scheduledMs - System.currentTimeMillis();
+                    if (waitMs > 0) {
+                        Thread.sleep(waitMs);
+                    }
+                }
+                window.acquire();
+
+                final CompletableFuture<String> response = llmClient.generateAsync(
+                        prompt,
+                        scheduledMs,
+                        cancellationPolicy.nextCancelAfterMs()
+                );
+                // Added before the callback, a response that is already done removes itself right away
+                inFlight.add(response);
+                response.whenComplete((completion, error) -> {
+                    inFlight.remove(response);
+                    logProgress(counter.incrementAndGet(), promptSource);
+                    releaseExecutor.execute(window::release);
+                });
+            }
+            if (abort.getAsBoolean()) {
+                // Nothing is measured after an abort, the requests still in flight are cancelled
+                LOG.info("Cancelling {} requests in flight", inFlight.size());
+                inFlight.forEach(response -> response.cancel(false));
+            }
+            // Wait for the requests still in flight
+            window.acquire(windowSize);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    private static @NotNull OpenAiLlmClient getLlmClient(@NotNull BenchmarkParams params, LlmTimingHolder timingHolder) {
+    static @NotNull OpenAiLlmClient getLlmClient(@NotNull BenchmarkParams params, LlmTimingHolder timingHolder) {
         final OpenAiLlmClient.OpenAiLlmClientInfo clientInfo = new OpenAiLlmClient.OpenAiLlmClientInfo(
                 params.modelName,
                 params.modelUrl,
                 params.contextSize,
-                params.apiKey
+                params.apiKey,
+                // Replayed traces keep their own prompt size distribution
+                params.trace == null,
+                params.stream,
+                params.preRender,
+                params.streamingParser
         );
 
         final OpenAiLlmClient.IHttpClientCall clientCall;
@@ -113,41 +488,145 @@ public class Benchmark {
         final OpenAiLlmClient llmClient = new OpenAiLlmClient(
                 clientInfo,
                 clientCall,
+                newHttpClientSettings(params),
+                new RetryPolicy(params.retries, params.retryBackoffMs),
+                params.hedgePercentile == null
+                        ? null
+                        : new HedgingPolicy(params.hedgePercentile, params.hedgeUrl == null ? null : URI.create(params.hedgeUrl)),
                 timingHolder
         );
         return llmClient;
     }
 
+    // Request bodies for the prompts are rendered before the client is returned, outside the measured phase
+    static @NotNull OpenAiLlmClient getLlmClient(
+            @NotNull BenchmarkParams params,
+            @NotNull LlmTimingHolder timingHolder,
+            @NotNull List<TokenizedCompletionPrompt> tokenizedPrompts
+    ) {
+        final OpenAiLlmClient llmClient = getLlmClient(params, timingHolder);
+        llmClient.prerender(tokenizedPrompts);
+        return llmClient;
+    }
+
+    private static void writeSerializationReport(
+            @NotNull BenchmarkParams params,
+            @NotNull List<TokenizedCompletionPrompt> tokenizedPrompts
+    ) throws IOException {
+        final List<SerializationCost.Result> results;
+        try (
+                final OpenAiLlmClient llmClient = getLlmClient(params, new LlmTimingHolder())
+        ) {
+            results = SerializationCost.measure(llmClient, tokenizedPrompts);
+        }
+
+        final StringBuilder report = new StringBuilder();
+        report.append("INFO: ").append(params).append("\n\n");
+        report.append("kind, mode, requests, cpuUsPerRequest, allocatedBytesPerRequest, bodyBytesPerRequest\n");
+        for (SerializationCost.Result result : results) {
+            report.append(String.format(
+                    "%s, %s, %d, %.2f, %.0f, %.0f\n",
+                    result.kind(),
+                    result.mode(),
+                    result.requests(),
+                    result.cpuUsPerRequest(),
+                    result.allocatedBytesPerRequest(),
+                    result.bodyBytesPerRequest()
+            ));
+        }
+        report.append("END\n\n");
+        // The first result of each kind is the GSON path every request used to take
+        SerializationCost.Result gson = null;
+        for (SerializationCost.Result result : results) {
+            if (gson == null || !gson.kind().equals(result.kind())) {
+                gson = result;
+                continue;
+            }
+            report.append(String.format(
+                    "%s %s saves per request: %.2fus CPU, %.0f bytes allocated\n",
+                    result.kind(),
+                    result.mode(),
+                    gson.cpuUsPerRequest() - result.cpuUsPerRequest(),
+                    gson.allocatedBytesPerRequest() - result.allocatedBytesPerRequest()
+            ));
+        }
+
+        LOG.info("Serialization report: \n\n {}", report);
+
+        final File reportFile = new File("serialization_report.csv");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(reportFile))) {
+            writer.write(report.toString());
+        }
+
+        LOG.info("Serialization report saved to: {}", reportFile.getAbsolutePath());
+    }
+
+    @NotNull
+    static HttpClientSettings newHttpClientSettings(@NotNull BenchmarkParams params) {
+        return new HttpClientSettings(
+                params.httpVersion,
+                params.newConnectionPerRequest,
+                params.connectionPoolSize,
+                params.keepAliveSec
+        );
+    }
+
     private static void compute(
             @NotNull BenchmarkParams params,
-            @NotNull OpenAiLlmClient llmClient,
-            @NotNull List<TokenizedCompletionPrompt> batch,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull IPromptSource promptSource,
+            @NotNull ICancellationPolicy cancellationPolicy,
+            @NotNull BooleanSupplier abort,
             @NotNull AtomicInteger counter,
-            long totalPrompts
+            long submittedMs
             ) {
-        for (TokenizedCompletionPrompt prompt : batch) {
-            llmClient.generate(prompt);
+        // The first request is due when the worker was submitted, the next ones right after the delay
+        long scheduledMs = submittedMs;
+        TokenizedCompletionPrompt prompt;
+        while (!abort.getAsBoolean() && (prompt = promptSource.next()) != null) {
+            llmClient.generate(prompt, scheduledMs, cancellationPolicy.nextCancelAfterMs());
+            scheduledMs = System.currentTimeMillis() + params.delayMs;
             try {
                 Thread.sleep(params.delayMs);
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
-            int i = counter.incrementAndGet();
-            if (i % 100 == 0) {
-                LOG.info("Processed {}/{}", i, totalPrompts);
+            logProgress(counter.incrementAndGet(), promptSource);
+        }
+    }
+
+    private static void logProgress(int processed, @NotNull IPromptSource promptSource) {
+        if (processed % 100 == 0) {
+            if (promptSource.size() >= 0) {
+                LOG.info("Processed {}/{}", processed, promptSource.size());
+            } else {
+                LOG.info("Processed {}", processed);
             }
         }
     }
 
     @NotNull
-    private static List<TokenizedCompletionPrompt> getTokenizedPrompts(
-            @NotNull BenchmarkParams params
-    ) throws IOException {
-
-        final HuggingFaceTokenizer tokenizer = HuggingFaceTokenizer.newInstance(
+    private static HuggingFaceTokenizer newTokenizer(@NotNull BenchmarkParams params) throws IOException {
+        return HuggingFaceTokenizer.newInstance(
                 Files.newInputStream(params.tokenizer.toPath()),
                 DEFAULT_TOKENIZER_OPTIONS
         );
+    }
+
+    @NotNull
+    static TokenizedCompletionPrompt tokenize(
+            @NotNull HuggingFaceTokenizer tokenizer,
+            @NotNull String prompt
+    ) {
+        final Encoding encoding = tokenizer.encode(prompt);
+        return new TokenizedCompletionPrompt(encoding.getIds(), prompt);
+    }
+
+    @NotNull
+    private static List<TokenizedCompletionPrompt> getTokenizedPrompts(
+            @NotNull BenchmarkParams params,
+            @NotNull HuggingFaceTokenizer tokenizer
+    ) throws IOException {
 
         final List<String> prompts = new ArrayList<>();
 
@@ -177,17 +656,69 @@ public class Benchmark {
         final List<TokenizedCompletionPrompt> tokenizedPrompts = new ArrayList<>();
 
         for (String prompt : promptsShuffled) {
-            final List<Long> tokens = new ArrayList<>();
-            final Encoding encoding = tokenizer.encode(prompt);
-            for (long id : encoding.getIds()) {
-                tokens.add(id);
-            }
-            tokenizedPrompts.add(new TokenizedCompletionPrompt(tokens, prompt));
+            tokenizedPrompts.add(tokenize(tokenizer, prompt));
         }
 
         return tokenizedPrompts;
     }
 
+    // Sessions are shuffled and limited by sampleLimit like single prompts
+    @NotNull
+    private static List<List<TokenizedCompletionPrompt>> getTypingSessions(
+            @NotNull BenchmarkParams params,
+            @NotNull HuggingFaceTokenizer tokenizer
+    ) throws IOException {
+        final List<List<String>> sessions = new ArrayList<>();
+        try (
+                final Stream<String> lines = Files.lines(params.dataset.toPath())
+        ) {
+            lines.forEach(line -> {
+                final List<String> session = PROMPT_COMPUTER.computeTypingSession(line, params.typingKeystrokes);
+                if (session != null) {
+                    sessions.add(session);
+                }
+            });
+        }
+
+        Collections.shuffle(sessions, RANDOM);
+        final List<List<String>> sampled = params.sampleLimit != null
+                ? sessions.subList(0, Math.min(params.sampleLimit, sessions.size()))
+                : sessions;
+
+        final List<List<TokenizedCompletionPrompt>> tokenizedSessions = new ArrayList<>(sampled.size());
+        for (List<String> session : sampled) {
+            final List<TokenizedCompletionPrompt> tokenizedSession = new ArrayList<>(session.size());
+            for (String prompt : session) {
+                tokenizedSession.add(tokenize(tokenizer, prompt));
+            }
+            tokenizedSessions.add(tokenizedSession);
+        }
+        return tokenizedSessions;
+    }
+
+
+    public enum ExecutorMode {
+        // Pooled platform threads: fixed pool for closed loop, cached pool for open loop
+        PLATFORM,
+        // One virtual thread per task, allows thousands of in-flight requests from one JVM
+        VIRTUAL;
+
+        // poolSize is null for unbounded executors
+        @NotNull
+        public ExecutorService newExecutor(@Nullable Integer poolSize) {
+            return switch (this) {
+                case PLATFORM -> poolSize == null
+                        ? Executors.newCachedThreadPool()
+                        : Executors.newFixedThreadPool(poolSize);
+                case VIRTUAL -> Executors.newVirtualThreadPerTaskExecutor();
+            };
+        }
+
+        @NotNull
+        public static ExecutorMode parse(@NotNull String value) {
+            return ExecutorMode.valueOf(value.trim().toUpperCase());
+        }
+    }
 
     public static class BenchmarkParams {
         // null means unlimited
@@ -199,7 +730,8 @@ public class Benchmark {
         public final String gpuConfig;
         @NotNull
         public final String modelName;
-        @NotNull
+        // null with localServer until the server is started
+        @Nullable
         public final String modelUrl;
         @Nullable
         public final String apiKey;
@@ -209,6 +741,106 @@ public class Benchmark {
         @NotNull
         public final File dataset;
         public final boolean mock;
+        // null means closed loop (threads + delayMs), otherwise requests per second
+        @Nullable
+        public final Double arrivalRate;
+        @NotNull
+        public final ArrivalSchedule.Distribution arrivalDistribution;
+        @NotNull
+        public final ExecutorMode executorMode;
+        // null means a single run, otherwise load steps: "1,2,4,8" or geometric ramp "1..64x2"
+        @Nullable
+        public final String sweep;
+        // null means no capacity search, otherwise latency target like "p95<500"
+        @Nullable
+        public final String slo;
+        public final int sloWarmupSec;
+        public final int sloMeasureSec;
+        // Warmup samples are reported separately, see WarmupDetector
+        public final int warmupRequests;
+        public final int warmupSec;
+        public final boolean steadyState;
+        // null means one pass over the dataset, otherwise the dataset is cycled for that long
+        @Nullable
+        public final Integer durationSec;
+        // null means per-window statistics only for duration-based runs (5 min windows)
+        @Nullable
+        public final Integer windowSec;
+        // null means synthetic load, otherwise JSONL trace to replay, see TraceReplay
+        @Nullable
+        public final File trace;
+        // 2 replays the trace twice as fast
+        public final double traceSpeedup;
+        // Fraction of requests cancelled after a random delay in [cancelMinMs, cancelMaxMs], 0 means none
+        public final double cancelFraction;
+        // Cancel delay range in ms after sending, also used for trace rows cancelled without a recorded delay
+        public final long cancelMinMs;
+        public final long cancelMaxMs;
+        // HTTP_2 multiplexes requests over one connection per host
+        @NotNull
+        public final HttpClient.Version httpVersion;
+        // Old behaviour: a new HttpClient, so a new connection and handshake, for every request
+        public final boolean newConnectionPerRequest;
+        // Max idle HTTP/1.1 connections kept alive, 0 means unbounded
+        public final int connectionPoolSize;
+        // How long idle connections stay in the pool
+        public final int keepAliveSec;
+        // Request server-sent events and measure time to first token and inter-token gaps
+        public final boolean stream;
+        // Non-blocking sendAsync transport driven by one thread, see runAsync
+        public final boolean async;
+        // Open-loop async in-flight window
+        public final int maxInFlight;
+        // Request bodies rendered to bytes before the run instead of GSON on the sending thread
+        public final boolean preRender;
+        // Only measure client CPU and allocation per request body, see SerializationCost
+        public final boolean serializationReport;
+        // Completion responses parsed incrementally by CompletionBodyParser instead of GSON object mapping
+        public final boolean streamingParser;
+        // Prompts per request in closed loop, the upper bound when adaptiveBatch is set
+        public final int batchSize;
+        // Batch size searched during the run, see AdaptiveBatchSize
+        public final boolean adaptiveBatch;
+        // Retries of failed requests, see RetryPolicy
+        public final int retries;
+        // Backoff before the first retry, doubled for every next one
+        public final int retryBackoffMs;
+        // Percentile of answer times after which a request gets a hedged copy, null means no hedging
+        @Nullable
+        public final Double hedgePercentile;
+        // Endpoint for hedged copies, modelUrl if null
+        @Nullable
+        public final String hedgeUrl;
+        // Serve completions from an embedded server, modelUrl points to it
+        public final boolean localServer;
+        // Requests the embedded server decodes at once, the rest wait in a FIFO queue
+        public final int localServerSlots;
+        // Embedded server prefill cost per prompt token
+        public final double localServerPrefillUs;
+        // Embedded server decode cost per output token
+        public final int localServerDecodeMs;
+        // Completions cached on the client side, 0 disables the cache
+        public final int cacheEntries;
+        // Bytes the cache may take: completion text plus a per-entry overhead
+        public final long cacheMaxBytes;
+        // Cached completions expire this long after they were stored
+        public final long cacheTtlMs;
+        // Share of requests that repeat a recently sent prompt
+        public final double repeatFraction;
+        // Mean number of new prompts back a repeated prompt was sent, 1 repeats the last one
+        public final double repeatDistance;
+        // Keystrokes typed after the first prompt of a typing session, 0 sends dataset rows as independent prompts
+        public final int typingKeystrokes;
+        // Mean gap between keystrokes of a typing session
+        public final int typingGapMs;
+        // Per-request rows in the report, statistics come from histograms either way
+        public final boolean rows;
+        // Prometheus metrics are served on this port during the run, null means off
+        @Nullable
+        public final Integer metricsPort;
+        // The report is also written in the binary columnar format, columns encoded this way. null means CSV only
+        @Nullable
+        public final ColumnarReport.Encoding binaryReport;
 
         public BenchmarkParams(
                 @Nullable Integer sampleLimit,
@@ -216,12 +848,59 @@ public class Benchmark {
                 long delayMs,
                 @Nullable String gpuConfig,
                 @NotNull String modelName,
-                @NotNull String modelUrl,
+                @Nullable String modelUrl,
                 @Nullable String apiKey,
                 int contextSize,
                 @NotNull File tokenizer,
                 @NotNull File dataset,
-                boolean mock
+                boolean mock,
+                @Nullable Double arrivalRate,
+                @NotNull ArrivalSchedule.Distribution arrivalDistribution,
+                @NotNull ExecutorMode executorMode,
+                @Nullable String sweep,
+                @Nullable String slo,
+                int sloWarmupSec,
+                int sloMeasureSec,
+                int warmupRequests,
+                int warmupSec,
+                boolean steadyState,
+                @Nullable Integer durationSec,
+                @Nullable Integer windowSec,
+                @Nullable File trace,
+                double traceSpeedup,
+                double cancelFraction,
+                long cancelMinMs,
+                long cancelMaxMs,
+                @NotNull HttpClient.Version httpVersion,
+                boolean newConnectionPerRequest,
+                int connectionPoolSize,
+                int keepAliveSec,
+                boolean stream,
+                boolean async,
+                int maxInFlight,
+                boolean preRender,
+                boolean serializationReport,
+                boolean streamingParser,
+                int batchSize,
+                boolean adaptiveBatch,
+                int retries,
+                int retryBackoffMs,
+                @Nullable Double hedgePercentile,
+                @Nullable String hedgeUrl,
+                boolean localServer,
+                int localServerSlots,
+                double localServerPrefillUs,
+                int localServerDecodeMs,
+                int cacheEntries,
+                long cacheMaxBytes,
+                long cacheTtlMs,
+                double repeatFraction,
+                double repeatDistance,
+                int typingKeystrokes,
+                int typingGapMs,
+                boolean rows,
+                @Nullable Integer metricsPort,
+                @Nullable ColumnarReport.Encoding binaryReport
         ) {
             this.sampleLimit = sampleLimit;
             this.threads = threads;
@@ -234,12 +913,122 @@ public class Benchmark {
             this.tokenizer = tokenizer;
             this.dataset = dataset;
             this.mock = mock;
+            this.arrivalRate = arrivalRate;
+            this.arrivalDistribution = arrivalDistribution;
+            this.executorMode = executorMode;
+            this.sweep = sweep;
+            this.slo = slo;
+            this.sloWarmupSec = sloWarmupSec;
+            this.sloMeasureSec = sloMeasureSec;
+            this.warmupRequests = warmupRequests;
+            this.warmupSec = warmupSec;
+            this.steadyState = steadyState;
+            this.durationSec = durationSec;
+            this.windowSec = windowSec;
+            this.trace = trace;
+            this.traceSpeedup = traceSpeedup;
+            this.cancelFraction = cancelFraction;
+            this.cancelMinMs = cancelMinMs;
+            this.cancelMaxMs = cancelMaxMs;
+            this.httpVersion = httpVersion;
+            this.newConnectionPerRequest = newConnectionPerRequest;
+            this.connectionPoolSize = connectionPoolSize;
+            this.keepAliveSec = keepAliveSec;
+            this.stream = stream;
+            this.async = async;
+            this.maxInFlight = maxInFlight;
+            this.preRender = preRender;
+            this.serializationReport = serializationReport;
+            this.streamingParser = streamingParser;
+            this.batchSize = batchSize;
+            this.adaptiveBatch = adaptiveBatch;
+            this.retries = retries;
+            this.retryBackoffMs = retryBackoffMs;
+            this.hedgePercentile = hedgePercentile;
+            this.hedgeUrl = hedgeUrl;
+            this.localServer = localServer;
+            this.localServerSlots = localServerSlots;
+            this.localServerPrefillUs = localServerPrefillUs;
+            this.localServerDecodeMs = localServerDecodeMs;
+            this.cacheEntries = cacheEntries;
+            this.cacheMaxBytes = cacheMaxBytes;
+            this.cacheTtlMs = cacheTtlMs;
+            this.repeatFraction = repeatFraction;
+            this.repeatDistance = repeatDistance;
+            this.typingKeystrokes = typingKeystrokes;
+            this.typingGapMs = typingGapMs;
+            this.rows = rows;
+            this.metricsPort = metricsPort;
+            this.binaryReport = binaryReport;
         }
 
         public static Builder builder() {
             return new Builder();
         }
 
+        @NotNull
+        public Builder toBuilder() {
+            return new Builder()
+                    .withSampleLimit(sampleLimit)
+                    .withThreads(threads)
+                    .withDelayMs(delayMs)
+                    .withGpuConfig(gpuConfig)
+                    .withModelName(modelName)
+                    .withModelUrl(modelUrl)
+                    .withApiKey(apiKey)
+                    .withContextSize(contextSize)
+                    .withTokenizer(tokenizer)
+                    .withDataset(dataset)
+                    .withMock(mock)
+                    .withArrivalRate(arrivalRate)
+                    .withArrivalDistribution(arrivalDistribution)
+                    .withExecutorMode(executorMode)
+                    .withSweep(sweep)
+                    .withSlo(slo)
+                    .withSloWarmupSec(sloWarmupSec)
+                    .withSloMeasureSec(sloMeasureSec)
+                    .withWarmupRequests(warmupRequests)
+                    .withWarmupSec(warmupSec)
+                    .withSteadyState(steadyState)
+                    .withDurationSec(durationSec)
+                    .withWindowSec(windowSec)
+                    .withTrace(trace)
+                    .withTraceSpeedup(traceSpeedup)
+                    .withCancelFraction(cancelFraction)
+                    .withCancelMinMs(cancelMinMs)
+                    .withCancelMaxMs(cancelMaxMs)
+                    .withHttpVersion(httpVersion)
+                    .withNewConnectionPerRequest(newConnectionPerRequest)
+                    .withConnectionPoolSize(connectionPoolSize)
+                    .withKeepAliveSec(keepAliveSec)
+                    .withStream(stream)
+                    .withAsync(async)
+                    .withMaxInFlight(maxInFlight)
+                    .withPreRender(preRender)
+                    .withSerializationReport(serializationReport)
+                    .withStreamingParser(streamingParser)
+                    .withBatchSize(batchSize)
+                    .withAdaptiveBatch(adaptiveBatch)
+                    .withRetries(retries)
+                    .withRetryBackoffMs(retryBackoffMs)
+                    .withHedgePercentile(hedgePercentile)
+                    .withHedgeUrl(hedgeUrl)
+                    .withLocalServer(localServer)
+                    .withLocalServerSlots(localServerSlots)
+                    .withLocalServerPrefillUs(localServerPrefillUs)
+                    .withLocalServerDecodeMs(localServerDecodeMs)
+                    .withCacheEntries(cacheEntries)
+                    .withCacheMaxBytes(cacheMaxBytes)
+                    .withCacheTtlMs(cacheTtlMs)
+                    .withRepeatFraction(repeatFraction)
+                    .withRepeatDistance(repeatDistance)
+                    .withTypingKeystrokes(typingKeystrokes)
+                    .withTypingGapMs(typingGapMs)
+                    .withRows(rows)
+                    .withMetricsPort(metricsPort)
+                    .withBinaryReport(binaryReport);
+        }
+
         @Override
         public String toString() {
             return "BenchmarkParams{" +
@@ -254,6 +1043,53 @@ public class Benchmark {
                     ", tokenizer=" + tokenizer +
                     ", dataset=" + dataset +
                     ", mock=" + mock +
+                    ", arrivalRate=" + arrivalRate +
+                    ", arrivalDistribution=" + arrivalDistribution +
+                    ", executorMode=" + executorMode +
+                    ", sweep='" + sweep + '\'' +
+                    ", slo='" + slo + '\'' +
+                    ", sloWarmupSec=" + sloWarmupSec +
+                    ", sloMeasureSec=" + sloMeasureSec +
+                    ", warmupRequests=" + warmupRequests +
+                    ", warmupSec=" + warmupSec +
+                    ", steadyState=" + steadyState +
+                    ", durationSec=" + durationSec +
+                    ", windowSec=" + windowSec +
+                    ", trace=" + trace +
+                    ", traceSpeedup=" + traceSpeedup +
+                    ", cancelFraction=" + cancelFraction +
+                    ", cancelMinMs=" + cancelMinMs +
+                    ", cancelMaxMs=" + cancelMaxMs +
+                    ", httpVersion=" + httpVersion +
+                    ", newConnectionPerRequest=" + newConnectionPerRequest +
+                    ", connectionPoolSize=" + connectionPoolSize +
+                    ", keepAliveSec=" + keepAliveSec +
+                    ", stream=" + stream +
+                    ", async=" + async +
+                    ", maxInFlight=" + maxInFlight +
+                    ", preRender=" + preRender +
+                    ", serializationReport=" + serializationReport +
+                    ", streamingParser=" + streamingParser +
+                    ", batchSize=" + batchSize +
+                    ", adaptiveBatch=" + adaptiveBatch +
+                    ", retries=" + retries +
+                    ", retryBackoffMs=" + retryBackoffMs +
+                    ", hedgePercentile=" + hedgePercentile +
+                    ", hedgeUrl='" + hedgeUrl + '\'' +
+                    ", localServer=" + localServer +
+                    ", localServerSlots=" + localServerSlots +
+                    ", localServerPrefillUs=" + localServerPrefillUs +
+                    ", localServerDecodeMs=" + localServerDecodeMs +
+                    ", cacheEntries=" + cacheEntries +
+                    ", cacheMaxBytes=" + cacheMaxBytes +
+                    ", cacheTtlMs=" + cacheTtlMs +
+                    ", repeatFraction=" + repeatFraction +
+                    ", repeatDistance=" + repeatDistance +
+                    ", typingKeystrokes=" + typingKeystrokes +
+                    ", typingGapMs=" + typingGapMs +
+                    ", rows=" + rows +
+                    ", metricsPort=" + metricsPort +
+                    ", binaryReport=" + binaryReport +
                     '}';
         }
     }
@@ -275,6 +1111,48 @@ public class Benchmark {
         );
 
         public final static boolean MOCK_DEFAULT = false;
+        @Nullable
+        public final static Double ARRIVAL_RATE_DEFAULT = null;
+        @NotNull
+        public final static ArrivalSchedule.Distribution ARRIVAL_DISTRIBUTION_DEFAULT = ArrivalSchedule.Distribution.FIXED;
+        @NotNull
+        public final static ExecutorMode EXECUTOR_MODE_DEFAULT = ExecutorMode.PLATFORM;
+        public final static int SLO_WARMUP_SEC_DEFAULT = 10;
+        public final static int SLO_MEASURE_SEC_DEFAULT = 30;
+        public final static int WARMUP_REQUESTS_DEFAULT = 0;
+        public final static int WARMUP_SEC_DEFAULT = 0;
+        public final static boolean STEADY_STATE_DEFAULT = false;
+        public final static double TRACE_SPEEDUP_DEFAULT = 1.0;
+        public final static double CANCEL_FRACTION_DEFAULT = 0;
+        public final static long CANCEL_MIN_MS_DEFAULT = 50;
+        public final static long CANCEL_MAX_MS_DEFAULT = 500;
+        @NotNull
+        public final static HttpClient.Version HTTP_VERSION_DEFAULT = HttpClient.Version.HTTP_1_1;
+        public final static boolean NEW_CONNECTION_PER_REQUEST_DEFAULT = false;
+        public final static int CONNECTION_POOL_SIZE_DEFAULT = 0;
+        public final static int KEEP_ALIVE_SEC_DEFAULT = 30;
+        public final static boolean STREAM_DEFAULT = false;
+        public final static boolean ASYNC_DEFAULT = false;
+        public final static int MAX_IN_FLIGHT_DEFAULT = 256;
+        public final static boolean PRE_RENDER_DEFAULT = true;
+        public final static boolean SERIALIZATION_REPORT_DEFAULT = false;
+        public final static boolean STREAMING_PARSER_DEFAULT = true;
+        public final static int BATCH_SIZE_DEFAULT = 1;
+        public final static boolean ADAPTIVE_BATCH_DEFAULT = false;
+        public final static int RETRIES_DEFAULT = 0;
+        public final static int RETRY_BACKOFF_MS_DEFAULT = 100;
+        public final static boolean LOCAL_SERVER_DEFAULT = false;
+        public final static int LOCAL_SERVER_SLOTS_DEFAULT = 8;
+        public final static double LOCAL_SERVER_PREFILL_US_DEFAULT = 100.0;
+        public final static int LOCAL_SERVER_DECODE_MS_DEFAULT = 15;
+        public final static int CACHE_ENTRIES_DEFAULT = 0;
+        public final static long CACHE_MAX_BYTES_DEFAULT = 64L * 1024 * 1024;
+        public final static long CACHE_TTL_MS_DEFAULT = 60_000L;
+        public final static double REPEAT_FRACTION_DEFAULT = 0.0;
+        public final static double REPEAT_DISTANCE_DEFAULT = 4.0;
+        public final static int TYPING_KEYSTROKES_DEFAULT = 0;
+        public final static int TYPING_GAP_MS_DEFAULT = 200;
+        public final static boolean ROWS_DEFAULT = true;
 
         private Integer sampleLimit = SAMPLE_LIMIT_DEFAULT;
         private Integer threads = THREADS_DEFAULT;
@@ -287,6 +1165,53 @@ public class Benchmark {
         private File tokenizer;
         private File dataset;
         private Boolean mock;
+        private Double arrivalRate = ARRIVAL_RATE_DEFAULT;
+        private ArrivalSchedule.Distribution arrivalDistribution;
+        private ExecutorMode executorMode;
+        private String sweep;
+        private String slo;
+        private Integer sloWarmupSec = SLO_WARMUP_SEC_DEFAULT;
+        private Integer sloMeasureSec = SLO_MEASURE_SEC_DEFAULT;
+        private Integer warmupRequests = WARMUP_REQUESTS_DEFAULT;
+        private Integer warmupSec = WARMUP_SEC_DEFAULT;
+        private Boolean steadyState = STEADY_STATE_DEFAULT;
+        private Integer durationSec;
+        private Integer windowSec;
+        private File trace;
+        private Double traceSpeedup = TRACE_SPEEDUP_DEFAULT;
+        private Double cancelFraction = CANCEL_FRACTION_DEFAULT;
+        private Long cancelMinMs = CANCEL_MIN_MS_DEFAULT;
+        private Long cancelMaxMs = CANCEL_MAX_MS_DEFAULT;
+        private HttpClient.Version httpVersion = HTTP_VERSION_DEFAULT;
+        private Boolean newConnectionPerRequest = NEW_CONNECTION_PER_REQUEST_DEFAULT;
+        private Integer connectionPoolSize = CONNECTION_POOL_SIZE_DEFAULT;
+        private Integer keepAliveSec = KEEP_ALIVE_SEC_DEFAULT;
+        private Boolean stream = STREAM_DEFAULT;
+        private Boolean async = ASYNC_DEFAULT;
+        private Integer maxInFlight = MAX_IN_FLIGHT_DEFAULT;
+        private Boolean preRender = PRE_RENDER_DEFAULT;
+        private Boolean serializationReport = SERIALIZATION_REPORT_DEFAULT;
+        private Boolean streamingParser = STREAMING_PARSER_DEFAULT;
+        private Integer batchSize = BATCH_SIZE_DEFAULT;
+        private Boolean adaptiveBatch = ADAPTIVE_BATCH_DEFAULT;
+        private Integer retries = RETRIES_DEFAULT;
+        private Integer retryBackoffMs = RETRY_BACKOFF_MS_DEFAULT;
+        private Double hedgePercentile;
+        private String hedgeUrl;
+        private Boolean localServer = LOCAL_SERVER_DEFAULT;
+        private Integer localServerSlots = LOCAL_SERVER_SLOTS_DEFAULT;
+        private Double localServerPrefillUs = LOCAL_SERVER_PREFILL_US_DEFAULT;
+        private Integer localServerDecodeMs = LOCAL_SERVER_DECODE_MS_DEFAULT;
+        private Integer cacheEntries = CACHE_ENTRIES_DEFAULT;
+        private Long cacheMaxBytes = CACHE_MAX_BYTES_DEFAULT;
+        private Long cacheTtlMs = CACHE_TTL_MS_DEFAULT;
+        private Double repeatFraction = REPEAT_FRACTION_DEFAULT;
+        private Double repeatDistance = REPEAT_DISTANCE_DEFAULT;
+        private Integer typingKeystrokes = TYPING_KEYSTROKES_DEFAULT;
+        private Integer typingGapMs = TYPING_GAP_MS_DEFAULT;
+        private Boolean rows = ROWS_DEFAULT;
+        private Integer metricsPort;
+        private ColumnarReport.Encoding binaryReport;
 
         public Builder withSampleLimit(@Nullable Integer sampleLimit) {
             this.sampleLimit = sampleLimit;
@@ -353,6 +1278,274 @@ public class Benchmark {
             return this;
         }
 
+        public Builder withArrivalRate(@Nullable Double arrivalRate) {
+            this.arrivalRate = arrivalRate;
+            return this;
+        }
+
+        public Builder withArrivalDistribution(@Nullable ArrivalSchedule.Distribution arrivalDistribution) {
+            this.arrivalDistribution = arrivalDistribution;
+            return this;
+        }
+
+        public Builder withArrivalDistribution(@Nullable String arrivalDistributionStr) {
+            this.arrivalDistribution = arrivalDistributionStr == null || arrivalDistributionStr.isEmpty()
+                    ? null
+                    : ArrivalSchedule.Distribution.parse(arrivalDistributionStr);
+            return this;
+        }
+
+        public Builder withExecutorMode(@Nullable ExecutorMode executorMode) {
+            this.executorMode = executorMode;
+            return this;
+        }
+
+        public Builder withExecutorMode(@Nullable String executorModeStr) {
+            this.executorMode = executorModeStr == null || executorModeStr.isEmpty()
+                    ? null
+                    : ExecutorMode.parse(executorModeStr);
+            return this;
+        }
+
+        public Builder withSweep(@Nullable String sweep) {
+            this.sweep = sweep == null || sweep.isEmpty() ? null : sweep;
+            return this;
+        }
+
+        public Builder withSlo(@Nullable String slo) {
+            this.slo = slo == null || slo.isEmpty() ? null : slo;
+            return this;
+        }
+
+        public Builder withSloWarmupSec(@Nullable Integer sloWarmupSec) {
+            this.sloWarmupSec = sloWarmupSec;
+            return this;
+        }
+
+        public Builder withSloMeasureSec(@Nullable Integer sloMeasureSec) {
+            this.sloMeasureSec = sloMeasureSec;
+            return this;
+        }
+
+        public Builder withWarmupRequests(@Nullable Integer warmupRequests) {
+            this.warmupRequests = warmupRequests;
+            return this;
+        }
+
+        public Builder withWarmupSec(@Nullable Integer warmupSec) {
+            this.warmupSec = warmupSec;
+            return this;
+        }
+
+        public Builder withSteadyState(@Nullable Boolean steadyState) {
+            this.steadyState = steadyState;
+            return this;
+        }
+
+        public Builder withDurationSec(@Nullable Integer durationSec) {
+            this.durationSec = durationSec;
+            return this;
+        }
+
+        public Builder withWindowSec(@Nullable Integer windowSec) {
+            this.windowSec = windowSec;
+            return this;
+        }
+
+        public Builder withTrace(@Nullable File trace) {
+            this.trace = trace;
+            return this;
+        }
+
+        public Builder withTrace(@Nullable String traceStr) {
+            this.trace = traceStr == null || traceStr.isEmpty() ? null : new File(traceStr);
+            return this;
+        }
+
+        public Builder withTraceSpeedup(@Nullable Double traceSpeedup) {
+            this.traceSpeedup = traceSpeedup;
+            return this;
+        }
+
+        public Builder withCancelFraction(@Nullable Double cancelFraction) {
+            this.cancelFraction = cancelFraction;
+            return this;
+        }
+
+        public Builder withCancelMinMs(@Nullable Long cancelMinMs) {
+            this.cancelMinMs = cancelMinMs;
+            return this;
+        }
+
+        public Builder withCancelMaxMs(@Nullable Long cancelMaxMs) {
+            this.cancelMaxMs = cancelMaxMs;
+            return this;
+        }
+
+        public Builder withHttpVersion(@Nullable HttpClient.Version httpVersion) {
+            this.httpVersion = httpVersion;
+            return this;
+        }
+
+        public Builder withHttpVersion(@Nullable String httpVersionStr) {
+            this.httpVersion = httpVersionStr == null || httpVersionStr.isEmpty()
+                    ? null
+                    : HttpClientSettings.parseVersion(httpVersionStr);
+            return this;
+        }
+
+        public Builder withNewConnectionPerRequest(@Nullable Boolean newConnectionPerRequest) {
+            this.newConnectionPerRequest = newConnectionPerRequest;
+            return this;
+        }
+
+        public Builder withConnectionPoolSize(@Nullable Integer connectionPoolSize) {
+            this.connectionPoolSize = connectionPoolSize;
+            return this;
+        }
+
+        public Builder withKeepAliveSec(@Nullable Integer keepAliveSec) {
+            this.keepAliveSec = keepAliveSec;
+            return this;
+        }
+
+        public Builder withStream(@Nullable Boolean stream) {
+            this.stream = stream;
+            return this;
+        }
+
+        public Builder withAsync(@Nullable Boolean async) {
+            this.async = async;
+            return this;
+        }
+
+        public Builder withMaxInFlight(@Nullable Integer maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public Builder withPreRender(@Nullable Boolean preRender) {
+            this.preRender = preRender;
+            return this;
+        }
+
+        public Builder withSerializationReport(@Nullable Boolean serializationReport) {
+            this.serializationReport = serializationReport;
+            return this;
+        }
+
+        public Builder withStreamingParser(@Nullable Boolean streamingParser) {
+            this.streamingParser = streamingParser;
+            return this;
+        }
+
+        public Builder withBatchSize(@Nullable Integer batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder withAdaptiveBatch(@Nullable Boolean adaptiveBatch) {
+            this.adaptiveBatch = adaptiveBatch;
+            return this;
+        }
+
+        public Builder withRetries(@Nullable Integer retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        public Builder withRetryBackoffMs(@Nullable Integer retryBackoffMs) {
+            this.retryBackoffMs = retryBackoffMs;
+            return this;
+        }
+
+        public Builder withHedgePercentile(@Nullable Double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        public Builder withHedgeUrl(@Nullable String hedgeUrl) {
+            this.hedgeUrl = hedgeUrl;
+            return this;
+        }
+
+        public Builder withLocalServer(@Nullable Boolean localServer) {
+            this.localServer = localServer;
+            return this;
+        }
+
+        public Builder withLocalServerSlots(@Nullable Integer localServerSlots) {
+            this.localServerSlots = localServerSlots;
+            return this;
+        }
+
+        public Builder withLocalServerPrefillUs(@Nullable Double localServerPrefillUs) {
+            this.localServerPrefillUs = localServerPrefillUs;
+            return this;
+        }
+
+        public Builder withLocalServerDecodeMs(@Nullable Integer localServerDecodeMs) {
+            this.localServerDecodeMs = localServerDecodeMs;
+            return this;
+        }
+
+        public Builder withCacheEntries(@Nullable Integer cacheEntries) {
+            this.cacheEntries = cacheEntries;
+            return this;
+        }
+
+        public Builder withCacheMaxBytes(@Nullable Long cacheMaxBytes) {
+            this.cacheMaxBytes = cacheMaxBytes;
+            return this;
+        }
+
+        public Builder withCacheTtlMs(@Nullable Long cacheTtlMs) {
+            this.cacheTtlMs = cacheTtlMs;
+            return this;
+        }
+
+        public Builder withRepeatFraction(@Nullable Double repeatFraction) {
+            this.repeatFraction = repeatFraction;
+            return this;
+        }
+
+        public Builder withRepeatDistance(@Nullable Double repeatDistance) {
+            this.repeatDistance = repeatDistance;
+            return this;
+        }
+
+        public Builder withTypingKeystrokes(@Nullable Integer typingKeystrokes) {
+            this.typingKeystrokes = typingKeystrokes;
+            return this;
+        }
+
+        public Builder withTypingGapMs(@Nullable Integer typingGapMs) {
+            this.typingGapMs = typingGapMs;
+            return this;
+        }
+
+        public Builder withRows(@Nullable Boolean rows) {
+            this.rows = rows;
+            return this;
+        }
+
+        public Builder withMetricsPort(@Nullable Integer metricsPort) {
+            this.metricsPort = metricsPort;
+            return this;
+        }
+
+        public Builder withBinaryReport(@Nullable ColumnarReport.Encoding binaryReport) {
+            this.binaryReport = binaryReport;
+            return this;
+        }
+
+        public Builder withBinaryReport(@Nullable String binaryReportStr) {
+            this.binaryReport = binaryReportStr == null || binaryReportStr.isEmpty()
+                    ? null
+                    : ColumnarReport.Encoding.parse(binaryReportStr);
+            return this;
+        }
+
         public BenchmarkParams build() {
             if (sampleLimit == null) {
                 sampleLimit = SAMPLE_LIMIT_DEFAULT;
@@ -375,11 +1568,222 @@ public class Benchmark {
             if (mock == null) {
                 mock = MOCK_DEFAULT;
             }
+            if (arrivalDistribution == null) {
+                arrivalDistribution = ARRIVAL_DISTRIBUTION_DEFAULT;
+            }
+            if (executorMode == null) {
+                executorMode = EXECUTOR_MODE_DEFAULT;
+            }
+            if (arrivalRate != null && arrivalRate <= 0) {
+                throw new IllegalArgumentException("arrivalRate should be positive: " + arrivalRate);
+            }
+            if (sweep != null) {
+                BenchmarkSweep.parseSteps(sweep);
+            }
+            if (slo != null) {
+                CapacitySearch.SloTarget.parse(slo);
+            }
+            if (slo != null && sweep != null) {
+                throw new IllegalArgumentException("slo and sweep can't be used together, -sw would be ignored");
+            }
+            if (sloWarmupSec == null) {
+                sloWarmupSec = SLO_WARMUP_SEC_DEFAULT;
+            }
+            if (sloMeasureSec == null) {
+                sloMeasureSec = SLO_MEASURE_SEC_DEFAULT;
+            }
+            if (warmupRequests == null) {
+                warmupRequests = WARMUP_REQUESTS_DEFAULT;
+            }
+            if (warmupSec == null) {
+                warmupSec = WARMUP_SEC_DEFAULT;
+            }
+            if (steadyState == null) {
+                steadyState = STEADY_STATE_DEFAULT;
+            }
+            if (durationSec != null && durationSec <= 0) {
+                throw new IllegalArgumentException("durationSec should be positive: " + durationSec);
+            }
+            if (windowSec != null && windowSec <= 0) {
+                throw new IllegalArgumentException("windowSec should be positive: " + windowSec);
+            }
+            if (traceSpeedup == null) {
+                traceSpeedup = TRACE_SPEEDUP_DEFAULT;
+            }
+            if (traceSpeedup <= 0) {
+                throw new IllegalArgumentException("traceSpeedup should be positive: " + traceSpeedup);
+            }
+            if (trace != null && !trace.exists()) {
+                throw new IllegalArgumentException("trace can't be found: " + trace.getAbsolutePath());
+            }
+            if (sloWarmupSec < 0 || sloMeasureSec <= 0) {
+                throw new IllegalArgumentException("Invalid SLO probe durations: warmup=" + sloWarmupSec + ", measure=" + sloMeasureSec);
+            }
+            if (cancelFraction == null) {
+                cancelFraction = CANCEL_FRACTION_DEFAULT;
+            }
+            if (cancelFraction < 0 || cancelFraction > 1) {
+                throw new IllegalArgumentException("cancelFraction should be in [0, 1]: " + cancelFraction);
+            }
+            if (cancelMinMs == null) {
+                cancelMinMs = CANCEL_MIN_MS_DEFAULT;
+            }
+            if (cancelMaxMs == null) {
+                cancelMaxMs = CANCEL_MAX_MS_DEFAULT;
+            }
+            if (cancelMinMs < 0 || cancelMaxMs < cancelMinMs) {
+                throw new IllegalArgumentException("Invalid cancel delay range: " + cancelMinMs + ".." + cancelMaxMs);
+            }
+            if (httpVersion == null) {
+                httpVersion = HTTP_VERSION_DEFAULT;
+            }
+            if (newConnectionPerRequest == null) {
+                newConnectionPerRequest = NEW_CONNECTION_PER_REQUEST_DEFAULT;
+            }
+            if (connectionPoolSize == null) {
+                connectionPoolSize = CONNECTION_POOL_SIZE_DEFAULT;
+            }
+            if (connectionPoolSize < 0) {
+                throw new IllegalArgumentException("connectionPoolSize can't be negative: " + connectionPoolSize);
+            }
+            if (keepAliveSec == null) {
+                keepAliveSec = KEEP_ALIVE_SEC_DEFAULT;
+            }
+            if (keepAliveSec <= 0) {
+                throw new IllegalArgumentException("keepAliveSec should be positive: " + keepAliveSec);
+            }
+            if (stream == null) {
+                stream = STREAM_DEFAULT;
+            }
+            if (async == null) {
+                async = ASYNC_DEFAULT;
+            }
+            if (maxInFlight == null) {
+                maxInFlight = MAX_IN_FLIGHT_DEFAULT;
+            }
+            if (maxInFlight <= 0) {
+                throw new IllegalArgumentException("maxInFlight should be positive: " + maxInFlight);
+            }
+            if (preRender == null) {
+                preRender = PRE_RENDER_DEFAULT;
+            }
+            if (serializationReport == null) {
+                serializationReport = SERIALIZATION_REPORT_DEFAULT;
+            }
+            if (streamingParser == null) {
+                streamingParser = STREAMING_PARSER_DEFAULT;
+            }
+            if (batchSize == null) {
+                batchSize = BATCH_SIZE_DEFAULT;
+            }
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("batchSize should be positive: " + batchSize);
+            }
+            if (adaptiveBatch == null) {
+                adaptiveBatch = ADAPTIVE_BATCH_DEFAULT;
+            }
+            if ((batchSize > 1 || adaptiveBatch) && (arrivalRate != null || trace != null || slo != null || async)) {
+                throw new IllegalArgumentException("Batches are sent in closed loop only, without -r, -tr, -slo and -as");
+            }
+            if (retries == null) {
+                retries = RETRIES_DEFAULT;
+            }
+            if (retries < 0) {
+                throw new IllegalArgumentException("retries can't be negative: " + retries);
+            }
+            if (retryBackoffMs == null) {
+                retryBackoffMs = RETRY_BACKOFF_MS_DEFAULT;
+            }
+            if (retryBackoffMs < 0) {
+                throw new IllegalArgumentException("retryBackoffMs can't be negative: " + retryBackoffMs);
+            }
+            if (hedgePercentile != null && (hedgePercentile <= 0 || hedgePercentile >= 100)) {
+                throw new IllegalArgumentException("hedgePercentile should be in (0, 100): " + hedgePercentile);
+            }
+            if (localServer == null) {
+                localServer = LOCAL_SERVER_DEFAULT;
+            }
+            if (localServerSlots == null) {
+                localServerSlots = LOCAL_SERVER_SLOTS_DEFAULT;
+            }
+            if (localServerSlots <= 0) {
+                throw new IllegalArgumentException("localServerSlots should be positive: " + localServerSlots);
+            }
+            if (localServerPrefillUs == null) {
+                localServerPrefillUs = LOCAL_SERVER_PREFILL_US_DEFAULT;
+            }
+            if (localServerPrefillUs < 0) {
+                throw new IllegalArgumentException("localServerPrefillUs can't be negative: " + localServerPrefillUs);
+            }
+            if (localServerDecodeMs == null) {
+                localServerDecodeMs = LOCAL_SERVER_DECODE_MS_DEFAULT;
+            }
+            if (localServerDecodeMs < 0) {
+                throw new IllegalArgumentException("localServerDecodeMs can't be negative: " + localServerDecodeMs);
+            }
+            // The mocked model never sends a request, the embedded server would get none
+            if (localServer && mock) {
+                throw new IllegalArgumentException("localServer and mock can't be used together, -ls would be ignored");
+            }
+            if (cacheEntries == null) {
+                cacheEntries = CACHE_ENTRIES_DEFAULT;
+            }
+            if (cacheEntries < 0) {
+                throw new IllegalArgumentException("cacheEntries can't be negative: " + cacheEntries);
+            }
+            if (cacheMaxBytes == null) {
+                cacheMaxBytes = CACHE_MAX_BYTES_DEFAULT;
+            }
+            if (cacheMaxBytes <= 0) {
+                throw new IllegalArgumentException("cacheMaxBytes should be positive: " + cacheMaxBytes);
+            }
+            if (cacheTtlMs == null) {
+                cacheTtlMs = CACHE_TTL_MS_DEFAULT;
+            }
+            if (cacheTtlMs <= 0) {
+                throw new IllegalArgumentException("cacheTtlMs should be positive: " + cacheTtlMs);
+            }
+            if (repeatFraction == null) {
+                repeatFraction = REPEAT_FRACTION_DEFAULT;
+            }
+            if (repeatFraction < 0 || repeatFraction >= 1) {
+                throw new IllegalArgumentException("repeatFraction should be in [0, 1): " + repeatFraction);
+            }
+            if (repeatDistance == null) {
+                repeatDistance = REPEAT_DISTANCE_DEFAULT;
+            }
+            if (repeatDistance < 1) {
+                throw new IllegalArgumentException("repeatDistance should be at least 1: " + repeatDistance);
+            }
+            if (typingKeystrokes == null) {
+                typingKeystrokes = TYPING_KEYSTROKES_DEFAULT;
+            }
+            if (typingKeystrokes < 0) {
+                throw new IllegalArgumentException("typingKeystrokes can't be negative: " + typingKeystrokes);
+            }
+            if (typingGapMs == null) {
+                typingGapMs = TYPING_GAP_MS_DEFAULT;
+            }
+            if (typingGapMs < 0) {
+                throw new IllegalArgumentException("typingGapMs can't be negative: " + typingGapMs);
+            }
+            if (typingKeystrokes > 0 && (arrivalRate != null || trace != null || slo != null || sweep != null || async || batchSize > 1 || adaptiveBatch)) {
+                throw new IllegalArgumentException("Typing sessions run in closed loop only, without -r, -tr, -slo, -sw, -as and batches");
+            }
+            if (rows == null) {
+                rows = ROWS_DEFAULT;
+            }
+            if (metricsPort != null && (metricsPort < 0 || metricsPort > 65535)) {
+                throw new IllegalArgumentException("metricsPort should be in [0, 65535]: " + metricsPort);
+            }
+            if (metricsPort != null && (slo != null || sweep != null)) {
+                throw new IllegalArgumentException("Metrics are served for a single run, not with -slo and -sw");
+            }
             if (modelName == null) {
                 throw new IllegalArgumentException("modelName can't be null");
             }
-            if (modelUrl == null) {
-                throw new IllegalArgumentException("modelUrl can't be null");
+            if (modelUrl == null && !localServer) {
+                throw new IllegalArgumentException("modelUrl can't be null without localServer");
             }
             if (contextSize == null) {
                 throw new IllegalArgumentException("contextSize can't be null");
@@ -401,7 +1805,54 @@ public class Benchmark {
                     contextSize,
                     tokenizer,
                     dataset,
-                    mock
+                    mock,
+                    arrivalRate,
+                    arrivalDistribution,
+                    executorMode,
+                    sweep,
+                    slo,
+                    sloWarmupSec,
+                    sloMeasureSec,
+                    warmupRequests,
+                    warmupSec,
+                    steadyState,
+                    durationSec,
+                    windowSec,
+                    trace,
+                    traceSpeedup,
+                    cancelFraction,
+                    cancelMinMs,
+                    cancelMaxMs,
+                    httpVersion,
+                    newConnectionPerRequest,
+                    connectionPoolSize,
+                    keepAliveSec,
+                    stream,
+                    async,
+                    maxInFlight,
+                    preRender,
+                    serializationReport,
+                    streamingParser,
+                    batchSize,
+                    adaptiveBatch,
+                    retries,
+                    retryBackoffMs,
+                    hedgePercentile,
+                    hedgeUrl,
+                    localServer,
+                    localServerSlots,
+                    localServerPrefillUs,
+                    localServerDecodeMs,
+                    cacheEntries,
+                    cacheMaxBytes,
+                    cacheTtlMs,
+                    repeatFraction,
+                    repeatDistance,
+                    typingKeystrokes,
+                    typingGapMs,
+                    rows,
+                    metricsPort,
+                    binaryReport
             );
         }
     }
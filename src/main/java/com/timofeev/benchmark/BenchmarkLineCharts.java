@@ -3,82 +3,58 @@ package com.timofeev.benchmark;
 import org.knowm.xchart.*;
 import org.knowm.xchart.style.markers.SeriesMarkers;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.LongBuffer;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class BenchmarkLineCharts {
 
-    public static void main(String[] args) throws IOException {
-        // Read data from CSV (timeMs, contextTokensSize, responseCharsSize)
-        List<Double> timeMs = new ArrayList<>();
-        List<Double> contextTokens = new ArrayList<>();
-        List<Double> responseChars = new ArrayList<>();
-        String meta = "";
-        String title = "";
-        int total = 0;
+    // Charts a report given as the argument, CSV or binary, report_9.csv from the resources without one
+    public static void main(String[] args) throws IOException, URISyntaxException {
+        final File reportFile = args.length > 0
+                ? new File(args[0])
+                : new File(BenchmarkLineCharts.class.getResource("/reports/report_9.csv").toURI());
+        final ColumnarReport report = ColumnarReport.open(reportFile);
+
+        // Columns as primitive arrays (timeMs, contextTokensSize, responseCharsSize)
+        final double[] timeMs = report.doubles("timeMs");
+        final double[] contextTokens = report.doubles("contextTokensSize");
+        final double[] responseChars = report.doubles("responseCharsSize");
+        // Present in reports with scheduledMs, sendMs columns
+        final LongBuffer sendMs = report.hasColumn("sendMs") ? report.column("sendMs") : null;
+        final int total = report.size();
+
+        final Map<String, String> params = report.getParams();
+        System.out.println(params);
+        String title = String.format("Config: %s model: %s ctx size: %s", params.get("gpuConfig"), params.get("modelName"), params.get("contextSize"));
+
         double absoluteSum = 0;
         double relativeSum = 0;
-
-        try (Scanner scanner = new Scanner(BenchmarkLineCharts.class.getResourceAsStream("/reports/report_9.csv"))) {
-            meta = scanner.nextLine(); // read meta
-            System.out.println(meta);
-            Map<String, String> params = parseBenchmarkParams(meta);
-            title = String.format("Config: %s model: %s ctx size: %s", params.get("gpuConfig"), params.get("modelName"), params.get("contextSize"));
-            scanner.nextLine(); // skip empty line
-            scanner.nextLine(); // skip header
-
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                if (line.equals("END")) {
-                    break;
-                }
-                String[] parts = line.split(",");
-                double time = Double.parseDouble(parts[0]);
-                timeMs.add(time);
-                double tokens = Double.parseDouble(parts[1]);
-                contextTokens.add(tokens);
-                responseChars.add(Double.parseDouble(parts[2]));
-                total++;
-                absoluteSum += time;
-                relativeSum += time / tokens;
-
-            }
-
-            String timings = String.format("Avg. time per request %8.2f, per ctx token %8.2f", absoluteSum / total, relativeSum / total);
-            title += " " + timings;
-
-/*            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                if (!line.startsWith("vllm:e2e_request_latency_seconds_bucket")) {
-                    continue;
-                }
-                String[] parts = line.split(",");
-                double time = Double.parseDouble(parts[0]);
-                timeMs.add(time);
-                double tokens = Double.parseDouble(parts[1]);
-                contextTokens.add(tokens);
-                responseChars.add(Double.parseDouble(parts[2]));
-                total++;
-                absoluteSum += time;
-                relativeSum += time / tokens;
-
-            }*/
+        for (int i = 0; i < total; i++) {
+            absoluteSum += timeMs[i];
+            relativeSum += timeMs[i] / contextTokens[i];
         }
+        String timings = String.format("Avg. time per request %8.2f, per ctx token %8.2f", absoluteSum / total, relativeSum / total);
+        title += " " + timings;
 
-        System.out.println("Total count: " + timeMs.size());
+        System.out.println("Total count: " + total);
 
         // Calculate combined parameter: contextSize + 4*responseSize
-        List<Double> combinedParam = new ArrayList<>();
-        for (int i = 0; i < contextTokens.size(); i++) {
-            combinedParam.add(contextTokens.get(i) + 4 * responseChars.get(i));
+        final double[] combinedParam = new double[total];
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < total; i++) {
+            combinedParam[i] = contextTokens[i] + 4 * responseChars[i];
+            min = Math.min(min, combinedParam[i]);
+            max = Math.max(max, combinedParam[i]);
         }
 
         // Create bins for histogram
         int bins = 20;
-        double min = combinedParam.stream().min(Double::compare).get();
-        double max = combinedParam.stream().max(Double::compare).get();
         double binSize = (max - min) / bins;
 
         // Histogram 1: Time vs Context Size
@@ -106,9 +82,9 @@ public class BenchmarkLineCharts {
             double avgTime = 0;
             int count = 0;
 
-            for (int j = 0; j < contextTokens.size(); j++) {
-                if (contextTokens.get(j) >= lowerBound && contextTokens.get(j) < upperBound) {
-                    avgTime += timeMs.get(j);
+            for (int j = 0; j < total; j++) {
+                if (contextTokens[j] >= lowerBound && contextTokens[j] < upperBound) {
+                    avgTime += timeMs[j];
                     count++;
                 }
             }
@@ -175,6 +151,35 @@ public class BenchmarkLineCharts {
                 .setMarker(SeriesMarkers.CIRCLE);
         new SwingWrapper<>(chart3).setTitle(title).displayChart();
 
+        // Chart 4: Effective concurrency over time
+        XYChart chart4 = null;
+        if (sendMs != null && total > 0) {
+            long[] starts = new long[total];
+            long[] ends = new long[total];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = sendMs.get(i);
+                ends[i] = starts[i] + (long) timeMs[i];
+            }
+            long first = Arrays.stream(starts).min().getAsLong();
+            long last = Arrays.stream(ends).max().getAsLong();
+            long bucketMs = ConcurrencyTimeline.bucketMs(last - first, 200);
+            double[] concurrency = ConcurrencyTimeline.compute(starts, ends, bucketMs);
+            double[] seconds = new double[concurrency.length];
+            for (int i = 0; i < seconds.length; i++) {
+                seconds[i] = i * bucketMs / 1000.0;
+            }
+
+            chart4 = new XYChartBuilder()
+                    .width(1000).height(600)
+                    .title("Effective Concurrency over Time")
+                    .xAxisTitle("Time since start (s)").yAxisTitle("In-flight requests")
+                    .build();
+            chart4.getStyler().setDefaultSeriesRenderStyle(XYSeries.XYSeriesRenderStyle.Step);
+            chart4.addSeries("In-flight", seconds, concurrency)
+                    .setMarker(SeriesMarkers.NONE);
+            new SwingWrapper<>(chart4).setTitle(title).displayChart();
+        }
+
 
 
         // Save to file
@@ -182,10 +187,13 @@ public class BenchmarkLineCharts {
         BitmapEncoder.saveBitmap(chart1, "time_vs_context_line.png", BitmapEncoder.BitmapFormat.PNG);
         BitmapEncoder.saveBitmap(chart2, "time_vs_response_line.png", BitmapEncoder.BitmapFormat.PNG);
         BitmapEncoder.saveBitmap(chart3, "combined_line.png", BitmapEncoder.BitmapFormat.PNG);
+        if (chart4 != null) {
+            BitmapEncoder.saveBitmap(chart4, "effective_concurrency.png", BitmapEncoder.BitmapFormat.PNG);
+        }
     }
 
     public static Map<String, String> parseBenchmarkParams(String input) {
-        Map<String, String> params = new HashMap<>();
+        Map<String, String> params = new LinkedHashMap<>();
 
         // Find the content between curly braces
         int startIndex = input.indexOf('{');
@@ -0,0 +1,209 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.llm.OpenAiLlmClient;
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Runs the same tokenized prompts at increasing load and finds where the server saturates.
+// Load is the thread count for closed-loop runs and the arrival rate when -r is given.
+public class BenchmarkSweep {
+    private static final Logger LOG = LoggerFactory.getLogger(BenchmarkSweep.class);
+
+    // start..end x factor, e.g. 1..64x2 => 1, 2, 4, ..., 64
+    private static final Pattern GEOMETRIC_RAMP = Pattern.compile(
+            "^\\s*([0-9.]+)\\s*\\.\\.\\s*([0-9.]+)\\s*x\\s*([0-9.]+)\\s*$"
+    );
+
+    // Throughput gained less than 5% while p95 grew more than 10% => saturated
+    private static final double THROUGHPUT_GAIN_MIN = 0.05;
+    private static final double LATENCY_GROWTH_MIN = 0.10;
+
+    public static void run(
+            @NotNull Benchmark.BenchmarkParams params,
+            @NotNull List<TokenizedCompletionPrompt> tokenizedPrompts
+    ) throws IOException {
+        final boolean openLoop = params.arrivalRate != null;
+        final List<Double> steps = distinctLoads(parseSteps(params.sweep), openLoop);
+        final List<StepResult> results = new ArrayList<>(steps.size());
+
+        for (Double load : steps) {
+            final Benchmark.BenchmarkParams stepParams = openLoop
+                    ? params.toBuilder().withArrivalRate(load).build()
+                    : params.toBuilder().withThreads((int) Math.round(load)).build();
+
+            LOG.info("Sweep step {}/{}: {}={}", results.size() + 1, steps.size(), openLoop ? "rate" : "threads", load);
+
+            final LlmTimingHolder timingHolder = Benchmark.newTimingHolder(stepParams);
+            final long startMs = System.currentTimeMillis();
+            try (
+                    final OpenAiLlmClient llmClient = Benchmark.getLlmClient(stepParams, timingHolder, tokenizedPrompts)
+            ) {
+                Benchmark.execute(stepParams, llmClient, tokenizedPrompts);
+            }
+            final long durationMs = System.currentTimeMillis() - startMs;
+
+            final StepResult result = StepResult.of(stepParams, timingHolder, durationMs);
+            results.add(result);
+            LOG.info("Sweep step result: {}", result);
+        }
+
+        final int knee = findKnee(results);
+
+        final StringBuilder report = new StringBuilder();
+        report.append("INFO: ").append(params).append("\n\n");
+        report.append("threads, arrivalRate, requests, failures, errorRate, durationMs, throughputRps, p50Ms, p95Ms, p99Ms, knee\n");
+        for (int i = 0; i < results.size(); i++) {
+            final StepResult result = results.get(i);
+            report.append(String.format(
+                    "%d, %s, %d, %d, %.4f, %d, %.3f, %d, %d, %d, %s\n",
+                    result.threads,
+                    result.arrivalRate,
+                    result.requests,
+                    result.failures,
+                    result.errorRate(),
+                    result.durationMs,
+                    result.throughputRps(),
+                    result.latency.p50(),
+                    result.latency.p95(),
+                    result.latency.p99(),
+                    i == knee
+            ));
+        }
+        report.append("END\n\n");
+        if (knee >= 0) {
+            report.append("saturation: ").append(results.get(knee)).append("\n");
+        } else {
+            report.append("saturation: not reached\n");
+        }
+
+        LOG.info("Sweep report: \n\n {}", report);
+
+        final File reportFile = new File("sweep_report.csv");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(reportFile))) {
+            writer.write(report.toString());
+        }
+
+        LOG.info("Sweep report saved to: {}", reportFile.getAbsolutePath());
+    }
+
+    // Index of the last step before throughput stopped increasing while latency kept rising, -1 if none
+    static int findKnee(@NotNull List<StepResult> results) {
+        for (int i = 1; i < results.size(); i++) {
+            final StepResult previous = results.get(i - 1);
+            final StepResult current = results.get(i);
+            final boolean throughputFlat = current.throughputRps() < previous.throughputRps() * (1 + THROUGHPUT_GAIN_MIN);
+            final boolean latencyRising = current.latency.p95() > previous.latency.p95() * (1 + LATENCY_GROWTH_MIN);
+            if (throughputFlat && latencyRising) {
+                return i - 1;
+            }
+        }
+        return -1;
+    }
+
+    // Closed-loop steps are thread counts: a slow geometric ramp rounds several steps to the same count,
+    // which would run and chart the same point more than once
+    @NotNull
+    static List<Double> distinctLoads(@NotNull List<Double> steps, boolean openLoop) {
+        if (openLoop) {
+            return steps;
+        }
+        final List<Double> loads = new ArrayList<>(steps.size());
+        for (Double step : steps) {
+            final double threads = Math.max(1, Math.round(step));
+            if (!loads.contains(threads)) {
+                loads.add(threads);
+            }
+        }
+        if (loads.size() < steps.size()) {
+            LOG.info("Sweep steps rounded to thread counts: {}", loads);
+        }
+        return loads;
+    }
+
+    @NotNull
+    public static List<Double> parseSteps(@Nullable String sweep) {
+        if (sweep == null || sweep.isBlank()) {
+            throw new IllegalArgumentException("sweep steps are empty");
+        }
+
+        final List<Double> steps = new ArrayList<>();
+        final Matcher matcher = GEOMETRIC_RAMP.matcher(sweep);
+        if (matcher.matches()) {
+            final double start = Double.parseDouble(matcher.group(1));
+            final double end = Double.parseDouble(matcher.group(2));
+            final double factor = Double.parseDouble(matcher.group(3));
+            if (start <= 0 || factor <= 1) {
+                throw new IllegalArgumentException("Invalid geometric ramp: " + sweep);
+            }
+            for (double step = start; step <= end * (1 + 1e-9); step *= factor) {
+                steps.add(step);
+            }
+        } else {
+            for (String step : sweep.split(",")) {
+                steps.add(Double.parseDouble(step.trim()));
+            }
+        }
+
+        for (Double step : steps) {
+            if (step <= 0) {
+                throw new IllegalArgumentException("sweep steps should be positive: " + sweep);
+            }
+        }
+        return steps;
+    }
+
+    record StepResult(
+            int threads,
+            @Nullable Double arrivalRate,
+            int requests,
+            int failures,
+            long durationMs,
+            @NotNull LatencyStats latency
+    ) {
+        @NotNull
+        static StepResult of(
+                @NotNull Benchmark.BenchmarkParams params,
+                @NotNull LlmTimingHolder timingHolder,
+                long durationMs
+        ) {
+            final int failures = timingHolder.getFailuresCount();
+            return new StepResult(
+                    params.threads,
+                    params.arrivalRate,
+                    timingHolder.getSuccessCount() + failures,
+                    failures,
+                    durationMs,
+                    timingHolder.getResponseTimeStats()
+            );
+        }
+
+        double errorRate() {
+            return requests == 0 ? 0 : (double) failures / requests;
+        }
+
+        // Successful completions per second
+        double throughputRps() {
+            return durationMs == 0 ? 0 : (requests - failures) * 1000.0 / durationMs;
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return String.format(
+                    "threads=%d, arrivalRate=%s, requests=%d, errorRate=%.4f, throughputRps=%.3f, latency{%s}",
+                    threads, arrivalRate, requests, errorRate(), throughputRps(), latency
+            );
+        }
+    }
+}
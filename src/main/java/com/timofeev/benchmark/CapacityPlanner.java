@@ -0,0 +1,210 @@
+package com.timofeev.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Predicts latency and max QPS of hardware that wasn't measured: fits a latency model to a report_*.csv,
+// then runs the capacity simulation for gpus x slots, optionally with a faster GPU (speedup).
+// Fit a report of a sequential run (-t 1 without -r): under load timeMs includes queueing.
+public class CapacityPlanner {
+    private static final Logger LOG = LoggerFactory.getLogger(CapacityPlanner.class);
+
+    private static final int GPUS_DEFAULT = 1;
+    private static final int SLOTS_DEFAULT = 1;
+    private static final double SPEEDUP_DEFAULT = 1.0;
+    private static final int REQUESTS_DEFAULT = 20_000;
+    private static final long SEED = 0;
+    // Share of the saturation rate to bisect the max QPS down to
+    private static final double RATE_TOLERANCE = 0.005;
+    // Load levels reported when neither a rate nor an SLO is given
+    private static final double[] LOAD_LEVELS = {0.25, 0.5, 0.75, 0.9};
+
+    public static void main(String[] args) throws IOException {
+        final Options options = new Options();
+        options.addOption(Option.builder("f")
+                .longOpt("report")
+                .hasArg()
+                .type(String.class)
+                .required()
+                .desc("Benchmark report to fit, CSV or binary, e.g. report.csv")
+                .build());
+        options.addOption(Option.builder("g")
+                .longOpt("gpus")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Simulated GPUs (default: " + GPUS_DEFAULT + ")")
+                .build());
+        options.addOption(Option.builder("s")
+                .longOpt("slots")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Concurrent batch slots per GPU (default: " + SLOTS_DEFAULT + ")")
+                .build());
+        options.addOption(Option.builder("x")
+                .longOpt("speedup")
+                .hasArg()
+                .type(Double.class)
+                .desc("Speed of the simulated GPU relative to the measured one (default: " + SPEEDUP_DEFAULT + ")")
+                .build());
+        options.addOption(Option.builder("r")
+                .longOpt("rate")
+                .hasArg()
+                .type(Double.class)
+                .desc("Arrival rate to predict latency for, requests per second")
+                .build());
+        options.addOption(Option.builder("slo")
+                .longOpt("slo")
+                .hasArg()
+                .type(String.class)
+                .desc("Search max QPS for latency target, e.g. p95<500")
+                .build());
+        options.addOption(Option.builder("n")
+                .longOpt("requests")
+                .hasArg()
+                .type(Integer.class)
+                .desc("Simulated requests per rate (default: " + REQUESTS_DEFAULT + ")")
+                .build());
+
+        final CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            LOG.error("Error parsing command line: {}", e.getMessage());
+            new HelpFormatter().printHelp("CapacityPlanner", options);
+            return;
+        }
+
+        final File report = new File(cmd.getOptionValue("f"));
+        final Integer gpus = parsed(cmd, "g");
+        final Integer slots = parsed(cmd, "s");
+        final Double speedup = parsed(cmd, "x");
+        final Double rate = parsed(cmd, "r");
+        final Integer requests = parsed(cmd, "n");
+
+        final ReportSamples samples = readReport(report);
+        final FittedLatencyModel model = FittedLatencyModel.fit(samples.samples, samples.outputUnit);
+        LOG.info("Fitted {}: {}", report, model);
+        if (model.prefillMsPerToken() < 0 || model.decodeMsPerUnit() < 0) {
+            LOG.warn("Negative cost per token, the report doesn't have enough spread in prompt or output sizes");
+        }
+
+        final CapacitySimulator simulator = new CapacitySimulator(
+                model,
+                samples.samples,
+                gpus == null ? GPUS_DEFAULT : gpus,
+                slots == null ? SLOTS_DEFAULT : slots,
+                speedup == null ? SPEEDUP_DEFAULT : speedup,
+                requests == null ? REQUESTS_DEFAULT : requests,
+                SEED
+        );
+        final double saturationRate = simulator.saturationRate();
+        LOG.info(
+                "Simulating {}x{} slots, speedup {}: saturation at {} QPS",
+                gpus == null ? GPUS_DEFAULT : gpus,
+                slots == null ? SLOTS_DEFAULT : slots,
+                speedup == null ? SPEEDUP_DEFAULT : speedup,
+                String.format("%.3f", saturationRate)
+        );
+
+        if (rate != null) {
+            LOG.info("Predicted: {}", simulator.run(rate));
+        }
+        if (cmd.hasOption("slo")) {
+            final CapacitySearch.SloTarget slo = CapacitySearch.SloTarget.parse(cmd.getOptionValue("slo"));
+            final CapacitySimulator.Result result = maxRate(simulator, saturationRate, slo);
+            if (result == null) {
+                LOG.info("Max QPS at {}: none, a single request doesn't meet it", slo);
+            } else {
+                LOG.info("Max QPS at {}: {} ({})", slo, String.format("%.3f", result.rate()), result);
+            }
+        }
+        if (rate == null && !cmd.hasOption("slo")) {
+            for (double load : LOAD_LEVELS) {
+                LOG.info("At {}% of saturation: {}", Math.round(load * 100), simulator.run(saturationRate * load));
+            }
+        }
+    }
+
+    // Latency grows with the rate, so the highest passing rate below saturation is bisected.
+    // null if even the lowest rate fails.
+    @Nullable
+    static CapacitySimulator.Result maxRate(
+            @NotNull CapacitySimulator simulator,
+            double saturationRate,
+            @NotNull CapacitySearch.SloTarget slo
+    ) {
+        double passingRate = 0;
+        double failingRate = saturationRate;
+        CapacitySimulator.Result passing = null;
+        while (failingRate - passingRate > saturationRate * RATE_TOLERANCE) {
+            final double middle = (passingRate + failingRate) / 2;
+            final CapacitySimulator.Result result = simulator.run(middle);
+            if (result.percentileMs(slo.percentile()) <= slo.targetMs()) {
+                passingRate = middle;
+                passing = result;
+            } else {
+                failingRate = middle;
+            }
+        }
+        return passing;
+    }
+
+    // Rows of the timing table up to END, columns are looked up by name so older reports work too.
+    // Output units are streamed tokens when every row has them, response chars otherwise.
+    // Binary reports are read as they are, CSV ones are converted first.
+    @NotNull
+    static ReportSamples readReport(@NotNull File report) throws IOException {
+        final ColumnarReport columnar = ColumnarReport.open(report);
+        final LongBuffer time = columnar.column("timeMs");
+        final LongBuffer prompt = columnar.column("contextTokensSize");
+        final LongBuffer chars = columnar.column("responseCharsSize");
+        final LongBuffer tokens = columnar.hasColumn("tokens") ? columnar.column("tokens") : null;
+
+        boolean allTokens = tokens != null;
+        for (int i = 0; allTokens && i < columnar.size(); i++) {
+            allTokens = tokens.get(i) >= 0;
+        }
+
+        final List<FittedLatencyModel.Sample> samples = new ArrayList<>(columnar.size());
+        for (int i = 0; i < columnar.size(); i++) {
+            samples.add(new FittedLatencyModel.Sample(
+                    time.get(i),
+                    (int) prompt.get(i),
+                    (int) (allTokens ? tokens.get(i) : chars.get(i))
+            ));
+        }
+
+        final Map<String, String> params = columnar.getParams();
+        if (params.get("arrivalRate") != null || !"1".equals(params.getOrDefault("threads", "1"))) {
+            LOG.warn("{} wasn't measured sequentially, the fit includes queueing and batching", report);
+        }
+        return new ReportSamples(samples, allTokens ? "token" : "char");
+    }
+
+    @Nullable
+    private static <T> T parsed(@NotNull CommandLine cmd, @NotNull String option) {
+        try {
+            return cmd.getParsedOptionValue(option);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid -" + option + ": " + cmd.getOptionValue(option), e);
+        }
+    }
+
+    record ReportSamples(@NotNull List<FittedLatencyModel.Sample> samples, @NotNull String outputUnit) {
+    }
+}
@@ -0,0 +1,198 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.llm.OpenAiLlmClient;
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Finds the highest open-loop arrival rate at which the latency percentile stays under the SLO target.
+// The rate is doubled until a probe fails, then the interval between the last passing
+// and the first failing rate is bisected.
+public class CapacitySearch {
+    private static final Logger LOG = LoggerFactory.getLogger(CapacitySearch.class);
+
+    private static final double INITIAL_RATE_DEFAULT = 1.0;
+    private static final double MAX_RATE = 1024.0;
+    private static final int MAX_BISECT_PROBES = 8;
+    // Stop bisecting when the interval is within 5% of the failing rate
+    private static final double RATE_TOLERANCE = 0.05;
+    private static final long ABORT_CHECK_INTERVAL_MS = 500;
+
+    private static final String CAPACITY_REPORT_FILE = "capacity.csv";
+
+    public static void run(
+            @NotNull Benchmark.BenchmarkParams params,
+            @NotNull List<TokenizedCompletionPrompt> tokenizedPrompts
+    ) throws IOException {
+        final SloTarget slo = SloTarget.parse(params.slo);
+
+        double passingRate = 0;
+        double failingRate = Double.NaN;
+        double rate = params.arrivalRate != null ? params.arrivalRate : INITIAL_RATE_DEFAULT;
+        int probes = 0;
+
+        while (Double.isNaN(failingRate) && rate <= MAX_RATE) {
+            probes++;
+            if (probe(params, tokenizedPrompts, slo, rate)) {
+                passingRate = rate;
+                rate *= 2;
+            } else {
+                failingRate = rate;
+            }
+        }
+
+        for (int i = 0; i < MAX_BISECT_PROBES && !Double.isNaN(failingRate); i++) {
+            if ((failingRate - passingRate) / failingRate <= RATE_TOLERANCE) {
+                break;
+            }
+            final double middle = (passingRate + failingRate) / 2;
+            probes++;
+            if (probe(params, tokenizedPrompts, slo, middle)) {
+                passingRate = middle;
+            } else {
+                failingRate = middle;
+            }
+        }
+
+        // Every rate up to the cap passed: the capacity is somewhere above it, not at it
+        final boolean capped = Double.isNaN(failingRate);
+        final String maxQps = (capped ? ">=" : "") + String.format("%.3f", passingRate);
+        LOG.info(
+                "Max QPS for gpuConfig={}, modelName={}, contextSize={} at {}: {} ({} probes)",
+                params.gpuConfig,
+                params.modelName,
+                params.contextSize,
+                slo,
+                maxQps,
+                probes
+        );
+        if (capped) {
+            LOG.warn("The search stopped at the {} QPS cap without a failing rate, the capacity wasn't found", MAX_RATE);
+        }
+
+        // One row per run, so the file collects a table over all tested configurations
+        final File reportFile = new File(CAPACITY_REPORT_FILE);
+        final boolean newFile = !reportFile.exists();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(reportFile, true))) {
+            if (newFile) {
+                writer.write("gpuConfig, modelName, contextSize, slo, maxQps, probes\n");
+            }
+            writer.write(String.format(
+                    "%s, %s, %d, %s, %s, %d\n",
+                    params.gpuConfig,
+                    params.modelName,
+                    params.contextSize,
+                    slo,
+                    maxQps,
+                    probes
+            ));
+        }
+
+        LOG.info("Capacity saved to: {}", reportFile.getAbsolutePath());
+    }
+
+    // Warmup, then a measured window. Aborted as soon as violations exceed what the percentile allows.
+    private static boolean probe(
+            @NotNull Benchmark.BenchmarkParams params,
+            @NotNull List<TokenizedCompletionPrompt> tokenizedPrompts,
+            @NotNull SloTarget slo,
+            double rate
+    ) {
+        final Benchmark.BenchmarkParams probeParams = params.toBuilder().withArrivalRate(rate).build();
+        final LlmTimingHolder timingHolder = new LlmTimingHolder();
+        final long startMs = System.currentTimeMillis();
+        final long measureFromMs = startMs + params.sloWarmupSec * 1000L;
+        final long deadlineMs = measureFromMs + params.sloMeasureSec * 1000L;
+        final double allowedViolations = (1 - slo.percentile / 100) * rate * params.sloMeasureSec;
+
+        final BooleanSupplier broken = new BooleanSupplier() {
+            private long nextCheckMs = measureFromMs;
+            private boolean broken = false;
+
+            @Override
+            public boolean getAsBoolean() {
+                final long nowMs = System.currentTimeMillis();
+                if (!broken && nowMs >= nextCheckMs) {
+                    nextCheckMs = nowMs + ABORT_CHECK_INTERVAL_MS;
+                    final int violations = timingHolder.countSlowerThan(slo.targetMs, measureFromMs)
+                            + timingHolder.countFailures(measureFromMs);
+                    broken = violations > allowedViolations;
+                }
+                return broken;
+            }
+        };
+
+        LOG.info("Probe rate={} for {}", String.format("%.3f", rate), slo);
+        try (
+                final OpenAiLlmClient llmClient = Benchmark.getLlmClient(probeParams, timingHolder, tokenizedPrompts)
+        ) {
+            Benchmark.execute(
+                    probeParams,
+                    llmClient,
+                    new DeadlinePromptSource(new CyclingPromptSource(tokenizedPrompts, Benchmark.SEED), deadlineMs),
+                    broken
+            );
+        }
+
+        if (broken.getAsBoolean()) {
+            LOG.info("Probe rate={}: SLO broken early", String.format("%.3f", rate));
+            return false;
+        }
+
+        final long[] responseTimes = timingHolder.getSortedResponseTimes(measureFromMs);
+        if (responseTimes.length == 0) {
+            LOG.warn("Probe rate={}: no measured samples", String.format("%.3f", rate));
+            return false;
+        }
+        final long latency = LatencyStats.percentile(responseTimes, slo.percentile / 100);
+        // allowedViolations is for the measured window, warmup failures don't count against it
+        final int failures = timingHolder.countFailures(measureFromMs);
+        final boolean passed = latency <= slo.targetMs && failures <= allowedViolations;
+        LOG.info(
+                "Probe rate={}: {}ms against {}, samples={}, failures={}, passed={}",
+                String.format("%.3f", rate),
+                latency,
+                slo,
+                responseTimes.length,
+                failures,
+                passed
+        );
+        return passed;
+    }
+
+    // "p95<500" => 95th percentile of response time below 500 ms
+    public record SloTarget(double percentile, long targetMs) {
+        private static final Pattern PATTERN = Pattern.compile("^\\s*p([0-9.]+)\\s*<\\s*([0-9]+)\\s*(ms)?\\s*$");
+
+        @NotNull
+        public static SloTarget parse(String value) {
+            final Matcher matcher = value == null ? null : PATTERN.matcher(value);
+            if (matcher == null || !matcher.matches()) {
+                throw new IllegalArgumentException("SLO should look like p95<500: " + value);
+            }
+            final double percentile = Double.parseDouble(matcher.group(1));
+            if (percentile <= 0 || percentile >= 100) {
+                throw new IllegalArgumentException("SLO percentile should be in (0, 100): " + value);
+            }
+            return new SloTarget(percentile, Long.parseLong(matcher.group(2)));
+        }
+
+        @Override
+        public @NotNull String toString() {
+            final String percentileStr = percentile == Math.rint(percentile)
+                    ? String.valueOf((long) percentile)
+                    : String.valueOf(percentile);
+            return "p" + percentileStr + "<" + targetMs + "ms";
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+// Discrete-event simulation of gpus x slots under Poisson arrivals, in virtual time.
+// A request goes to the GPU with the fewest outstanding requests and waits in its FIFO queue for a free slot.
+// Service time is the fitted model for a measured request plus a resampled residual, divided by speedup.
+// The model is fitted on a sequential run (-t 1), so every slot serves at that speed and slots don't slow
+// each other down. Batching overhead isn't modelled: with several slots the prediction is optimistic.
+public class CapacitySimulator {
+    // The first requests see an empty system and are left out of the statistics
+    private static final double WARMUP_SHARE = 0.1;
+
+    @NotNull
+    private final FittedLatencyModel model;
+
+    @NotNull
+    private final List<FittedLatencyModel.Sample> samples;
+
+    private final int gpus;
+    private final int slots;
+    private final double speedup;
+    private final int requests;
+    private final long seed;
+
+    public CapacitySimulator(
+            @NotNull FittedLatencyModel model,
+            @NotNull List<FittedLatencyModel.Sample> samples,
+            int gpus,
+            int slots,
+            double speedup,
+            int requests,
+            long seed
+    ) {
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("No samples to draw requests from");
+        }
+        if (gpus <= 0 || slots <= 0) {
+            throw new IllegalArgumentException("gpus and slots should be positive: " + gpus + "x" + slots);
+        }
+        if (speedup <= 0) {
+            throw new IllegalArgumentException("speedup should be positive: " + speedup);
+        }
+        this.model = model;
+        this.samples = samples;
+        this.gpus = gpus;
+        this.slots = slots;
+        this.speedup = speedup;
+        this.requests = requests;
+        this.seed = seed;
+    }
+
+    // Requests per second the slots can serve at most, the simulation can't go past it for long
+    public double saturationRate() {
+        double meanServiceMs = 0;
+        for (FittedLatencyModel.Sample sample : samples) {
+            meanServiceMs += serviceMs(model.predictMs(sample.promptTokens(), sample.outputUnits()));
+        }
+        meanServiceMs /= samples.size();
+        return gpus * slots * 1000.0 / meanServiceMs;
+    }
+
+    @NotNull
+    public Result run(double rate) {
+        final Random random = new Random(seed);
+        final Gpu[] gpuStates = new Gpu[gpus];
+        for (int i = 0; i < gpus; i++) {
+            gpuStates[i] = new Gpu();
+        }
+        final PriorityQueue<Completion> completions = new PriorityQueue<>();
+        final int warmup = (int) (requests * WARMUP_SHARE);
+        final long[] responseTimes = new long[requests - warmup];
+        final double meanIntervalMs = 1000.0 / rate;
+
+        double nowMs = 0;
+        double nextArrivalMs = 0;
+        int arrived = 0;
+        int completed = 0;
+        double busySlotMs = 0;
+        int maxQueue = 0;
+
+        while (completed < requests) {
+            if (arrived < requests && (completions.isEmpty() || nextArrivalMs <= completions.peek().atMs)) {
+                nowMs = nextArrivalMs;
+                nextArrivalMs += -Math.log(1.0 - random.nextDouble()) * meanIntervalMs;
+
+                final FittedLatencyModel.Sample sample = samples.get(random.nextInt(samples.size()));
+                final double residualMs = model.residualsMs()[random.nextInt(model.residualsMs().length)];
+                final Request request = new Request(
+                        arrived++,
+                        nowMs,
+                        serviceMs(model.predictMs(sample.promptTokens(), sample.outputUnits()) + residualMs)
+                );
+
+                final Gpu gpu = leastLoaded(gpuStates);
+                if (gpu.busy < slots) {
+                    gpu.busy++;
+                    completions.add(new Completion(nowMs + request.serviceMs, gpu, request));
+                } else {
+                    gpu.queue.add(request);
+                    maxQueue = Math.max(maxQueue, gpu.queue.size());
+                }
+            } else {
+                final Completion completion = completions.poll();
+                nowMs = completion.atMs;
+                busySlotMs += completion.request.serviceMs;
+                if (completion.request.id >= warmup) {
+                    responseTimes[completion.request.id - warmup] = Math.round(nowMs - completion.request.arrivalMs);
+                }
+                completed++;
+
+                final Gpu gpu = completion.gpu;
+                final Request next = gpu.queue.poll();
+                if (next == null) {
+                    gpu.busy--;
+                } else {
+                    completions.add(new Completion(nowMs + next.serviceMs, gpu, next));
+                }
+            }
+        }
+
+        Arrays.sort(responseTimes);
+        return new Result(
+                rate,
+                responseTimes,
+                busySlotMs / (nowMs * gpus * slots),
+                maxQueue
+        );
+    }
+
+    private double serviceMs(double predictedMs) {
+        return Math.max(1, predictedMs) / speedup;
+    }
+
+    // Fewest running plus queued requests, ties go to the first GPU
+    @NotNull
+    private static Gpu leastLoaded(@NotNull Gpu @NotNull [] gpus) {
+        Gpu best = gpus[0];
+        for (Gpu gpu : gpus) {
+            if (gpu.busy + gpu.queue.size() < best.busy + best.queue.size()) {
+                best = gpu;
+            }
+        }
+        return best;
+    }
+
+    private static class Gpu {
+        int busy = 0;
+        @NotNull
+        final ArrayDeque<Request> queue = new ArrayDeque<>();
+    }
+
+    private record Request(int id, double arrivalMs, double serviceMs) {
+    }
+
+    private record Completion(double atMs, @NotNull Gpu gpu, @NotNull Request request) implements Comparable<Completion> {
+        @Override
+        public int compareTo(@NotNull Completion other) {
+            return Double.compare(atMs, other.atMs);
+        }
+    }
+
+    // utilization is the busy share of all slot time, maxQueue the longest queue of a single GPU
+    public record Result(
+            double rate,
+            long @NotNull [] sortedResponseTimesMs,
+            double utilization,
+            int maxQueue
+    ) {
+        public long percentileMs(double percentile) {
+            return LatencyStats.percentile(sortedResponseTimesMs, percentile / 100);
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return String.format(
+                    "rate=%.3f, responseTimeMs: %s, utilization=%.1f%%, maxQueue=%d",
+                    rate,
+                    LatencyStats.of(sortedResponseTimesMs),
+                    utilization * 100,
+                    maxQueue
+            );
+        }
+    }
+}
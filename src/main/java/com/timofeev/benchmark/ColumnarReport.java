@@ -0,0 +1,616 @@
+package com.timofeev.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// The timing table of a report stored column by column as fixed-width longs, for reports of millions of rows.
+// Layout, big-endian:
+//   magic "MSBR", version, encoding, offset of the columns
+//   params: count, then name and value (absent for null) of every BenchmarkParams field
+//   columns: count, then names as in the CSV header; rows
+//   trailer: everything after the timing table of the CSV report (END, statistics, warmup and failed rows)
+//   preamble (since version 2): the CSV lines before the timing table as they were, the params line among them
+//   columns at the offset, 8-byte aligned: RAW - rows longs each; DEFLATE - compressed length and bytes each
+// RAW columns are memory-mapped as they are, DEFLATE ones are inflated into direct buffers when opened.
+// open() takes CSV reports too, converting them to a temporary file first.
+// A CSV report cut off by a killed run loses its partial last row, the rest converts as usual.
+public class ColumnarReport {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarReport.class);
+
+    private static final int MAGIC = 0x4D534252; // MSBR
+    private static final short VERSION = 2;
+    // Without the preamble, the params line is rebuilt from the fields
+    private static final short VERSION_WITHOUT_PREAMBLE = 1;
+    private static final String INFO_PREFIX = "INFO: ";
+    private static final String TABLE_HEADER_PREFIX = "timeMs,";
+    // A column is one mapping, so it can't be larger than a ByteBuffer
+    private static final int MAX_ROWS = Integer.MAX_VALUE / Long.BYTES;
+    private static final int DEFLATE_CHUNK = 1 << 16;
+
+    public enum Encoding {
+        RAW,
+        DEFLATE;
+
+        @NotNull
+        public static Encoding parse(@NotNull String value) {
+            return Encoding.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    @NotNull
+    private final Map<String, String> params;
+    @NotNull
+    private final List<String> columns;
+    private final int rows;
+    @NotNull
+    private final String trailer;
+    // null for version 1 reports
+    @Nullable
+    private final String preamble;
+    @NotNull
+    private final ByteBuffer @NotNull [] data;
+
+    private ColumnarReport(
+            @NotNull Map<String, String> params,
+            @NotNull List<String> columns,
+            int rows,
+            @NotNull String trailer,
+            @Nullable String preamble,
+            @NotNull ByteBuffer @NotNull [] data
+    ) {
+        this.params = Collections.unmodifiableMap(params);
+        this.columns = List.copyOf(columns);
+        this.rows = rows;
+        this.trailer = trailer;
+        this.preamble = preamble;
+        this.data = data;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Options options = new Options();
+        options.addOption(Option.builder("i")
+                .longOpt("input")
+                .hasArg()
+                .type(String.class)
+                .required()
+                .desc("Report to convert: CSV is converted to binary, binary to CSV")
+                .build());
+        options.addOption(Option.builder("o")
+                .longOpt("output")
+                .hasArg()
+                .type(String.class)
+                .required()
+                .desc("Converted report")
+                .build());
+        options.addOption(Option.builder("e")
+                .longOpt("encoding")
+                .hasArg()
+                .type(String.class)
+                .desc("Columns of a binary report: raw or deflate (default: raw)")
+                .build());
+
+        final CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            LOG.error("Error parsing command line: {}", e.getMessage());
+            new HelpFormatter().printHelp("ColumnarReport", options);
+            return;
+        }
+
+        final File input = new File(cmd.getOptionValue("i"));
+        final File output = new File(cmd.getOptionValue("o"));
+        if (isColumnar(input)) {
+            open(input).writeCsv(output);
+        } else {
+            final String encoding = cmd.getOptionValue("e");
+            fromCsv(input, output, encoding == null ? Encoding.RAW : Encoding.parse(encoding));
+        }
+        LOG.info("Converted {} to {}", input, output);
+    }
+
+    // Opens a binary report, or converts a CSV one
+    @NotNull
+    public static ColumnarReport open(@NotNull File report) throws IOException {
+        if (isColumnar(report)) {
+            return openColumnar(report);
+        }
+        final Path converted = Files.createTempFile("report", ".bin");
+        // Mapped files can't be deleted on every OS, so it goes on exit
+        converted.toFile().deleteOnExit();
+        fromCsv(report, converted.toFile(), Encoding.RAW);
+        return openColumnar(converted.toFile());
+    }
+
+    public static boolean isColumnar(@NotNull File report) throws IOException {
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(report.toPath()))) {
+            return report.length() >= Integer.BYTES && input.readInt() == MAGIC;
+        }
+    }
+
+    // Two passes over the CSV, the second one writes straight into the mapped columns, so memory stays flat
+    public static void fromCsv(@NotNull File csv, @NotNull File report, @NotNull Encoding encoding) throws IOException {
+        if (encoding == Encoding.DEFLATE) {
+            final Path raw = Files.createTempFile(report.getAbsoluteFile().getParentFile().toPath(), "report", ".raw");
+            try {
+                fromCsv(csv, raw.toFile(), Encoding.RAW);
+                openColumnar(raw.toFile()).write(report, Encoding.DEFLATE);
+            } finally {
+                deleteMapped(raw);
+            }
+            return;
+        }
+
+        final CsvLayout layout = CsvLayout.scan(csv);
+        final byte[] header = header(layout.params, layout.columns, layout.rows, layout.trailer, layout.preamble, Encoding.RAW);
+        try (
+                FileChannel channel = FileChannel.open(
+                        report.toPath(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE
+                );
+                BufferedReader reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8)
+        ) {
+            channel.write(ByteBuffer.wrap(header));
+            final LongBuffer[] columns = new LongBuffer[layout.columns.size()];
+            final long columnBytes = (long) layout.rows * Long.BYTES;
+            for (int column = 0; column < columns.length; column++) {
+                columns[column] = channel.map(
+                        FileChannel.MapMode.READ_WRITE,
+                        header.length + column * columnBytes,
+                        columnBytes
+                ).asLongBuffer();
+            }
+
+            for (int line = 0; line <= layout.headerLine; line++) {
+                reader.readLine();
+            }
+            final long[] values = new long[columns.length];
+            for (int row = 0; row < layout.rows; row++) {
+                final String line = reader.readLine();
+                if (parseRow(line, values) != values.length) {
+                    throw new IllegalArgumentException(
+                            "Expected " + values.length + " values in line " + (layout.headerLine + row + 2)
+                                    + " of " + csv + ": " + line
+                    );
+                }
+                for (int column = 0; column < columns.length; column++) {
+                    columns[column].put(row, values[column]);
+                }
+            }
+        }
+    }
+
+    // Values separated by commas and spaces, parsed without splitting the line. Returns how many there were.
+    private static int parseRow(@NotNull String line, long @NotNull [] values) {
+        int count = 0;
+        int i = 0;
+        final int length = line.length();
+        while (i < length) {
+            while (i < length && (line.charAt(i) == ' ' || line.charAt(i) == ',')) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            final boolean negative = line.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            final int start = i;
+            long value = 0;
+            while (i < length && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+                value = value * 10 + line.charAt(i) - '0';
+                i++;
+            }
+            if (i == start || i < length && line.charAt(i) != ',' && line.charAt(i) != ' ') {
+                throw new NumberFormatException("Not an integer at " + start + ": " + line);
+            }
+            if (count == values.length) {
+                return count + 1;
+            }
+            values[count++] = negative ? -value : value;
+        }
+        return count;
+    }
+
+    @NotNull
+    private static ColumnarReport openColumnar(@NotNull File report) throws IOException {
+        final Map<String, String> params = new LinkedHashMap<>();
+        final List<String> columns = new ArrayList<>();
+        final Encoding encoding;
+        final long dataOffset;
+        final int rows;
+        final String trailer;
+        final String preamble;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(report.toPath())))) {
+            if (input.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a binary report: " + report);
+            }
+            final short version = input.readShort();
+            if (version != VERSION && version != VERSION_WITHOUT_PREAMBLE) {
+                throw new IllegalArgumentException("Unsupported version " + version + " of " + report);
+            }
+            final byte encodingOrdinal = input.readByte();
+            if (encodingOrdinal < 0 || encodingOrdinal >= Encoding.values().length) {
+                throw new IllegalArgumentException("Unsupported encoding " + encodingOrdinal + " of " + report);
+            }
+            encoding = Encoding.values()[encodingOrdinal];
+            input.readByte();
+            dataOffset = input.readLong();
+            final int paramCount = input.readInt();
+            for (int i = 0; i < paramCount; i++) {
+                final String name = input.readUTF();
+                params.put(name, input.readBoolean() ? input.readUTF() : null);
+            }
+            final int columnCount = input.readShort();
+            for (int i = 0; i < columnCount; i++) {
+                columns.add(input.readUTF());
+            }
+            final long rowCount = input.readLong();
+            if (rowCount > MAX_ROWS) {
+                throw new IllegalArgumentException(report + " has " + rowCount + " rows, at most " + MAX_ROWS + " are supported");
+            }
+            rows = (int) rowCount;
+            trailer = new String(input.readNBytes(input.readInt()), StandardCharsets.UTF_8);
+            preamble = version == VERSION_WITHOUT_PREAMBLE
+                    ? null
+                    : new String(input.readNBytes(input.readInt()), StandardCharsets.UTF_8);
+        }
+
+        final ByteBuffer[] data = new ByteBuffer[columns.size()];
+        try (FileChannel channel = FileChannel.open(report.toPath(), StandardOpenOption.READ)) {
+            long offset = dataOffset;
+            for (int column = 0; column < data.length; column++) {
+                if (encoding == Encoding.RAW) {
+                    data[column] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) rows * Long.BYTES);
+                    offset += (long) rows * Long.BYTES;
+                } else {
+                    final ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+                    channel.read(length, offset);
+                    final long compressedBytes = length.flip().getLong();
+                    final MappedByteBuffer compressed = channel.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            offset + Long.BYTES,
+                            compressedBytes
+                    );
+                    data[column] = inflate(compressed, rows, report);
+                    offset += Long.BYTES + compressedBytes;
+                }
+            }
+        }
+        return new ColumnarReport(params, columns, rows, trailer, preamble, data);
+    }
+
+    @NotNull
+    private static ByteBuffer inflate(@NotNull ByteBuffer compressed, int rows, @NotNull File report) throws IOException {
+        final ByteBuffer column = ByteBuffer.allocateDirect(rows * Long.BYTES);
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            while (column.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(column) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted column in " + report, e);
+        } finally {
+            inflater.end();
+        }
+        if (column.hasRemaining()) {
+            throw new IOException("Truncated column in " + report);
+        }
+        return column.flip();
+    }
+
+    // Writes the report with the given encoding, columns are copied from the mapped buffers
+    public void write(@NotNull File report, @NotNull Encoding encoding) throws IOException {
+        final byte[] header = header(params, columns, rows, trailer, preamble(), encoding);
+        try (FileChannel channel = FileChannel.open(
+                report.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            channel.write(ByteBuffer.wrap(header));
+            for (ByteBuffer column : data) {
+                if (encoding == Encoding.RAW) {
+                    writeFully(channel, column.duplicate());
+                } else {
+                    deflate(channel, column.duplicate());
+                }
+            }
+        }
+    }
+
+    // Compressed length first, patched once the column is written
+    private static void deflate(@NotNull FileChannel channel, @NotNull ByteBuffer column) throws IOException {
+        final long lengthPosition = channel.position();
+        channel.write(ByteBuffer.allocate(Long.BYTES));
+        // Small integers compress well even at the fastest level, higher ones take several times longer
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(DEFLATE_CHUNK);
+        long compressedBytes = 0;
+        try {
+            deflater.setInput(column);
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflater.deflate(chunk);
+                compressedBytes += chunk.flip().remaining();
+                writeFully(channel, chunk);
+                chunk.clear();
+            }
+        } finally {
+            deflater.end();
+        }
+        channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, compressedBytes), lengthPosition);
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Everything up to the columns, padded so they start 8-byte aligned
+    private static byte @NotNull [] header(
+            @NotNull Map<String, String> params,
+            @NotNull List<String> columns,
+            int rows,
+            @NotNull String trailer,
+            @NotNull String preamble,
+            @NotNull Encoding encoding
+    ) throws IOException {
+        final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(fields);
+        output.writeInt(params.size());
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            output.writeUTF(param.getKey());
+            output.writeBoolean(param.getValue() != null);
+            if (param.getValue() != null) {
+                output.writeUTF(param.getValue());
+            }
+        }
+        output.writeShort(columns.size());
+        for (String column : columns) {
+            output.writeUTF(column);
+        }
+        output.writeLong(rows);
+        final byte[] trailerBytes = trailer.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(trailerBytes.length);
+        output.write(trailerBytes);
+        final byte[] preambleBytes = preamble.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(preambleBytes.length);
+        output.write(preambleBytes);
+
+        final int prefixBytes = Integer.BYTES + Short.BYTES + 2 + Long.BYTES;
+        final long dataOffset = (prefixBytes + fields.size() + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        final DataOutputStream headerOutput = new DataOutputStream(header);
+        headerOutput.writeInt(MAGIC);
+        headerOutput.writeShort(VERSION);
+        headerOutput.writeByte(encoding.ordinal());
+        headerOutput.writeByte(0);
+        headerOutput.writeLong(dataOffset);
+        fields.writeTo(headerOutput);
+        while (header.size() < dataOffset) {
+            headerOutput.writeByte(0);
+        }
+        return header.toByteArray();
+    }
+
+    // The CSV report this was converted from. Less a partial last row, it's the same file,
+    // except for version 1 reports: their params line is rebuilt and loses its quotes.
+    public void writeCsv(@NotNull File csv) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(csv.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(preamble());
+            writer.write(String.join(", ", columns));
+            writer.write('\n');
+            final LongBuffer[] buffers = new LongBuffer[columns.size()];
+            for (int column = 0; column < buffers.length; column++) {
+                buffers[column] = column(columns.get(column));
+            }
+            final StringBuilder line = new StringBuilder();
+            for (int row = 0; row < rows; row++) {
+                line.setLength(0);
+                for (int column = 0; column < buffers.length; column++) {
+                    if (column > 0) {
+                        line.append(", ");
+                    }
+                    line.append(buffers[column].get(row));
+                }
+                writer.append(line).append('\n');
+            }
+            writer.write(trailer);
+        }
+    }
+
+    // The CSV lines before the timing table
+    @NotNull
+    private String preamble() {
+        if (preamble != null) {
+            return preamble;
+        }
+        if (params.isEmpty()) {
+            return "";
+        }
+        final List<String> fields = new ArrayList<>();
+        params.forEach((name, value) -> fields.add(name + "=" + value));
+        return INFO_PREFIX + "BenchmarkParams{" + String.join(", ", fields) + "}\n\n";
+    }
+
+    @NotNull
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    @NotNull
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    @NotNull
+    public String getTrailer() {
+        return trailer;
+    }
+
+    public boolean hasColumn(@NotNull String name) {
+        return columns.contains(name);
+    }
+
+    // A read-only view, indexed by row
+    @NotNull
+    public LongBuffer column(@NotNull String name) {
+        final int column = columns.indexOf(name);
+        if (column < 0) {
+            throw new IllegalArgumentException("No column " + name + " in the report, columns: " + columns);
+        }
+        return data[column].asReadOnlyBuffer().asLongBuffer();
+    }
+
+    // The column as doubles, for charts
+    public double @NotNull [] doubles(@NotNull String name) {
+        final LongBuffer column = column(name);
+        final double[] values = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            values[row] = column.get(row);
+        }
+        return values;
+    }
+
+    private static void deleteMapped(@NotNull Path file) {
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    // Where the timing table of a CSV report is: the params line, the header and the rows up to END
+    private record CsvLayout(
+            @NotNull Map<String, String> params,
+            @NotNull String preamble,
+            @NotNull List<String> columns,
+            int headerLine,
+            int rows,
+            @NotNull String trailer
+    ) {
+        @NotNull
+        static CsvLayout scan(@NotNull File csv) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8)) {
+                Map<String, String> params = new LinkedHashMap<>();
+                final StringBuilder preamble = new StringBuilder();
+                int headerLine = 0;
+                String line = reader.readLine();
+                while (line != null && !line.startsWith(TABLE_HEADER_PREFIX)) {
+                    if (headerLine == 0 && line.startsWith(INFO_PREFIX)) {
+                        params = parseParams(line);
+                    }
+                    preamble.append(line).append('\n');
+                    headerLine++;
+                    line = reader.readLine();
+                }
+                if (line == null) {
+                    throw new IllegalArgumentException("No timing table in " + csv);
+                }
+                final List<String> columns = new ArrayList<>();
+                for (String column : line.split(",")) {
+                    columns.add(column.trim());
+                }
+
+                long rows = 0;
+                line = reader.readLine();
+                while (line != null && !line.equals("END") && !line.isBlank()) {
+                    rows++;
+                    line = reader.readLine();
+                }
+                // A killed run may stop writing in the middle of a row
+                if (line == null && rows > 0 && !endsWithNewline(csv)) {
+                    rows--;
+                    LOG.warn("{} ends in the middle of a row, the run was interrupted; the row is skipped", csv);
+                }
+                if (rows > MAX_ROWS) {
+                    throw new IllegalArgumentException(csv + " has " + rows + " rows, at most " + MAX_ROWS + " are supported");
+                }
+                final StringBuilder trailer = new StringBuilder();
+                while (line != null) {
+                    trailer.append(line).append('\n');
+                    line = reader.readLine();
+                }
+                return new CsvLayout(params, preamble.toString(), columns, headerLine, (int) rows, trailer.toString());
+            }
+        }
+
+        private static boolean endsWithNewline(@NotNull File csv) throws IOException {
+            try (FileChannel channel = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+                final ByteBuffer last = ByteBuffer.allocate(1);
+                return channel.size() > 0 && channel.read(last, channel.size() - 1) == 1 && last.get(0) == '\n';
+            }
+        }
+
+        // BenchmarkParams fields as BenchmarkLineCharts.parseBenchmarkParams reads them: quotes removed,
+        // null values absent. Fields are split where the next name= starts, so values keep their commas.
+        @NotNull
+        private static Map<String, String> parseParams(@NotNull String line) {
+            final Map<String, String> params = new LinkedHashMap<>();
+            final int start = line.indexOf('{');
+            final int end = line.lastIndexOf('}');
+            if (start < 0 || end < start) {
+                return params;
+            }
+            for (String field : line.substring(start + 1, end).split(", (?=[a-zA-Z]+=)")) {
+                final int equals = field.indexOf('=');
+                if (equals <= 0) {
+                    continue;
+                }
+                String value = field.substring(equals + 1).trim();
+                if (value.length() >= 2 && (value.startsWith("'") && value.endsWith("'")
+                        || value.startsWith("\"") && value.endsWith("\""))) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                params.put(field.substring(0, equals).trim(), "null".equalsIgnoreCase(value) ? null : value);
+            }
+            return params;
+        }
+    }
+}
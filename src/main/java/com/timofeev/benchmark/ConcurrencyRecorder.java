@@ -0,0 +1,144 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Effective concurrency without keeping the requests: the time they were in flight is added up
+// per bucket as they complete. There are BUCKETS buckets from the start of the first recorded request;
+// when a request ends past the last one, the bucket length doubles and adjacent pairs are merged.
+// Requests that started before the first recorded one count from its start.
+// Recording is a few atomic adds; growing waits for writers in the old buckets, like WindowRing closing a window.
+class ConcurrencyRecorder {
+    static final int BUCKETS = 1024;
+    private static final long MIN_BUCKET_MS = 10;
+
+    @NotNull
+    private final AtomicLong originMs = new AtomicLong(-1);
+    // Latest end, from the origin
+    @NotNull
+    private final AtomicLong lastMs = new AtomicLong(0);
+
+    @NotNull
+    private volatile Buckets buckets = new Buckets(MIN_BUCKET_MS);
+
+    void record(long startMs, long endMs) {
+        long origin = originMs.get();
+        if (origin < 0) {
+            originMs.compareAndSet(-1, startMs);
+            origin = originMs.get();
+        }
+        final long from = Math.max(0, startMs - origin);
+        final long to = Math.max(from, endMs - origin);
+        lastMs.accumulateAndGet(to, Math::max);
+        while (true) {
+            final Buckets current = buckets;
+            if (to <= current.bucketMs * BUCKETS && current.enter()) {
+                try {
+                    current.add(from, to);
+                } finally {
+                    current.exit();
+                }
+                return;
+            }
+            grow(to);
+        }
+    }
+
+    // Replaces the buckets with longer ones that reach untilMs
+    private synchronized void grow(long untilMs) {
+        final Buckets current = buckets;
+        if (untilMs <= current.bucketMs * BUCKETS) {
+            return;
+        }
+        int shift = 1;
+        while (untilMs > (current.bucketMs << shift) * BUCKETS) {
+            shift++;
+        }
+        current.closed = true;
+        while (current.writers.get() != 0) {
+            Thread.onSpinWait();
+        }
+        final Buckets grown = new Buckets(current.bucketMs << shift);
+        for (int i = 0; i < BUCKETS; i++) {
+            grown.busyMs.getAndAdd(i >> shift, current.busyMs.get(i));
+        }
+        buckets = grown;
+    }
+
+    // Average number of requests in flight per bucket of about the run length / bucketsCount.
+    // A recorded bucket that straddles two of them is split in proportion, as if its time was spread evenly.
+    @NotNull
+    synchronized Timeline compute(int bucketsCount) {
+        final long durationMs = lastMs.get();
+        final long bucketMs = ConcurrencyTimeline.bucketMs(durationMs, bucketsCount);
+        if (originMs.get() < 0) {
+            return new Timeline(bucketMs, new double[0]);
+        }
+        final Buckets current = buckets;
+        final int count = (int) Math.max(1, (durationMs + bucketMs - 1) / bucketMs);
+        final double[] concurrency = new double[count];
+        for (int i = 0; i < BUCKETS; i++) {
+            final long busyMs = current.busyMs.get(i);
+            if (busyMs == 0) {
+                continue;
+            }
+            long from = i * current.bucketMs;
+            final long to = Math.min(from + current.bucketMs, count * bucketMs);
+            while (from < to) {
+                final int bucket = (int) (from / bucketMs);
+                final long until = Math.min(to, (bucket + 1) * bucketMs);
+                concurrency[bucket] += (double) busyMs * (until - from) / current.bucketMs;
+                from = until;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            concurrency[i] /= bucketMs;
+        }
+        return new Timeline(bucketMs, concurrency);
+    }
+
+    // concurrency is empty before anything is recorded
+    record Timeline(long bucketMs, double @NotNull [] concurrency) {
+    }
+
+    // Writers count themselves in and back off once closed is set, grow() waits until none is left
+    private static class Buckets {
+        private final long bucketMs;
+        @NotNull
+        private final AtomicLongArray busyMs = new AtomicLongArray(BUCKETS);
+
+        @NotNull
+        private final AtomicInteger writers = new AtomicInteger();
+        private volatile boolean closed = false;
+
+        private Buckets(long bucketMs) {
+            this.bucketMs = bucketMs;
+        }
+
+        private boolean enter() {
+            writers.incrementAndGet();
+            if (closed) {
+                writers.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        private void exit() {
+            writers.decrementAndGet();
+        }
+
+        // from and to are within the buckets
+        private void add(long from, long to) {
+            while (from < to) {
+                final int bucket = (int) (from / bucketMs);
+                final long until = Math.min(to, (bucket + 1) * bucketMs);
+                busyMs.getAndAdd(bucket, until - from);
+                from = until;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+// Effective concurrency: time-weighted average number of in-flight requests per time bucket.
+public class ConcurrencyTimeline {
+
+    private ConcurrencyTimeline() {
+    }
+
+    // startMs[i] and endMs[i] describe one request, the result is indexed by bucket from the earliest start
+    public static double @NotNull [] compute(
+            long @NotNull [] startMs,
+            long @NotNull [] endMs,
+            long bucketMs
+    ) {
+        if (startMs.length == 0) {
+            return new double[0];
+        }
+
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < startMs.length; i++) {
+            first = Math.min(first, startMs[i]);
+            last = Math.max(last, endMs[i]);
+        }
+
+        final int buckets = (int) Math.max(1, (last - first + bucketMs - 1) / bucketMs);
+        final double[] busyMs = new double[buckets];
+        for (int i = 0; i < startMs.length; i++) {
+            long from = startMs[i] - first;
+            final long to = endMs[i] - first;
+            while (from < to) {
+                final int bucket = (int) (from / bucketMs);
+                final long bucketEnd = (bucket + 1) * bucketMs;
+                final long until = Math.min(to, bucketEnd);
+                busyMs[bucket] += until - from;
+                from = until;
+            }
+        }
+
+        for (int i = 0; i < buckets; i++) {
+            busyMs[i] /= bucketMs;
+        }
+        return busyMs;
+    }
+
+    // Bucket size giving roughly bucketsCount buckets for the given run duration
+    public static long bucketMs(long durationMs, int bucketsCount) {
+        return Math.max(1, durationMs / bucketsCount);
+    }
+}
@@ -0,0 +1,85 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// LatencyHistogram buckets in atomics: record never blocks, many threads can record at once.
+// Reads while threads record may see a value in some fields and not in others,
+// StripedRecorder only reads it after writers have moved on to the other buffer.
+public class ConcurrentLatencyHistogram {
+    private final long maxValue;
+
+    @NotNull
+    private final AtomicLongArray counts;
+
+    @NotNull
+    private final AtomicLong sum = new AtomicLong();
+    @NotNull
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    @NotNull
+    private final AtomicLong max = new AtomicLong(0);
+
+    public ConcurrentLatencyHistogram() {
+        this(LatencyHistogram.MAX_VALUE_DEFAULT);
+    }
+
+    public ConcurrentLatencyHistogram(long maxValue) {
+        this.maxValue = Math.max(maxValue, LatencyHistogram.LINEAR_SIZE);
+        this.counts = new AtomicLongArray(LatencyHistogram.indexOf(this.maxValue) + 1);
+    }
+
+    public void record(long value) {
+        final long clamped = Math.max(0, Math.min(value, maxValue));
+        counts.getAndIncrement(LatencyHistogram.indexOf(clamped));
+        sum.getAndAdd(clamped);
+        // Plain reads first: after the first samples min and max rarely change
+        if (clamped < min.get()) {
+            min.accumulateAndGet(clamped, Math::min);
+        }
+        if (clamped > max.get()) {
+            max.accumulateAndGet(clamped, Math::max);
+        }
+    }
+
+    // Adds the bucket counts to target, returns the number of values
+    long addCountsTo(long @NotNull [] target) {
+        long total = 0;
+        for (int i = 0; i < target.length; i++) {
+            final long count = counts.get(i);
+            target[i] += count;
+            total += count;
+        }
+        return total;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    long getMaxValue() {
+        return maxValue;
+    }
+
+    long getSum() {
+        return sum.get();
+    }
+
+    long getMin() {
+        return min.get();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    public long getFootprintBytes() {
+        return (long) counts.length() * Long.BYTES;
+    }
+}
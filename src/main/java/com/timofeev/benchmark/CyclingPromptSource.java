@@ -0,0 +1,99 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Never exhausted: starts over when the list ends, every next pass in a new order
+// shuffled with seed + pass, so soak runs are reproducible.
+// Should be limited by DeadlinePromptSource or an abort condition.
+public class CyclingPromptSource implements IPromptSource {
+
+    @NotNull
+    private final List<TokenizedCompletionPrompt> prompts;
+
+    private final long seed;
+
+    @NotNull
+    private final AtomicLong nextIndex = new AtomicLong(0);
+
+    // Order of the current pass; a late thread may still ask for the previous one
+    @NotNull
+    private volatile PassOrder currentPass;
+    @Nullable
+    private volatile PassOrder previousPass;
+
+    public CyclingPromptSource(@NotNull List<TokenizedCompletionPrompt> prompts, long seed) {
+        if (prompts.isEmpty()) {
+            throw new IllegalArgumentException("prompts can't be empty");
+        }
+        this.prompts = prompts;
+        this.seed = seed;
+        this.currentPass = new PassOrder(0, identity(prompts.size()));
+    }
+
+    @Override
+    public @Nullable TokenizedCompletionPrompt next() {
+        final long index = nextIndex.getAndIncrement();
+        final long pass = index / prompts.size();
+        final int position = (int) (index % prompts.size());
+        return prompts.get(orderOf(pass).order[position]);
+    }
+
+    @NotNull
+    private PassOrder orderOf(long pass) {
+        final PassOrder current = currentPass;
+        if (current.pass == pass) {
+            return current;
+        }
+        final PassOrder previous = previousPass;
+        if (previous != null && previous.pass == pass) {
+            return previous;
+        }
+        return advance(pass);
+    }
+
+    @NotNull
+    private synchronized PassOrder advance(long pass) {
+        if (currentPass.pass == pass) {
+            return currentPass;
+        }
+        if (pass < currentPass.pass) {
+            // Thread fell behind by more than a pass, order is recomputed deterministically
+            return new PassOrder(pass, shuffled(pass));
+        }
+        previousPass = currentPass;
+        currentPass = new PassOrder(pass, shuffled(pass));
+        return currentPass;
+    }
+
+    private int @NotNull [] shuffled(long pass) {
+        if (pass == 0) {
+            return identity(prompts.size());
+        }
+        final int[] order = identity(prompts.size());
+        final Random random = new Random(seed + pass);
+        for (int i = order.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        return order;
+    }
+
+    private static int @NotNull [] identity(int size) {
+        final int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    private record PassOrder(long pass, int @NotNull [] order) {
+    }
+}
@@ -0,0 +1,27 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+// Stops returning prompts once the wall clock passes deadlineMs
+public class DeadlinePromptSource implements IPromptSource {
+
+    @NotNull
+    private final IPromptSource delegate;
+
+    private final long deadlineMs;
+
+    public DeadlinePromptSource(@NotNull IPromptSource delegate, long deadlineMs) {
+        this.delegate = delegate;
+        this.deadlineMs = deadlineMs;
+    }
+
+    @Override
+    public @Nullable TokenizedCompletionPrompt next() {
+        if (System.currentTimeMillis() >= deadlineMs) {
+            return null;
+        }
+        return delegate.next();
+    }
+}
@@ -0,0 +1,117 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+// timeMs = overheadMs + prefillMsPerToken * promptTokens + decodeMsPerUnit * outputUnits, fitted by least squares.
+// Output units are streamed tokens when the report has them, response chars otherwise.
+// Residuals are kept, so simulated service times keep the spread of the measured ones.
+public record FittedLatencyModel(
+        double overheadMs,
+        double prefillMsPerToken,
+        double decodeMsPerUnit,
+        @NotNull String outputUnit,
+        // Share of the time variance explained by the model
+        double r2,
+        double rmseMs,
+        // Mean absolute error relative to the measured time
+        double mape,
+        double @NotNull [] residualsMs
+) {
+    // Regressors with a smaller spread relative to the other one are treated as collinear
+    private static final double COLLINEAR_EPSILON = 1e-9;
+
+    @NotNull
+    public static FittedLatencyModel fit(@NotNull List<Sample> samples, @NotNull String outputUnit) {
+        if (samples.size() < 3) {
+            throw new IllegalArgumentException("At least 3 samples are needed to fit, got " + samples.size());
+        }
+        final int n = samples.size();
+        double meanTime = 0;
+        double meanPrompt = 0;
+        double meanOutput = 0;
+        for (Sample sample : samples) {
+            meanTime += sample.timeMs;
+            meanPrompt += sample.promptTokens;
+            meanOutput += sample.outputUnits;
+        }
+        meanTime /= n;
+        meanPrompt /= n;
+        meanOutput /= n;
+
+        // Centered normal equations, the intercept follows from the means
+        double promptPrompt = 0;
+        double promptOutput = 0;
+        double outputOutput = 0;
+        double promptTime = 0;
+        double outputTime = 0;
+        for (Sample sample : samples) {
+            final double prompt = sample.promptTokens - meanPrompt;
+            final double output = sample.outputUnits - meanOutput;
+            final double time = sample.timeMs - meanTime;
+            promptPrompt += prompt * prompt;
+            promptOutput += prompt * output;
+            outputOutput += output * output;
+            promptTime += prompt * time;
+            outputTime += output * time;
+        }
+
+        double prefill = 0;
+        double decode = 0;
+        final double determinant = promptPrompt * outputOutput - promptOutput * promptOutput;
+        if (determinant > COLLINEAR_EPSILON * promptPrompt * outputOutput) {
+            prefill = (promptTime * outputOutput - outputTime * promptOutput) / determinant;
+            decode = (outputTime * promptPrompt - promptTime * promptOutput) / determinant;
+        } else if (promptPrompt > 0) {
+            prefill = promptTime / promptPrompt;
+        } else if (outputOutput > 0) {
+            decode = outputTime / outputOutput;
+        }
+        final double overhead = meanTime - prefill * meanPrompt - decode * meanOutput;
+
+        final double[] residuals = new double[n];
+        double residualSquares = 0;
+        double totalSquares = 0;
+        double relativeErrors = 0;
+        for (int i = 0; i < n; i++) {
+            final Sample sample = samples.get(i);
+            residuals[i] = sample.timeMs - (overhead + prefill * sample.promptTokens + decode * sample.outputUnits);
+            residualSquares += residuals[i] * residuals[i];
+            totalSquares += (sample.timeMs - meanTime) * (sample.timeMs - meanTime);
+            relativeErrors += Math.abs(residuals[i]) / Math.max(1, sample.timeMs);
+        }
+        return new FittedLatencyModel(
+                overhead,
+                prefill,
+                decode,
+                outputUnit,
+                totalSquares > 0 ? 1 - residualSquares / totalSquares : 0,
+                Math.sqrt(residualSquares / n),
+                relativeErrors / n,
+                residuals
+        );
+    }
+
+    public double predictMs(double promptTokens, double outputUnits) {
+        return overheadMs + prefillMsPerToken * promptTokens + decodeMsPerUnit * outputUnits;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return String.format(
+                "timeMs = %.2f + %.4f * promptTokens + %.3f * output%s, R2=%.3f, RMSE=%.1fms, MAPE=%.1f%%, samples=%d",
+                overheadMs,
+                prefillMsPerToken,
+                decodeMsPerUnit,
+                Character.toUpperCase(outputUnit.charAt(0)) + outputUnit.substring(1) + "s",
+                r2,
+                rmseMs,
+                mape * 100,
+                residualsMs.length
+        );
+    }
+
+    public record Sample(long timeMs, int promptTokens, int outputUnits) {
+    }
+}
@@ -0,0 +1,8 @@
+package com.timofeev.benchmark;
+
+// Send times for open-loop runs. Called from the single scheduling thread.
+public interface IArrivalSchedule {
+
+    // Offset in ms from the run start at which the next request should be sent
+    long nextOffsetMs();
+}
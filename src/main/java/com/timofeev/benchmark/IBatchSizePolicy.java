@@ -0,0 +1,15 @@
+package com.timofeev.benchmark;
+
+// Number of prompts the next batched request carries. Shared by all workers of a run.
+public interface IBatchSizePolicy {
+
+    int size();
+
+    // Called after every batched request with the prompts it carried and the time it took
+    default void onBatch(int prompts, long timeMs) {
+    }
+
+    static IBatchSizePolicy fixed(int size) {
+        return () -> size;
+    }
+}
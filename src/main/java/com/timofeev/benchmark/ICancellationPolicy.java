@@ -0,0 +1,13 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.llm.ILlmInlineClient;
+
+// Decides which requests the simulated user abandons and when.
+// Open-loop runs call it from the scheduling thread, closed-loop runs from every worker.
+public interface ICancellationPolicy {
+
+    ICancellationPolicy NONE = () -> ILlmInlineClient.NO_CANCEL;
+
+    // Delay in ms after sending at which the next request is cancelled, ILlmInlineClient.NO_CANCEL for never
+    long nextCancelAfterMs();
+}
@@ -0,0 +1,17 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.Nullable;
+
+// Shared source of prompts for benchmark workers. Must be safe to call from many threads.
+public interface IPromptSource {
+
+    // null means the source is exhausted
+    @Nullable
+    TokenizedCompletionPrompt next();
+
+    // Number of prompts the source will return, -1 if unbounded
+    default int size() {
+        return -1;
+    }
+}
@@ -0,0 +1,162 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+// Log-linear histogram with bounded memory (HDR-style): values below 128 are exact,
+// above that every power of two is split into 64 sub-buckets, so the relative error is below 1.6%.
+// Values above maxValue are clamped. Not thread-safe.
+public class LatencyHistogram {
+    private static final int LINEAR_BITS = 7;
+    static final int LINEAR_SIZE = 1 << LINEAR_BITS;
+    private static final int SUB_BUCKETS = LINEAR_SIZE / 2;
+
+    // One hour in ms
+    public static final long MAX_VALUE_DEFAULT = 3_600_000;
+
+    private final long maxValue;
+
+    private final long @NotNull [] counts;
+
+    private long totalCount = 0;
+    private double sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public LatencyHistogram() {
+        this(MAX_VALUE_DEFAULT);
+    }
+
+    public LatencyHistogram(long maxValue) {
+        if (maxValue < LINEAR_SIZE) {
+            maxValue = LINEAR_SIZE;
+        }
+        this.maxValue = maxValue;
+        this.counts = new long[indexOf(maxValue) + 1];
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    public void record(long value, long count) {
+        final long clamped = Math.max(0, Math.min(value, maxValue));
+        counts[indexOf(clamped)] += count;
+        totalCount += count;
+        sum += (double) clamped * count;
+        min = Math.min(min, clamped);
+        max = Math.max(max, clamped);
+    }
+
+    public void add(@NotNull LatencyHistogram other) {
+        if (other.maxValue != maxValue) {
+            throw new IllegalArgumentException("Histograms have different ranges: " + maxValue + " vs " + other.maxValue);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    // Merges a ConcurrentLatencyHistogram, which has the same bucket layout
+    void add(@NotNull ConcurrentLatencyHistogram other) {
+        if (other.getMaxValue() != maxValue) {
+            throw new IllegalArgumentException("Histograms have different ranges: " + maxValue + " vs " + other.getMaxValue());
+        }
+        final long otherCount = other.addCountsTo(counts);
+        if (otherCount == 0) {
+            return;
+        }
+        totalCount += otherCount;
+        sum += other.getSum();
+        min = Math.min(min, other.getMin());
+        max = Math.max(max, other.getMax());
+    }
+
+    @NotNull
+    public LatencyHistogram copy() {
+        final LatencyHistogram copy = new LatencyHistogram(maxValue);
+        copy.add(this);
+        return copy;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    // Nearest-rank percentile, reported as the highest value of the bucket (never above the recorded max)
+    public long getValueAtQuantile(double quantile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, Math.max(min, highestValueOf(i)));
+            }
+        }
+        return max;
+    }
+
+    // Values in buckets up to the one of value, so it's exact below 128 and within the bucket error above
+    public long getCountAtOrBelow(long value) {
+        if (value < 0) {
+            return 0;
+        }
+        final int last = indexOf(Math.min(value, maxValue));
+        long count = 0;
+        for (int i = 0; i <= last; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    // Bytes held by the bucket array
+    public long getFootprintBytes() {
+        return (long) counts.length * Long.BYTES;
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_SIZE) {
+            return (int) value;
+        }
+        // value >> shift is in [SUB_BUCKETS, LINEAR_SIZE)
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (LINEAR_BITS - 1);
+        return LINEAR_SIZE + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_SIZE) {
+            return index;
+        }
+        final int shift = (index - LINEAR_SIZE) / SUB_BUCKETS + 1;
+        final long subBucket = (index - LINEAR_SIZE) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,67 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+public record LatencyStats(
+        int count,
+        double avg,
+        long p50,
+        long p95,
+        long p99,
+        long max
+) {
+    @NotNull
+    public static final LatencyStats EMPTY = new LatencyStats(0, 0, 0, 0, 0, 0);
+
+    @NotNull
+    public static LatencyStats of(long @NotNull [] values) {
+        if (values.length == 0) {
+            return EMPTY;
+        }
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        double sum = 0;
+        for (long value : sorted) {
+            sum += value;
+        }
+        return new LatencyStats(
+                sorted.length,
+                sum / sorted.length,
+                percentile(sorted, 0.50),
+                percentile(sorted, 0.95),
+                percentile(sorted, 0.99),
+                sorted[sorted.length - 1]
+        );
+    }
+
+    @NotNull
+    public static LatencyStats of(@NotNull LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return EMPTY;
+        }
+        return new LatencyStats(
+                (int) histogram.getCount(),
+                histogram.getMean(),
+                histogram.getValueAtQuantile(0.50),
+                histogram.getValueAtQuantile(0.95),
+                histogram.getValueAtQuantile(0.99),
+                histogram.getMax()
+        );
+    }
+
+    // Nearest-rank percentile, values should be sorted
+    public static long percentile(long @NotNull [] sorted, double quantile) {
+        final int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return String.format(
+                "count=%d, avg=%.2f, p50=%d, p95=%d, p99=%d, max=%d",
+                count, avg, p50, p95, p99, max
+        );
+    }
+}
@@ -0,0 +1,34 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lock-free queue over a fixed prompt list: workers pull the next prompt when they are free,
+// so long prompts don't leave the other workers idle at the end of the run.
+public class ListPromptSource implements IPromptSource {
+
+    @NotNull
+    private final List<TokenizedCompletionPrompt> prompts;
+
+    @NotNull
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+
+    public ListPromptSource(@NotNull List<TokenizedCompletionPrompt> prompts) {
+        this.prompts = prompts;
+    }
+
+    @Override
+    public @Nullable TokenizedCompletionPrompt next() {
+        final int index = nextIndex.getAndIncrement();
+        return index < prompts.size() ? prompts.get(index) : null;
+    }
+
+    @Override
+    public int size() {
+        return prompts.size();
+    }
+}
@@ -2,45 +2,543 @@ package com.timofeev.benchmark;
 
 import com.timofeev.llm.OpenAiLlmClient;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+// Called from every request thread. Statistics go to a StripedRecorder, per-window statistics to a WindowRing
+// and in-flight time to a ConcurrencyRecorder, so recording doesn't lock; rows (optional) go to lock-free queues.
+// Only warmup detection takes a lock.
 public class LlmTimingHolder {
+    private static final int EFFECTIVE_CONCURRENCY_BUCKETS = 20;
 
+    static final String TIMING_HEADER = "timeMs, contextTokensSize, responseCharsSize, scheduledMs, sendMs, ttftMs, tokens, maxTokenGapMs, attempts, "
+            + "connectedUs, sentUs, firstByteUs, lastByteUs, parsedUs\n";
+
+    // Steady-state samples, only kept when keepRows is set
+    @NotNull
+    private final Queue<TimingInfo> timingInfos = new ConcurrentLinkedQueue<>();
+
+    // Requests that didn't produce a completion, timed until the client gave up
+    @NotNull
+    private final Queue<TimingInfo> failedTimingInfos = new ConcurrentLinkedQueue<>();
+
+    // null means every sample is measured. Not thread-safe, called under its own lock until warmup ends.
+    @Nullable
+    private final WarmupDetector warmupDetector;
+    private volatile boolean measuring;
+
+    // Without rows memory stays flat however long the run lasts, statistics come from the histograms
+    private final boolean keepRows;
+
+    // Rows streamed to disk instead of memory, null if they aren't written
+    @Nullable
+    private final ReportWriter rowWriter;
+
+    // null means no per-window statistics
+    @Nullable
+    private final WindowRing windows;
+
+    @NotNull
+    private final StripedRecorder<Metric> recorder = new StripedRecorder<>(Metric.class);
+    // Phase durations in microseconds, up to an hour
+    @NotNull
+    private final StripedRecorder<Phase> phaseRecorder = new StripedRecorder<>(
+            Phase.class,
+            StripedRecorder.defaultStripes(),
+            LatencyHistogram.MAX_VALUE_DEFAULT * 1000
+    );
+
+    // Live view for the metrics endpoint: every completion, warmup included, by prompt size
+    @NotNull
+    private final ConcurrencyRecorder concurrencyRecorder = new ConcurrencyRecorder();
+
+    @NotNull
+    private final StripedRecorder<ContextBucket> contextRecorder = new StripedRecorder<>(ContextBucket.class);
+    @NotNull
+    private final AtomicInteger inFlight = new AtomicInteger();
+    @NotNull
+    private final LongAdder tokensTotal = new LongAdder();
+    @NotNull
+    private final LongAdder responseCharsTotal = new LongAdder();
+
+    @NotNull
+    private final AtomicInteger warmupCount = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger failuresCount = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger cancelledCount = new AtomicInteger();
+
+    // Requests sent with retries and hedging, and the exchanges they took
+    @NotNull
+    private final AtomicInteger attemptedRequests = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger attemptsCount = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger retriesCount = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger hedgesCount = new AtomicInteger();
     @NotNull
-    private final List<TimingInfo> timingInfos;
+    private final AtomicInteger hedgeWinsCount = new AtomicInteger();
 
     public LlmTimingHolder() {
-        timingInfos = new ArrayList<>();
+        this(null);
     }
 
-    public synchronized void addTimingInfo(
+    public LlmTimingHolder(@Nullable WarmupDetector warmupDetector) {
+        this(warmupDetector, true, 0);
+    }
+
+    public LlmTimingHolder(
+            @Nullable WarmupDetector warmupDetector,
+            boolean keepRows,
+            long windowMs
+    ) {
+        this(warmupDetector, keepRows, windowMs, null);
+    }
+
+    public LlmTimingHolder(
+            @Nullable WarmupDetector warmupDetector,
+            boolean keepRows,
+            long windowMs,
+            @Nullable ReportWriter rowWriter
+    ) {
+        this.warmupDetector = warmupDetector;
+        this.measuring = warmupDetector == null;
+        this.keepRows = keepRows;
+        this.windows = windowMs > 0 ? new WindowRing(windowMs) : null;
+        this.rowWriter = rowWriter;
+    }
+
+    public void addTimingInfo(
             @NotNull TimingInfo timingInfo
     ) {
-        timingInfos.add(timingInfo);
+        addTimingInfo(timingInfo, new long[0]);
+    }
+
+    // tokenGapsMs are the gaps between consecutive streamed tokens, empty for non-streamed responses
+    public void addTimingInfo(
+            @NotNull TimingInfo timingInfo,
+            long @NotNull [] tokenGapsMs
+    ) {
+        contextRecorder.record(ContextBucket.of(timingInfo.contextTokensSize), timingInfo.timeMs);
+        if (timingInfo.tokens > 0) {
+            tokensTotal.add(timingInfo.tokens);
+        }
+        responseCharsTotal.add(timingInfo.responseCharsSize);
+
+        if (isWarmup(timingInfo)) {
+            warmupCount.incrementAndGet();
+            // Only written out, cold-start effects don't leak into the statistics
+            if (rowWriter != null) {
+                rowWriter.addRow(ReportWriter.Section.WARMUP, timingInfo);
+            }
+            return;
+        }
+
+        final long responseTimeMs = timingInfo.sendMs - timingInfo.scheduledMs + timingInfo.timeMs;
+        recorder.record(Metric.TIME, timingInfo.timeMs);
+        recorder.record(Metric.RESPONSE_TIME, responseTimeMs);
+        recorder.record(Metric.SCHEDULING_OVERHEAD, timingInfo.sendMs - timingInfo.scheduledMs);
+        if (timingInfo.tokens >= 0) {
+            recorder.record(Metric.TOKENS, timingInfo.tokens);
+        }
+        if (timingInfo.isStreamed()) {
+            recorder.record(Metric.TTFT, timingInfo.ttftMs);
+            for (long gapMs : tokenGapsMs) {
+                recorder.record(Metric.TOKEN_GAP, gapMs);
+            }
+        }
+        recordPhases(timingInfo.phases);
+        concurrencyRecorder.record(timingInfo.sendMs, timingInfo.sendMs + timingInfo.timeMs);
+        addRow(timingInfos, ReportWriter.Section.MEASURED, timingInfo);
+
+        if (windows != null) {
+            windows.recordResponse(timingInfo.sendMs + timingInfo.timeMs, responseTimeMs, timingInfo.timeMs);
+        }
+    }
+
+    private void addRow(
+            @NotNull Queue<TimingInfo> rows,
+            @NotNull ReportWriter.Section section,
+            @NotNull TimingInfo timingInfo
+    ) {
+        if (keepRows) {
+            rows.add(timingInfo);
+        }
+        if (rowWriter != null) {
+            rowWriter.addRow(section, timingInfo);
+        }
+    }
+
+    private void recordPhases(@NotNull Phases phases) {
+        final long[] offsetsUs = phases.offsetsUs();
+        long previousUs = 0;
+        for (Phase phase : Phase.values()) {
+            final long endUs = offsetsUs[phase.ordinal()];
+            if (endUs >= 0 && previousUs >= 0) {
+                phaseRecorder.record(phase, endUs - previousUs);
+            }
+            previousUs = endUs;
+        }
+    }
+
+    // Lock-free once the detector has decided that warmup is over
+    private boolean isWarmup(@NotNull TimingInfo timingInfo) {
+        if (measuring) {
+            return false;
+        }
+        synchronized (warmupDetector) {
+            if (warmupDetector.isWarmup(timingInfo)) {
+                return true;
+            }
+            measuring = true;
+            return false;
+        }
+    }
+
+    // A request went out: single, batched or with retries, counted once until it's answered, failed or cancelled
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void requestFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    // A request that carried several prompts, each of them is also added as its own timing info.
+    // Warmup isn't excluded here, batches are few and only their sizes and times are compared.
+    public void addBatch(int prompts, long timeMs) {
+        recorder.record(Metric.BATCH_SIZE, prompts);
+        recorder.record(Metric.BATCH_TIME, timeMs);
+        recorder.record(Metric.BATCH_TIME_PER_PROMPT, timeMs / prompts);
+    }
+
+    // Request was sent but didn't produce a usable completion
+    public void addFailure() {
+        failuresCount.incrementAndGet();
+        if (windows != null) {
+            windows.recordFailure(System.currentTimeMillis());
+        }
+    }
+
+    public void addFailure(@NotNull TimingInfo timingInfo) {
+        failuresCount.incrementAndGet();
+        recorder.record(Metric.FAILED_TIME, timingInfo.timeMs);
+        addRow(failedTimingInfos, ReportWriter.Section.FAILED, timingInfo);
+        if (windows != null) {
+            windows.recordFailure(timingInfo.sendMs + timingInfo.timeMs);
+        }
     }
 
+    // Exchanges a request took: attempts counts all of them, retries and hedges are the extra ones.
+    // hedgeWon is set when the hedged copy answered first.
+    public void addAttempts(int attempts, int retries, int hedges, boolean hedgeWon) {
+        attemptedRequests.incrementAndGet();
+        attemptsCount.addAndGet(attempts);
+        retriesCount.addAndGet(retries);
+        hedgesCount.addAndGet(hedges);
+        if (hedgeWon) {
+            hedgeWinsCount.incrementAndGet();
+        }
+    }
+
+    // Request was aborted by the client before the response arrived.
+    // Kept out of the latency statistics, those show how fast the server reclaims cancelled capacity.
+    public void addCancelled(long sendMs, long cancelAfterMs) {
+        cancelledCount.incrementAndGet();
+        recorder.record(Metric.CANCEL_AFTER, cancelAfterMs);
+        if (windows != null) {
+            windows.recordCancelled(sendMs + cancelAfterMs);
+        }
+    }
+
+    // Completed requests including warmup
+    public int getSuccessCount() {
+        return (int) recorder.snapshot(Metric.TIME).getCount() + warmupCount.get();
+    }
+
+    public int getFailuresCount() {
+        return failuresCount.get();
+    }
+
+    public int getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    // Tokens of completions that reported them, warmup included
+    public long getTokensTotal() {
+        return tokensTotal.sum();
+    }
+
+    public long getResponseCharsTotal() {
+        return responseCharsTotal.sum();
+    }
+
+    // Request time of every completion so far, warmup included
     @NotNull
-    public synchronized String getTimingReport() {
+    public EnumMap<ContextBucket, LatencyHistogram> getTimeByContext() {
+        return contextRecorder.snapshot();
+    }
+
+    // The statistics part of the report, without rows
+    @NotNull
+    public String getSummaryReport() {
+        final EnumMap<Metric, LatencyHistogram> histograms = recorder.snapshot();
         final StringBuilder report = new StringBuilder();
+        report.append("failures: ").append(failuresCount.get());
+        if (histograms.get(Metric.FAILED_TIME).getCount() > 0) {
+            report.append(", failedTimeMs: ").append(LatencyStats.of(histograms.get(Metric.FAILED_TIME)));
+        }
+        report.append("\n");
+        final int attempted = attemptedRequests.get();
+        if (attempted > 0) {
+            // Extra load is what retries and hedges add on top of one exchange per request
+            report.append(String.format(
+                    "attempts: %d for %d requests, extra load %.1f%%, retries: %d, hedges: %d, hedge wins: %d\n",
+                    attemptsCount.get(),
+                    attempted,
+                    100.0 * (attemptsCount.get() - attempted) / attempted,
+                    retriesCount.get(),
+                    hedgesCount.get(),
+                    hedgeWinsCount.get()
+            ));
+        }
+        report.append("cancelled: ").append(cancelledCount.get())
+                .append(", cancelAfterMs: ").append(LatencyStats.of(histograms.get(Metric.CANCEL_AFTER))).append("\n");
+        report.append("warmup: ").append(warmupCount.get()).append(" samples excluded from the statistics below\n");
+        report.append("timeMs: ").append(LatencyStats.of(histograms.get(Metric.TIME))).append("\n");
+        report.append("responseTimeMs (sendMs - scheduledMs + timeMs): ")
+                .append(LatencyStats.of(histograms.get(Metric.RESPONSE_TIME))).append("\n");
+        report.append("schedulingOverheadMs (sendMs - scheduledMs): ")
+                .append(LatencyStats.of(histograms.get(Metric.SCHEDULING_OVERHEAD))).append("\n");
+        if (histograms.get(Metric.TTFT).getCount() > 0) {
+            report.append("ttftMs: ").append(LatencyStats.of(histograms.get(Metric.TTFT))).append("\n");
+            report.append("interTokenMs: ").append(LatencyStats.of(histograms.get(Metric.TOKEN_GAP))).append("\n");
+        }
+        if (histograms.get(Metric.TOKENS).getCount() > 0) {
+            report.append("tokens: ").append(LatencyStats.of(histograms.get(Metric.TOKENS))).append("\n");
+        }
+        if (histograms.get(Metric.BATCH_SIZE).getCount() > 0) {
+            report.append("batchSize: ").append(LatencyStats.of(histograms.get(Metric.BATCH_SIZE))).append("\n");
+            report.append("batchTimeMs: ").append(LatencyStats.of(histograms.get(Metric.BATCH_TIME))).append("\n");
+            report.append("batchTimePerPromptMs: ")
+                    .append(LatencyStats.of(histograms.get(Metric.BATCH_TIME_PER_PROMPT))).append("\n");
+        }
+        appendPhases(report);
+        appendEffectiveConcurrency(report);
+        if (windows != null) {
+            windows.appendTo(report);
+        }
+        return report.toString();
+    }
+
+    static void appendTimingRow(@NotNull StringBuilder report, @NotNull TimingInfo timingInfo) {
         report.append(
-                "timeMs, contextTokensSize, responseCharsSize\n"
+                String.format(
+                        "%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s\n",
+                        timingInfo.timeMs,
+                        timingInfo.contextTokensSize,
+                        timingInfo.responseCharsSize,
+                        timingInfo.scheduledMs,
+                        timingInfo.sendMs,
+                        timingInfo.ttftMs,
+                        timingInfo.tokens,
+                        timingInfo.maxTokenGapMs,
+                        timingInfo.attempts,
+                        timingInfo.phases.connectedUs,
+                        timingInfo.phases.sentUs,
+                        timingInfo.phases.firstByteUs,
+                        timingInfo.phases.lastByteUs,
+                        timingInfo.phases.parsedUs
+                )
         );
+    }
+
+    // Where the time of a request went, each phase only counts requests where both of its ends were seen
+    private void appendPhases(@NotNull StringBuilder report) {
+        final EnumMap<Phase, LatencyHistogram> histograms = phaseRecorder.snapshot();
+        if (histograms.values().stream().allMatch(histogram -> histogram.getCount() == 0)) {
+            return;
+        }
+        for (Phase phase : Phase.values()) {
+            report.append(phase.label).append("Us: ").append(LatencyStats.of(histograms.get(phase))).append("\n");
+        }
+    }
+
+    // Measured requests only, recorded as they complete, so it doesn't need rows
+    private void appendEffectiveConcurrency(@NotNull StringBuilder report) {
+        final ConcurrencyRecorder.Timeline timeline = concurrencyRecorder.compute(EFFECTIVE_CONCURRENCY_BUCKETS);
+        final double[] concurrency = timeline.concurrency();
+        if (concurrency.length == 0) {
+            return;
+        }
+        final long bucketMs = timeline.bucketMs();
+        report.append("effectiveConcurrency (avg in-flight per ").append(bucketMs).append("ms): ");
+        for (int i = 0; i < concurrency.length; i++) {
+            if (i > 0) {
+                report.append(", ");
+            }
+            report.append(String.format("%.2f", concurrency[i]));
+        }
+        report.append("\n");
+    }
+
+    // Latency as the caller sees it: client side queueing + request time.
+    // Differs from timeMs in open-loop runs when the client can't send requests on schedule.
+    @NotNull
+    public LatencyStats getResponseTimeStats() {
+        return LatencyStats.of(recorder.snapshot(Metric.RESPONSE_TIME));
+    }
+
+    // Response times of requests scheduled at or after fromMs, sorted. Needs keepRows.
+    public long @NotNull [] getSortedResponseTimes(long fromMs) {
+        final long[] values = timingInfos.stream()
+                .filter(timingInfo -> timingInfo.scheduledMs >= fromMs)
+                .mapToLong(timingInfo -> timingInfo.sendMs - timingInfo.scheduledMs + timingInfo.timeMs)
+                .toArray();
+        Arrays.sort(values);
+        return values;
+    }
+
+    // Number of requests scheduled at or after fromMs whose response time exceeded thresholdMs. Needs keepRows.
+    public int countSlowerThan(long thresholdMs, long fromMs) {
+        int count = 0;
         for (TimingInfo timingInfo : timingInfos) {
-            report.append(
-                    String.format(
-                            "%s, %s, %s\n",
-                            timingInfo.timeMs,
-                            timingInfo.contextTokensSize,
-                            timingInfo.responseCharsSize
-                    )
-            );
+            if (timingInfo.scheduledMs >= fromMs
+                    && timingInfo.sendMs - timingInfo.scheduledMs + timingInfo.timeMs > thresholdMs) {
+                count++;
+            }
         }
-        return report.toString();
+        return count;
+    }
+
+    // Number of failed requests scheduled at or after fromMs. Needs keepRows.
+    public int countFailures(long fromMs) {
+        int count = 0;
+        for (TimingInfo timingInfo : failedTimingInfos) {
+            if (timingInfo.scheduledMs >= fromMs) {
+                count++;
+            }
+        }
+        return count;
     }
 
+    // scheduledMs is when the request was supposed to be sent, sendMs is when it actually was, both wall clock.
+    // In open-loop runs the difference is client side queueing, which is part of the latency users see.
+    // timeMs, ttftMs and the token gaps are durations from System.nanoTime, a wall-clock step doesn't skew them.
+    // ttftMs and maxTokenGapMs are only measured for streamed responses, -1 otherwise.
+    // tokens are counted from the stream, or taken from usage when the response wasn't streamed (-1 if absent).
+    // attempts is the number of exchanges the request took, above 1 with retries and hedging.
+    // phases are of the exchange that answered, measured with System.nanoTime.
+    public record TimingInfo(
+            long timeMs,
+            int contextTokensSize,
+            int responseCharsSize,
+            long scheduledMs,
+            long sendMs,
+            long ttftMs,
+            int tokens,
+            long maxTokenGapMs,
+            int attempts,
+            @NotNull Phases phases
+    ) {
+        public TimingInfo(
+                long timeMs,
+                int contextTokensSize,
+                int responseCharsSize,
+                long scheduledMs,
+                long sendMs
+        ) {
+            this(timeMs, contextTokensSize, responseCharsSize, scheduledMs, sendMs, -1, -1, -1, 1, Phases.NONE);
+        }
+
+        public boolean isStreamed() {
+            return ttftMs >= 0;
+        }
+    }
+
+    // Offsets from the start of an exchange in microseconds, -1 where the event wasn't seen.
+    // connected: the client has a connection and writes the body, sent: the body is handed to the connection,
+    // firstByte: response headers, lastByte: end of the body, parsed: the completion is extracted.
+    public record Phases(long connectedUs, long sentUs, long firstByteUs, long lastByteUs, long parsedUs) {
+        @NotNull
+        public static final Phases NONE = new Phases(-1, -1, -1, -1, -1);
+
+        long @NotNull [] offsetsUs() {
+            return new long[]{connectedUs, sentUs, firstByteUs, lastByteUs, parsedUs};
+        }
+    }
+
+    // Durations between consecutive Phases offsets, in their order.
+    // wait is network plus server queueing and prefill, and the whole generation for non-streamed responses;
+    // download is the generation of streamed responses.
+    public enum Phase {
+        CONNECT("connect"),
+        UPLOAD("upload"),
+        WAIT("wait"),
+        DOWNLOAD("download"),
+        PARSE("parse");
+
+        @NotNull
+        private final String label;
+
+        Phase(@NotNull String label) {
+            this.label = label;
+        }
+    }
+
+    // Prompt sizes up to maxTokens, the last one takes the rest
+    public enum ContextBucket {
+        UP_TO_512(512),
+        UP_TO_1K(1024),
+        UP_TO_2K(2048),
+        UP_TO_4K(4096),
+        UP_TO_8K(8192),
+        UP_TO_16K(16384),
+        ABOVE_16K(Integer.MAX_VALUE);
+
+        public final int maxTokens;
+
+        ContextBucket(int maxTokens) {
+            this.maxTokens = maxTokens;
+        }
+
+        @NotNull
+        public static ContextBucket of(int tokens) {
+            for (ContextBucket bucket : values()) {
+                if (tokens <= bucket.maxTokens) {
+                    return bucket;
+                }
+            }
+            return ABOVE_16K;
+        }
+    }
 
-    public record TimingInfo(long timeMs, int contextTokensSize, int responseCharsSize) {
+    private enum Metric {
+        TIME,
+        RESPONSE_TIME,
+        SCHEDULING_OVERHEAD,
+        // Streaming only: time to first token, gaps between consecutive tokens
+        TTFT,
+        TOKEN_GAP,
+        // Tokens per completion
+        TOKENS,
+        // Time after sending at which cancelled requests were aborted
+        CANCEL_AFTER,
+        FAILED_TIME,
+        // Batched requests: prompts per request, time of the whole request and that time per prompt
+        BATCH_SIZE,
+        BATCH_TIME,
+        BATCH_TIME_PER_PROMPT
     }
 }
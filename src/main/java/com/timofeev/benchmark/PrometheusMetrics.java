@@ -0,0 +1,74 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.Locale;
+
+// The load generator's view of a run in the Prometheus text format, for dashboards next to the server metrics.
+// Counters include warmup, so they match what the server saw. Tokens/s is rate(benchmark_completion_tokens_total).
+public class PrometheusMetrics {
+    // Upper bounds of the request time buckets, ms. Powers of two, so the counts are exact: 2^k - 1 is the
+    // highest value of a LatencyHistogram bucket, and a time in whole ms is below 2^k iff it's at most 2^k - 1.
+    // Round bounds like 2500 fall inside a bucket, their count would include values above them.
+    static final long @NotNull [] TIME_BUCKETS_MS = {
+            32, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768, 65536
+    };
+
+    private PrometheusMetrics() {
+    }
+
+    @NotNull
+    public static String format(@NotNull LlmTimingHolder timingHolder) {
+        final StringBuilder metrics = new StringBuilder();
+
+        header(metrics, "benchmark_requests_total", "counter", "Requests by outcome");
+        metrics.append("benchmark_requests_total{outcome=\"success\"} ").append(timingHolder.getSuccessCount()).append('\n');
+        metrics.append("benchmark_requests_total{outcome=\"failure\"} ").append(timingHolder.getFailuresCount()).append('\n');
+        metrics.append("benchmark_requests_total{outcome=\"cancelled\"} ").append(timingHolder.getCancelledCount()).append('\n');
+
+        header(metrics, "benchmark_requests_in_flight", "gauge", "Requests sent and not answered yet");
+        metrics.append("benchmark_requests_in_flight ").append(timingHolder.getInFlight()).append('\n');
+
+        header(metrics, "benchmark_completion_tokens_total", "counter", "Completion tokens, of responses that report them");
+        metrics.append("benchmark_completion_tokens_total ").append(timingHolder.getTokensTotal()).append('\n');
+
+        header(metrics, "benchmark_response_chars_total", "counter", "Completion characters");
+        metrics.append("benchmark_response_chars_total ").append(timingHolder.getResponseCharsTotal()).append('\n');
+
+        header(
+                metrics,
+                "benchmark_request_duration_seconds",
+                "histogram",
+                "Request time of successful requests by prompt size in tokens"
+        );
+        final EnumMap<LlmTimingHolder.ContextBucket, LatencyHistogram> histograms = timingHolder.getTimeByContext();
+        histograms.forEach((bucket, histogram) -> {
+            final String context = bucket == LlmTimingHolder.ContextBucket.ABOVE_16K
+                    ? "+Inf"
+                    : String.valueOf(bucket.maxTokens);
+            for (long boundMs : TIME_BUCKETS_MS) {
+                metrics.append("benchmark_request_duration_seconds_bucket{context_le=\"").append(context)
+                        .append("\",le=\"").append(seconds(boundMs)).append("\"} ")
+                        .append(histogram.getCountAtOrBelow(boundMs - 1)).append('\n');
+            }
+            metrics.append("benchmark_request_duration_seconds_bucket{context_le=\"").append(context)
+                    .append("\",le=\"+Inf\"} ").append(histogram.getCount()).append('\n');
+            metrics.append("benchmark_request_duration_seconds_sum{context_le=\"").append(context).append("\"} ")
+                    .append(seconds(histogram.getMean() * histogram.getCount())).append('\n');
+            metrics.append("benchmark_request_duration_seconds_count{context_le=\"").append(context).append("\"} ")
+                    .append(histogram.getCount()).append('\n');
+        });
+        return metrics.toString();
+    }
+
+    private static void header(@NotNull StringBuilder metrics, @NotNull String name, @NotNull String type, @NotNull String help) {
+        metrics.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        metrics.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    @NotNull
+    private static String seconds(double ms) {
+        return String.format(Locale.ROOT, "%.3f", ms / 1000);
+    }
+}
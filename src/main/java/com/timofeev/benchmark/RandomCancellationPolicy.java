@@ -0,0 +1,45 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.llm.ILlmInlineClient;
+
+import java.util.Random;
+
+// Cancels the given fraction of requests after a delay uniformly distributed in [minDelayMs, maxDelayMs]
+public class RandomCancellationPolicy implements ICancellationPolicy {
+
+    private final double fraction;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final Random random;
+
+    public RandomCancellationPolicy(
+            double fraction,
+            long minDelayMs,
+            long maxDelayMs,
+            long seed
+    ) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Cancel fraction should be in [0, 1]: " + fraction);
+        }
+        if (minDelayMs < 0 || maxDelayMs < minDelayMs) {
+            throw new IllegalArgumentException("Invalid cancel delay range: " + minDelayMs + ".." + maxDelayMs);
+        }
+        this.fraction = fraction;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public synchronized long nextCancelAfterMs() {
+        if (random.nextDouble() >= fraction) {
+            return ILlmInlineClient.NO_CANCEL;
+        }
+        return nextDelayMs();
+    }
+
+    // Delay for requests known to be cancelled, e.g. from a trace without recorded delays
+    public synchronized long nextDelayMs() {
+        return minDelayMs + (long) (random.nextDouble() * (maxDelayMs - minDelayMs + 1));
+    }
+}
@@ -0,0 +1,65 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Random;
+
+// Sends a prompt again with probability repeatFraction, as an IDE does when the cursor comes back.
+// The repeated prompt is one of the recently sent ones: the reuse distance (1 for the last new prompt,
+// 2 for the one before it...) is geometric with mean meanDistance, so recent prompts come back more often.
+// Repeats don't consume the underlying source, so the run has about 1 / (1 - repeatFraction) times more requests.
+public class RepeatingPromptSource implements IPromptSource {
+    // Prompts further back than this are never repeated
+    private static final int HISTORY_SIZE = 1024;
+
+    @NotNull
+    private final IPromptSource source;
+
+    private final double repeatFraction;
+    private final double meanDistance;
+
+    // Guarded by this
+    @NotNull
+    private final Random random;
+    private final TokenizedCompletionPrompt @NotNull [] history = new TokenizedCompletionPrompt[HISTORY_SIZE];
+    private long sent = 0;
+
+    public RepeatingPromptSource(@NotNull IPromptSource source, double repeatFraction, double meanDistance, long seed) {
+        if (repeatFraction < 0 || repeatFraction >= 1) {
+            throw new IllegalArgumentException("repeatFraction should be in [0, 1): " + repeatFraction);
+        }
+        if (meanDistance < 1) {
+            throw new IllegalArgumentException("meanDistance should be at least 1: " + meanDistance);
+        }
+        this.source = source;
+        this.repeatFraction = repeatFraction;
+        this.meanDistance = meanDistance;
+        this.random = new Random(seed);
+    }
+
+    // Drawing is cheap next to a request, a lock keeps the sequence reproducible for one thread
+    @Override
+    public synchronized @Nullable TokenizedCompletionPrompt next() {
+        if (sent > 0 && random.nextDouble() < repeatFraction) {
+            final long distance = Math.min(nextDistance(), Math.min(sent, HISTORY_SIZE) - 1);
+            return history[(int) ((sent - 1 - distance) % HISTORY_SIZE)];
+        }
+        final TokenizedCompletionPrompt prompt = source.next();
+        if (prompt != null) {
+            history[(int) (sent % HISTORY_SIZE)] = prompt;
+            sent++;
+        }
+        return prompt;
+    }
+
+    // Reuse distance - 1, so 0 is the last new prompt
+    private long nextDistance() {
+        if (meanDistance == 1) {
+            return 0;
+        }
+        // Geometric on 0, 1, 2... with mean meanDistance - 1
+        return (long) (Math.log(1.0 - random.nextDouble()) / Math.log(1 - 1 / meanDistance));
+    }
+}
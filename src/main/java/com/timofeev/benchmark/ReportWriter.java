@@ -0,0 +1,317 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Writes the report of a run while it goes: the run header first, then the rows as requests complete,
+// the statistics once the run is over. A run stopped by a signal (Ctrl-C, kill) still gets the queued rows,
+// END and the warmup and failed rows from the shutdown hook, only the statistics are missing.
+// A crashed or force-killed run keeps everything up to the last flush, its part files are left next to it.
+// Rows are queued by the request threads and written by one thread, flushed every FLUSH_INTERVAL_MS.
+// The queue is bounded, a full queue makes request threads wait (counted as stalls in the report).
+// Warmup and failed rows go to part files next to the report, appended to it when the run finishes.
+// Every run gets its own file: report-<start time>.csv, with a suffix if that exists.
+public class ReportWriter implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReportWriter.class);
+
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final int DRAIN_BATCH = 1024;
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // Signals the writer thread that nothing more is coming
+    private static final Row END_OF_ROWS = new Row(Section.MEASURED, new LlmTimingHolder.TimingInfo(0, 0, 0, 0, 0));
+
+    @NotNull
+    private final File file;
+
+    @NotNull
+    private final BlockingQueue<Row> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    // Written by the writer thread only until it's joined
+    @NotNull
+    private final EnumMap<Section, Writer> writers = new EnumMap<>(Section.class);
+    @NotNull
+    private final EnumMap<Section, File> parts = new EnumMap<>(Section.class);
+
+    @NotNull
+    private final Thread writerThread;
+    @NotNull
+    private final Thread shutdownHook;
+
+    @NotNull
+    private final LongAdder stalls = new LongAdder();
+    private volatile long rows = 0;
+    @Nullable
+    private volatile IOException error;
+    private volatile boolean closed = false;
+    // Set once END is written, by finish() or the shutdown hook. Guarded by this.
+    private boolean finished = false;
+
+    private ReportWriter(@NotNull File file, @NotNull Writer writer) {
+        this.file = file;
+        writers.put(Section.MEASURED, writer);
+        this.writerThread = new Thread(this::writeRows, "report-writer");
+        writerThread.setDaemon(true);
+        // A killed run still gets the queued rows on disk and its part files merged
+        this.shutdownHook = new Thread(this::abort, "report-writer-shutdown");
+    }
+
+    // header goes first, then the timing table header
+    @NotNull
+    public static ReportWriter open(@NotNull File directory, @NotNull String header) throws IOException {
+        final File file = newFile(directory);
+        final Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        writer.write(header);
+        writer.write(LlmTimingHolder.TIMING_HEADER);
+        writer.flush();
+
+        final ReportWriter reportWriter = new ReportWriter(file, writer);
+        reportWriter.writerThread.start();
+        Runtime.getRuntime().addShutdownHook(reportWriter.shutdownHook);
+        LOG.info("Writing report to: {}", file.getAbsolutePath());
+        return reportWriter;
+    }
+
+    // Created atomically, so concurrent runs in one directory don't share a file
+    @NotNull
+    private static File newFile(@NotNull File directory) throws IOException {
+        final String name = "report-" + LocalDateTime.now().format(FILE_TIME_FORMAT);
+        for (int attempt = 0; ; attempt++) {
+            final Path path = directory.toPath().resolve(name + (attempt == 0 ? "" : "-" + attempt) + ".csv");
+            try {
+                return Files.createFile(path).toFile();
+            } catch (FileAlreadyExistsException e) {
+                // Next suffix
+            }
+        }
+    }
+
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    // Called from request threads. Rows of requests that complete after the run are dropped.
+    public void addRow(@NotNull Section section, @NotNull LlmTimingHolder.TimingInfo timingInfo) {
+        if (closed) {
+            return;
+        }
+        final Row row = new Row(section, timingInfo);
+        if (queue.offer(row)) {
+            return;
+        }
+        stalls.increment();
+        try {
+            while (!queue.offer(row, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (closed || !writerThread.isAlive()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Ends the table and writes the statistics, then the warmup and failed rows
+    public synchronized void finish(@NotNull String summary) throws IOException {
+        stop();
+        final IOException writeError = error;
+        if (writeError != null) {
+            throw writeError;
+        }
+        writeTail(summary);
+    }
+
+    // Shutdown hook of a run that didn't get to finish(): the table is ended without statistics
+    synchronized void abort() {
+        stop();
+        if (finished || error != null) {
+            return;
+        }
+        try {
+            writeTail("run interrupted, no statistics\n");
+            LOG.info("Interrupted run, report saved to: {}", file.getAbsolutePath());
+        } catch (IOException e) {
+            LOG.error("Failed to end the report of the interrupted run", e);
+        }
+    }
+
+    private void writeTail(@NotNull String summary) throws IOException {
+        finished = true;
+        final Writer writer = writers.get(Section.MEASURED);
+        writer.write("END\n\n");
+        writer.write(summary);
+        writer.write(String.format("report rows: %d, writer stalls: %d\n", rows, stalls.sum()));
+        for (Section section : List.of(Section.WARMUP, Section.FAILED)) {
+            final File part = parts.get(section);
+            if (part == null) {
+                continue;
+            }
+            writers.remove(section).close();
+            writer.write("\n" + section.title + "\n");
+            try (final Reader reader = Files.newBufferedReader(part.toPath(), StandardCharsets.UTF_8)) {
+                reader.transferTo(writer);
+            }
+            Files.delete(part.toPath());
+        }
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        stop();
+        for (Writer writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.error("Failed to close the report", e);
+            }
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down, the hook is running
+        }
+    }
+
+    // Writes out what's queued and waits for the writer thread, unless it has died and stopped draining the queue
+    private synchronized void stop() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            while (!queue.offer(END_OF_ROWS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (!writerThread.isAlive()) {
+                    return;
+                }
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeRows() {
+        final List<Row> batch = new ArrayList<>(DRAIN_BATCH);
+        final StringBuilder line = new StringBuilder();
+        long lastFlushMs = System.currentTimeMillis();
+        try {
+            while (true) {
+                final Row first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, DRAIN_BATCH - 1);
+                }
+                for (Row row : batch) {
+                    if (row == END_OF_ROWS) {
+                        flush();
+                        return;
+                    }
+                    // After an error rows are still drained, so request threads don't wait on a full queue
+                    if (error == null) {
+                        try {
+                            line.setLength(0);
+                            LlmTimingHolder.appendTimingRow(line, row.timingInfo);
+                            write(row.section, line);
+                        } catch (RuntimeException e) {
+                            fail(e);
+                        }
+                    }
+                }
+                batch.clear();
+                if (System.currentTimeMillis() - lastFlushMs >= FLUSH_INTERVAL_MS) {
+                    flush();
+                    lastFlushMs = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // The thread is gone, addRow() and stop() stop waiting for it
+            fail(e);
+        }
+    }
+
+    // finish() rethrows it, so the run fails instead of ending with a partial report
+    private void fail(@NotNull RuntimeException e) {
+        LOG.error("Report writer failed, further rows are dropped", e);
+        error = new IOException("Report writer failed", e);
+    }
+
+    private void write(@NotNull Section section, @NotNull CharSequence line) {
+        try {
+            writer(section).append(line);
+            if (section == Section.MEASURED) {
+                rows++;
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to write the report, further rows are dropped", e);
+            error = e;
+        }
+    }
+
+    @NotNull
+    private Writer writer(@NotNull Section section) throws IOException {
+        Writer writer = writers.get(section);
+        if (writer == null) {
+            final File part = new File(file.getPath() + "." + section.name().toLowerCase() + ".part");
+            writer = Files.newBufferedWriter(part.toPath(), StandardCharsets.UTF_8);
+            writer.write(LlmTimingHolder.TIMING_HEADER);
+            parts.put(section, part);
+            writers.put(section, writer);
+        }
+        return writer;
+    }
+
+    private void flush() {
+        if (error != null) {
+            return;
+        }
+        try {
+            for (Writer writer : writers.values()) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to flush the report, further rows are dropped", e);
+            error = e;
+        }
+    }
+
+    public enum Section {
+        MEASURED("measured rows:"),
+        WARMUP("warmup rows:"),
+        FAILED("failed rows:");
+
+        @NotNull
+        private final String title;
+
+        Section(@NotNull String title) {
+            this.title = title;
+        }
+    }
+
+    private record Row(@NotNull Section section, @NotNull LlmTimingHolder.TimingInfo timingInfo) {
+    }
+}
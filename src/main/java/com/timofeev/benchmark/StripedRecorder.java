@@ -0,0 +1,154 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Histograms of several metrics that many threads record into without locks.
+// Threads are spread over stripes by id, so they rarely share cache lines. Every stripe has two buffers:
+// writers record into the active one, a snapshot makes the other one active, waits for the writers
+// still in the old one (writer-reader phaser, as in HdrHistogram's Recorder) and merges it into the totals.
+// Writes are a few atomic increments and never wait; snapshots are consistent and may be taken live.
+public class StripedRecorder<E extends Enum<E>> {
+    // Every stripe holds two buffers of every metric, ~9 KB a histogram
+    private static final int MAX_STRIPES_DEFAULT = 16;
+
+    @NotNull
+    private final Class<E> metrics;
+
+    @NotNull
+    private final Stripe @NotNull [] stripes;
+
+    private final int stripeMask;
+
+    // Everything recorded before the last snapshot, guarded by this
+    @NotNull
+    private final EnumMap<E, LatencyHistogram> totals;
+
+    public StripedRecorder(@NotNull Class<E> metrics) {
+        this(metrics, defaultStripes());
+    }
+
+    public StripedRecorder(@NotNull Class<E> metrics, int minStripes) {
+        this(metrics, minStripes, LatencyHistogram.MAX_VALUE_DEFAULT);
+    }
+
+    public StripedRecorder(@NotNull Class<E> metrics, int minStripes, long maxValue) {
+        this.metrics = metrics;
+        final int stripeCount = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(metrics.getEnumConstants().length, maxValue);
+        }
+        this.stripeMask = stripeCount - 1;
+        this.totals = new EnumMap<>(metrics);
+        for (E metric : metrics.getEnumConstants()) {
+            totals.put(metric, new LatencyHistogram(maxValue));
+        }
+    }
+
+    // Two per core keeps collisions rare without spending memory on stripes nobody writes to
+    static int defaultStripes() {
+        return Math.min(MAX_STRIPES_DEFAULT, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public void record(@NotNull E metric, long value) {
+        final Stripe stripe = stripes[stripeIndex()];
+        final long epoch = stripe.startEpoch.getAndIncrement();
+        try {
+            stripe.active[metric.ordinal()].record(value);
+        } finally {
+            (epoch < 0 ? stripe.oddEndEpoch : stripe.evenEndEpoch).getAndIncrement();
+        }
+    }
+
+    // Everything recorded so far, writers aren't blocked while it's taken
+    @NotNull
+    public synchronized EnumMap<E, LatencyHistogram> snapshot() {
+        for (Stripe stripe : stripes) {
+            final ConcurrentLatencyHistogram[] recorded = stripe.flip();
+            for (E metric : metrics.getEnumConstants()) {
+                totals.get(metric).add(recorded[metric.ordinal()]);
+                recorded[metric.ordinal()].reset();
+            }
+        }
+        final EnumMap<E, LatencyHistogram> snapshot = new EnumMap<>(metrics);
+        totals.forEach((metric, histogram) -> snapshot.put(metric, histogram.copy()));
+        return snapshot;
+    }
+
+    @NotNull
+    public LatencyHistogram snapshot(@NotNull E metric) {
+        return snapshot().get(metric);
+    }
+
+    // Bucket arrays of all stripes, both buffers, plus the totals
+    public long getFootprintBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            for (ConcurrentLatencyHistogram histogram : stripe.active) {
+                bytes += 2 * histogram.getFootprintBytes();
+            }
+        }
+        synchronized (this) {
+            for (LatencyHistogram histogram : totals.values()) {
+                bytes += histogram.getFootprintBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private int stripeIndex() {
+        // Fibonacci hashing spreads sequential thread ids
+        final long id = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & stripeMask;
+    }
+
+    // Writers count themselves in startEpoch and out in the end epoch of their phase.
+    // Even phases count from 0, odd ones from Long.MIN_VALUE, so the sign of startEpoch tells the phase.
+    private static class Stripe {
+        @NotNull
+        private final AtomicLong startEpoch = new AtomicLong(0);
+        @NotNull
+        private final AtomicLong evenEndEpoch = new AtomicLong(0);
+        @NotNull
+        private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+        private volatile ConcurrentLatencyHistogram @NotNull [] active;
+        private ConcurrentLatencyHistogram @NotNull [] inactive;
+
+        private Stripe(int metrics, long maxValue) {
+            active = newBuffer(metrics, maxValue);
+            inactive = newBuffer(metrics, maxValue);
+        }
+
+        // Swaps the buffers and returns the previously active one once no writer is left in it.
+        // Called under the recorder lock.
+        private ConcurrentLatencyHistogram @NotNull [] flip() {
+            final boolean nextPhaseOdd = startEpoch.get() >= 0;
+            final long nextPhaseStart = nextPhaseOdd ? Long.MIN_VALUE : 0;
+            (nextPhaseOdd ? oddEndEpoch : evenEndEpoch).set(nextPhaseStart);
+
+            final ConcurrentLatencyHistogram[] recorded = active;
+            active = inactive;
+            inactive = recorded;
+
+            // Writers that entered before this point may still be in either buffer
+            final long previousPhaseEnd = startEpoch.getAndSet(nextPhaseStart);
+            final AtomicLong previousEndEpoch = nextPhaseOdd ? evenEndEpoch : oddEndEpoch;
+            while (previousEndEpoch.get() != previousPhaseEnd) {
+                Thread.onSpinWait();
+            }
+            return recorded;
+        }
+
+        private static ConcurrentLatencyHistogram @NotNull [] newBuffer(int metrics, long maxValue) {
+            final ConcurrentLatencyHistogram[] buffer = new ConcurrentLatencyHistogram[metrics];
+            for (int i = 0; i < metrics; i++) {
+                buffer[i] = new ConcurrentLatencyHistogram(maxValue);
+            }
+            return buffer;
+        }
+    }
+}
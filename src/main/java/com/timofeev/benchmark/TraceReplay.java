@@ -0,0 +1,262 @@
+package com.timofeev.benchmark;
+
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import com.google.gson.JsonParseException;
+import com.timofeev.llm.ILlmInlineClient;
+import com.timofeev.llm.OpenAiLlmClient;
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Replays IDE completion traffic with the original inter-arrival times.
+// Trace is JSONL, one request per line:
+// {"timestamp": 1754474828110, "prompt_tokens": 1834, "cancelled": false, "cancel_after_ms": 120, "prompt": "optional text"}
+// timestamp is epoch ms (epoch seconds if below 1e11) or an ISO-8601 string.
+// Without prompt text a random dataset prompt of about the nearest token count is sent.
+// Cancelled requests are aborted again after cancel_after_ms, or a random delay from -cmin..-cmax if it's absent.
+public class TraceReplay {
+    private static final Logger LOG = LoggerFactory.getLogger(TraceReplay.class);
+
+    // Numeric timestamps below this are epoch seconds
+    private static final double EPOCH_SECONDS_LIMIT = 1e11;
+
+    private static final long SEED = 0;
+
+    public static void run(
+            @NotNull Benchmark.BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull HuggingFaceTokenizer tokenizer,
+            @NotNull List<TokenizedCompletionPrompt> datasetPrompts
+    ) throws IOException {
+        final List<TraceEntry> entries = readTrace(
+                params.trace,
+                tokenizer,
+                new NearestSizeMatcher(datasetPrompts, SEED)
+        );
+        if (entries.isEmpty()) {
+            LOG.warn("Trace is empty: {}", params.trace);
+            return;
+        }
+
+        final long firstTimestampMs = entries.getFirst().timestampMs;
+        final long lastTimestampMs = entries.getLast().timestampMs;
+        LOG.info(
+                "Replaying {} requests, {} cancelled in the trace, trace duration {}s, speedup {}",
+                entries.size(),
+                entries.stream().filter(TraceEntry::cancelled).count(),
+                (lastTimestampMs - firstTimestampMs) / 1000,
+                params.traceSpeedup
+        );
+
+        final List<TokenizedCompletionPrompt> prompts = new ArrayList<>(entries.size());
+        for (TraceEntry entry : entries) {
+            prompts.add(entry.prompt);
+        }
+
+        llmClient.prerender(prompts);
+
+        // Prompts, offsets and cancellations are consumed in lockstep by the scheduling thread
+        final IArrivalSchedule schedule = new IArrivalSchedule() {
+            private int next = 0;
+
+            @Override
+            public long nextOffsetMs() {
+                final TraceEntry entry = entries.get(next++);
+                return (long) ((entry.timestampMs - firstTimestampMs) / params.traceSpeedup);
+            }
+        };
+        final RandomCancellationPolicy delays = new RandomCancellationPolicy(
+                1,
+                params.cancelMinMs,
+                params.cancelMaxMs,
+                SEED
+        );
+        final ICancellationPolicy cancellationPolicy = new ICancellationPolicy() {
+            private int next = 0;
+
+            @Override
+            public long nextCancelAfterMs() {
+                final TraceEntry entry = entries.get(next++);
+                if (!entry.cancelled) {
+                    return ILlmInlineClient.NO_CANCEL;
+                }
+                if (entry.cancelAfterMs != null) {
+                    return (long) (entry.cancelAfterMs / params.traceSpeedup);
+                }
+                return delays.nextDelayMs();
+            }
+        };
+
+        Benchmark.runOpenLoop(
+                params,
+                llmClient,
+                new ListPromptSource(prompts),
+                schedule,
+                cancellationPolicy,
+                () -> false
+        );
+    }
+
+    @NotNull
+    static List<TraceEntry> readTrace(
+            @NotNull File trace,
+            @NotNull HuggingFaceTokenizer tokenizer,
+            @NotNull NearestSizeMatcher matcher
+    ) throws IOException {
+        final List<TraceEntry> entries = new ArrayList<>();
+        try (
+                final Stream<String> lines = Files.lines(trace.toPath())
+        ) {
+            lines.forEach(line -> {
+                if (line.isBlank()) {
+                    return;
+                }
+                // A malformed line is skipped, the rest of the trace is still replayed
+                final TraceRow row;
+                final long timestampMs;
+                try {
+                    row = OpenAiLlmClient.GSON.fromJson(line, TraceRow.class);
+                    if (row == null || row.timestamp == null) {
+                        LOG.error("Failed to parse trace line: {}", line);
+                        return;
+                    }
+                    timestampMs = toEpochMs(row.timestamp);
+                } catch (JsonParseException | DateTimeParseException e) {
+                    LOG.error("Failed to parse trace line: {}", line, e);
+                    return;
+                }
+
+                final TokenizedCompletionPrompt prompt = row.prompt != null && !row.prompt.isEmpty()
+                        ? Benchmark.tokenize(tokenizer, row.prompt)
+                        : matcher.nearest(row.prompt_tokens);
+                entries.add(new TraceEntry(timestampMs, prompt, row.cancelled, row.cancel_after_ms));
+            });
+        }
+        entries.sort(Comparator.comparingLong(TraceEntry::timestampMs));
+        return entries;
+    }
+
+    private static long toEpochMs(@NotNull Object timestamp) {
+        if (timestamp instanceof Number number) {
+            final double value = number.doubleValue();
+            return value < EPOCH_SECONDS_LIMIT ? (long) (value * 1000) : (long) value;
+        }
+        return Instant.parse(timestamp.toString()).toEpochMilli();
+    }
+
+    public record TraceEntry(
+            long timestampMs,
+            @NotNull TokenizedCompletionPrompt prompt,
+            boolean cancelled,
+            @Nullable Long cancelAfterMs
+    ) {
+    }
+
+    public static class TraceRow {
+        @Nullable
+        public final Object timestamp;
+        public final int prompt_tokens;
+        public final boolean cancelled;
+        @Nullable
+        public final Long cancel_after_ms;
+        @Nullable
+        public final String prompt;
+
+        public TraceRow(
+                @Nullable Object timestamp,
+                int promptTokens,
+                boolean cancelled,
+                @Nullable Long cancelAfterMs,
+                @Nullable String prompt
+        ) {
+            this.timestamp = timestamp;
+            prompt_tokens = promptTokens;
+            this.cancelled = cancelled;
+            cancel_after_ms = cancelAfterMs;
+            this.prompt = prompt;
+        }
+
+        @Override
+        public String toString() {
+            return "TraceRow{" +
+                    "timestamp=" + timestamp +
+                    ", prompt_tokens=" + prompt_tokens +
+                    ", cancelled=" + cancelled +
+                    ", cancel_after_ms=" + cancel_after_ms +
+                    ", prompt='" + prompt + '\'' +
+                    '}';
+        }
+    }
+
+    // Dataset prompts sorted by token count, looked up by binary search.
+    // A random one of the prompts about as close as the nearest is picked: always sending the same prompt
+    // for a size would turn a replay into a prefix cache benchmark.
+    static class NearestSizeMatcher {
+        // Prompts within this share of the requested size count as candidates, besides the nearest ones
+        private static final double SIZE_TOLERANCE = 0.05;
+
+        @NotNull
+        private final List<TokenizedCompletionPrompt> sorted;
+
+        @NotNull
+        private final Random random;
+
+        NearestSizeMatcher(@NotNull List<TokenizedCompletionPrompt> prompts, long seed) {
+            if (prompts.isEmpty()) {
+                throw new IllegalArgumentException("Dataset is empty, nothing to match trace requests with");
+            }
+            sorted = new ArrayList<>(prompts);
+            sorted.sort(Comparator.comparingInt(prompt -> prompt.getValue().size()));
+            random = new Random(seed);
+        }
+
+        @NotNull
+        TokenizedCompletionPrompt nearest(int tokens) {
+            // low is the first prompt not shorter than tokens, the previous one may be closer
+            final int low = firstNotShorter(tokens);
+            int distance = Integer.MAX_VALUE;
+            if (low < sorted.size()) {
+                distance = size(low) - tokens;
+            }
+            if (low > 0) {
+                distance = Math.min(distance, tokens - size(low - 1));
+            }
+
+            final int tolerance = Math.max(distance, (int) (tokens * SIZE_TOLERANCE));
+            final int from = firstNotShorter(tokens - tolerance);
+            final int to = firstNotShorter(tokens + tolerance + 1);
+            return sorted.get(from + random.nextInt(to - from));
+        }
+
+        private int firstNotShorter(int tokens) {
+            int low = 0;
+            int high = sorted.size();
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (size(middle) < tokens) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int size(int index) {
+            return sorted.get(index).getValue().size();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.timofeev.benchmark;
+
+import com.timofeev.llm.ILlmInlineClient;
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Typing workload: every dataset row is a session of prompts that grow the cursor line by a keystroke,
+// so a server with prefix caching reuses the KV cache of everything before the cursor.
+// Workers take whole sessions: send a prompt, wait for its completion, wait a typing gap, send the next one.
+// Gaps are lognormal with mean gapMs, keystroke intervals are skewed towards short ones.
+// The first prompt of a session is cold and the follow-ups share the prefix, the report compares the two.
+public class TypingSessions {
+    private static final Logger LOG = LoggerFactory.getLogger(TypingSessions.class);
+
+    private static final double GAP_SIGMA = 0.5;
+    private static final long SEED = 0;
+
+    @NotNull
+    private final List<List<TokenizedCompletionPrompt>> sessions;
+
+    @NotNull
+    private final StripedRecorder<Metric> recorder = new StripedRecorder<>(Metric.class);
+
+    @NotNull
+    private final AtomicInteger failures = new AtomicInteger();
+
+    public TypingSessions(@NotNull List<List<TokenizedCompletionPrompt>> sessions) {
+        this.sessions = sessions;
+    }
+
+    @NotNull
+    public List<TokenizedCompletionPrompt> prompts() {
+        final List<TokenizedCompletionPrompt> prompts = new ArrayList<>();
+        for (List<TokenizedCompletionPrompt> session : sessions) {
+            prompts.addAll(session);
+        }
+        return prompts;
+    }
+
+    public void run(@NotNull Benchmark.BenchmarkParams params, @NotNull ILlmInlineClient llmClient) {
+        LOG.info(
+                "Typing {} sessions, {} prompts, mean gap {}ms",
+                sessions.size(),
+                sessions.stream().mapToInt(List::size).sum(),
+                params.typingGapMs
+        );
+        final AtomicInteger nextSession = new AtomicInteger(0);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(params.threads);
+        try (
+                final ExecutorService executor = params.executorMode.newExecutor(params.threads)
+        ) {
+            for (int worker = 0; worker < params.threads; worker++) {
+                final Random random = new Random(SEED + worker);
+                futures.add(CompletableFuture.runAsync(
+                        () -> {
+                            int index;
+                            while ((index = nextSession.getAndIncrement()) < sessions.size()) {
+                                type(params, llmClient, sessions.get(index), random);
+                                if (index % 10 == 9) {
+                                    LOG.info("Typed sessions {}/{}", index + 1, sessions.size());
+                                }
+                            }
+                        },
+                        executor
+                ));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        }
+    }
+
+    private void type(
+            @NotNull Benchmark.BenchmarkParams params,
+            @NotNull ILlmInlineClient llmClient,
+            @NotNull List<TokenizedCompletionPrompt> session,
+            @NotNull Random random
+    ) {
+        // Lognormal with the requested mean
+        final double mu = Math.log(params.typingGapMs) - GAP_SIGMA * GAP_SIGMA / 2;
+        long scheduledMs = System.currentTimeMillis();
+        for (int keystroke = 0; keystroke < session.size(); keystroke++) {
+            final long startMs = System.currentTimeMillis();
+            final String completion = llmClient.generate(session.get(keystroke), scheduledMs);
+            final long timeMs = System.currentTimeMillis() - startMs;
+            if (completion == null) {
+                failures.incrementAndGet();
+            } else {
+                recorder.record(keystroke == 0 ? Metric.FIRST : Metric.FOLLOW_UP, timeMs);
+            }
+
+            if (keystroke == session.size() - 1) {
+                break;
+            }
+            final long gapMs = params.typingGapMs == 0
+                    ? 0
+                    : Math.round(Math.exp(mu + GAP_SIGMA * random.nextGaussian()));
+            scheduledMs = System.currentTimeMillis() + gapMs;
+            try {
+                Thread.sleep(gapMs);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @NotNull
+    public String getReport() {
+        final EnumMap<Metric, LatencyHistogram> histograms = recorder.snapshot();
+        final LatencyStats first = LatencyStats.of(histograms.get(Metric.FIRST));
+        final LatencyStats followUp = LatencyStats.of(histograms.get(Metric.FOLLOW_UP));
+        final StringBuilder report = new StringBuilder();
+        report.append("typing sessions: ").append(sessions.size())
+                .append(", failures: ").append(failures.get()).append("\n");
+        report.append("firstInSessionMs: ").append(first).append("\n");
+        report.append("followUpMs: ").append(followUp).append("\n");
+        if (first.count() > 0 && followUp.count() > 0) {
+            report.append(String.format(
+                    "followUp/first: avg %.2f, p50 %.2f, p95 %.2f\n",
+                    followUp.avg() / first.avg(),
+                    (double) followUp.p50() / Math.max(1, first.p50()),
+                    (double) followUp.p95() / Math.max(1, first.p95())
+            ));
+        }
+        return report.toString();
+    }
+
+    private enum Metric {
+        FIRST,
+        FOLLOW_UP
+    }
+}
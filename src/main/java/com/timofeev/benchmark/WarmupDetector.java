@@ -0,0 +1,94 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+// Decides whether a completed request still belongs to the warmup phase: connection setup,
+// CUDA graph capture, empty KV cache. Warmup ends after warmupRequests samples and warmupSec
+// since the first request, then (optionally) once rolling median latency stops moving.
+// Once warmup ends it never restarts. Not thread-safe, LlmTimingHolder calls it under its lock.
+public class WarmupDetector {
+    private static final Logger LOG = LoggerFactory.getLogger(WarmupDetector.class);
+
+    // Steady state: median of the last window within 15% of the median of the window before it
+    private static final int STEADY_STATE_WINDOW = 30;
+    private static final double STEADY_STATE_TOLERANCE = 0.15;
+    // Give up waiting for a steady state after this many samples
+    private static final int STEADY_STATE_MAX_SAMPLES = 500;
+
+    private final int warmupRequests;
+    private final long warmupMs;
+    private final boolean steadyState;
+
+    private final long[] recentTimesMs = new long[STEADY_STATE_WINDOW * 2];
+    private int recentCount = 0;
+
+    private long firstScheduledMs = -1;
+    private int samples = 0;
+    private boolean measuring = false;
+
+    public WarmupDetector(int warmupRequests, int warmupSec, boolean steadyState) {
+        this.warmupRequests = warmupRequests;
+        this.warmupMs = warmupSec * 1000L;
+        this.steadyState = steadyState;
+        this.measuring = warmupRequests <= 0 && warmupSec <= 0 && !steadyState;
+    }
+
+    @Nullable
+    public static WarmupDetector of(@NotNull Benchmark.BenchmarkParams params) {
+        if (params.warmupRequests <= 0 && params.warmupSec <= 0 && !params.steadyState) {
+            return null;
+        }
+        return new WarmupDetector(params.warmupRequests, params.warmupSec, params.steadyState);
+    }
+
+    public boolean isWarmup(@NotNull LlmTimingHolder.TimingInfo timingInfo) {
+        if (measuring) {
+            return false;
+        }
+
+        samples++;
+        if (firstScheduledMs < 0 || timingInfo.scheduledMs() < firstScheduledMs) {
+            firstScheduledMs = timingInfo.scheduledMs();
+        }
+
+        if (samples <= warmupRequests || timingInfo.scheduledMs() < firstScheduledMs + warmupMs) {
+            return true;
+        }
+
+        if (steadyState && !isSteady(timingInfo.timeMs())) {
+            if (samples < STEADY_STATE_MAX_SAMPLES) {
+                return true;
+            }
+            LOG.warn("Latency didn't stabilize after {} samples, measuring anyway", samples);
+        }
+
+        LOG.info("Warmup finished after {} samples", samples - 1);
+        measuring = true;
+        return false;
+    }
+
+    private boolean isSteady(long timeMs) {
+        if (recentCount == recentTimesMs.length) {
+            System.arraycopy(recentTimesMs, 1, recentTimesMs, 0, recentTimesMs.length - 1);
+            recentCount--;
+        }
+        recentTimesMs[recentCount++] = timeMs;
+        if (recentCount < recentTimesMs.length) {
+            return false;
+        }
+
+        final long previous = median(Arrays.copyOfRange(recentTimesMs, 0, STEADY_STATE_WINDOW));
+        final long current = median(Arrays.copyOfRange(recentTimesMs, STEADY_STATE_WINDOW, recentTimesMs.length));
+        return previous > 0 && Math.abs(current - previous) <= previous * STEADY_STATE_TOLERANCE;
+    }
+
+    private static long median(long @NotNull [] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+}
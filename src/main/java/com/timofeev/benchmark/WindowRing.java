@@ -0,0 +1,266 @@
+package com.timofeev.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Per-window statistics of a long run, recorded from every request thread.
+// The latest windows are open in a small ring and recorded into with atomics, without a lock.
+// A window is closed when its slot is needed for a later one: writers still in it are waited for
+// and it is rolled into the closed windows, which is the only step that locks, once per window.
+// Closed windows are capped: past MAX_WINDOWS adjacent pairs are merged and the window length doubles.
+class WindowRing {
+    static final int MAX_WINDOWS = 256;
+    // Events are timed at completion, so they come almost in order; a late one goes to the closed windows
+    private static final int OPEN_WINDOWS = 4;
+
+    private final long windowMs;
+
+    @NotNull
+    private final AtomicLong firstEventMs = new AtomicLong(-1);
+
+    @NotNull
+    private final AtomicReferenceArray<OpenWindow> open = new AtomicReferenceArray<>(OPEN_WINDOWS);
+
+    // Guarded by this
+    @NotNull
+    private final ClosedWindows closed = new ClosedWindows();
+
+    WindowRing(long windowMs) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("windowMs should be positive: " + windowMs);
+        }
+        this.windowMs = windowMs;
+    }
+
+    void recordResponse(long atMs, long responseTimeMs, long busyMs) {
+        record(atMs, responseTimeMs, busyMs, 0, 0);
+    }
+
+    void recordFailure(long atMs) {
+        record(atMs, -1, 0, 1, 0);
+    }
+
+    void recordCancelled(long atMs) {
+        record(atMs, -1, 0, 0, 1);
+    }
+
+    // responseTimeMs is negative for events without a response
+    private void record(long atMs, long responseTimeMs, long busyMs, int failures, int cancelled) {
+        long first = firstEventMs.get();
+        if (first < 0) {
+            firstEventMs.compareAndSet(-1, atMs);
+            first = firstEventMs.get();
+        }
+        final long index = Math.max(0, atMs - first) / windowMs;
+        final OpenWindow window = open.get(slot(index));
+        if (window != null && window.index == index && window.enter()) {
+            try {
+                window.record(responseTimeMs, busyMs, failures, cancelled);
+            } finally {
+                window.exit();
+            }
+            return;
+        }
+        recordLocked(index, responseTimeMs, busyMs, failures, cancelled);
+    }
+
+    // A window that isn't open yet, or is already closed
+    private synchronized void recordLocked(long index, long responseTimeMs, long busyMs, int failures, int cancelled) {
+        final OpenWindow window = open.get(slot(index));
+        if (window == null || window.index < index) {
+            if (window != null) {
+                close(window);
+            }
+            final OpenWindow next = new OpenWindow(index);
+            next.record(responseTimeMs, busyMs, failures, cancelled);
+            open.set(slot(index), next);
+            return;
+        }
+        if (window.index == index) {
+            // Another thread opened it in the meantime
+            window.record(responseTimeMs, busyMs, failures, cancelled);
+            return;
+        }
+        final Window late = closed.at(index);
+        if (responseTimeMs >= 0) {
+            late.responseTime.record(responseTimeMs);
+        }
+        late.busyMs += busyMs;
+        late.failures += failures;
+        late.cancelled += cancelled;
+    }
+
+    // Called under the lock
+    private void close(@NotNull OpenWindow window) {
+        window.closed = true;
+        // Writers that got in before the flag was set finish their few increments
+        while (window.writers.get() != 0) {
+            Thread.onSpinWait();
+        }
+        closed.at(window.index).add(window);
+    }
+
+    private static int slot(long index) {
+        return (int) (index % OPEN_WINDOWS);
+    }
+
+    // Response time per window of completion time, shows drift over long runs.
+    // Open windows are read as they are, the run may still be recording into them.
+    synchronized void appendTo(@NotNull StringBuilder report) {
+        final ClosedWindows windows = closed.copy();
+        for (int i = 0; i < OPEN_WINDOWS; i++) {
+            final OpenWindow window = open.get(i);
+            if (window != null) {
+                windows.at(window.index).add(window);
+            }
+        }
+        if (windows.windows.isEmpty()) {
+            return;
+        }
+        final long lengthMs = windowMs << windows.scale;
+        report.append("\nwindows (").append(lengthMs / 1000).append("s):\n");
+        report.append("windowStartSec, requests, failures, cancelled, avgMs, p50Ms, p95Ms, p99Ms, maxMs, concurrency\n");
+        for (int i = 0; i < windows.windows.size(); i++) {
+            final Window window = windows.windows.get(i);
+            final LatencyStats stats = LatencyStats.of(window.responseTime);
+            report.append(String.format(
+                    "%d, %d, %d, %d, %.2f, %d, %d, %d, %d, %.2f\n",
+                    i * lengthMs / 1000,
+                    stats.count(),
+                    window.failures,
+                    window.cancelled,
+                    stats.avg(),
+                    stats.p50(),
+                    stats.p95(),
+                    stats.p99(),
+                    stats.max(),
+                    (double) window.busyMs / lengthMs
+            ));
+        }
+    }
+
+    // Windows of windowMs << scale, the one at i starts i of them after the first event
+    private static class ClosedWindows {
+        @NotNull
+        private final List<Window> windows = new ArrayList<>();
+        private int scale = 0;
+
+        // index is in windows of windowMs
+        @NotNull
+        private Window at(long index) {
+            while (index >> scale >= MAX_WINDOWS) {
+                mergePairs();
+            }
+            final int scaled = (int) (index >> scale);
+            while (windows.size() <= scaled) {
+                windows.add(new Window());
+            }
+            return windows.get(scaled);
+        }
+
+        // Halves the number of windows, each new one covers two old ones
+        private void mergePairs() {
+            final List<Window> merged = new ArrayList<>((windows.size() + 1) / 2);
+            for (int i = 0; i < windows.size(); i += 2) {
+                final Window window = windows.get(i);
+                if (i + 1 < windows.size()) {
+                    window.add(windows.get(i + 1));
+                }
+                merged.add(window);
+            }
+            windows.clear();
+            windows.addAll(merged);
+            scale++;
+        }
+
+        @NotNull
+        private ClosedWindows copy() {
+            final ClosedWindows copy = new ClosedWindows();
+            for (Window window : windows) {
+                final Window windowCopy = new Window();
+                windowCopy.add(window);
+                copy.windows.add(windowCopy);
+            }
+            copy.scale = scale;
+            return copy;
+        }
+    }
+
+    private static class Window {
+        @NotNull
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private int failures = 0;
+        private int cancelled = 0;
+        // Sum of request times completed in the window, divided by the window length gives concurrency
+        private long busyMs = 0;
+
+        private void add(@NotNull Window other) {
+            responseTime.add(other.responseTime);
+            failures += other.failures;
+            cancelled += other.cancelled;
+            busyMs += other.busyMs;
+        }
+
+        private void add(@NotNull OpenWindow other) {
+            responseTime.add(other.responseTime);
+            failures += other.failures.get();
+            cancelled += other.cancelled.get();
+            busyMs += other.busyMs.get();
+        }
+    }
+
+    // Writers count themselves in and check closed after that, close() sets closed and waits for the count
+    // to drop to zero: a writer either sees the flag and backs off, or is waited for.
+    private static class OpenWindow {
+        private final long index;
+        @NotNull
+        private final ConcurrentLatencyHistogram responseTime = new ConcurrentLatencyHistogram();
+        @NotNull
+        private final AtomicInteger failures = new AtomicInteger();
+        @NotNull
+        private final AtomicInteger cancelled = new AtomicInteger();
+        @NotNull
+        private final AtomicLong busyMs = new AtomicLong();
+
+        @NotNull
+        private final AtomicInteger writers = new AtomicInteger();
+        private volatile boolean closed = false;
+
+        private OpenWindow(long index) {
+            this.index = index;
+        }
+
+        private boolean enter() {
+            writers.incrementAndGet();
+            if (closed) {
+                writers.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        private void exit() {
+            writers.decrementAndGet();
+        }
+
+        private void record(long responseTimeMs, long busyMs, int failures, int cancelled) {
+            if (responseTimeMs >= 0) {
+                responseTime.record(responseTimeMs);
+            }
+            if (busyMs != 0) {
+                this.busyMs.addAndGet(busyMs);
+            }
+            if (failures != 0) {
+                this.failures.addAndGet(failures);
+            }
+            if (cancelled != 0) {
+                this.cancelled.addAndGet(cancelled);
+            }
+        }
+    }
+}
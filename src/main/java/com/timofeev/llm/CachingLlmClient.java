@@ -0,0 +1,314 @@
+package com.timofeev.llm;
+
+import com.timofeev.prompt.ICompletionPrompt;
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Serves repeated prompts from memory, as an IDE does when the cursor comes back to where it was.
+// Keyed on two independent 64-bit hashes of the token ids, so the ids themselves aren't retained.
+// Bounded by entries and bytes with LRU eviction, entries also expire ttlMs after they were stored.
+// A completion larger than the byte bound isn't cached at all.
+// Reads don't lock: a hit is a ConcurrentHashMap lookup plus a slot in a lossy read buffer.
+// The access order is updated from that buffer under the lock writers take anyway.
+// Failed and cancelled requests aren't cached, concurrent misses of one prompt all go to the server.
+// The delegate isn't closed by the cache, it's owned by whoever created it.
+public class CachingLlmClient implements ILlmInlineClient {
+    // Rough size of an entry apart from the text: key, entry, map nodes of both maps
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+    // Power of two, reads are dropped when writers don't drain it in time
+    private static final int READ_BUFFER_SIZE = 256;
+
+    @NotNull
+    private final ILlmInlineClient delegate;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMs;
+
+    @NotNull
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    // Least recently used first, guarded by lock
+    @NotNull
+    private final LinkedHashMap<Key, Entry> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+    @NotNull
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @NotNull
+    private final AtomicReferenceArray<Entry> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    @NotNull
+    private final AtomicLong readCount = new AtomicLong();
+
+    // Guarded by lock, volatile for the report
+    private volatile long bytes = 0;
+    private volatile long maxSeenBytes = 0;
+
+    @NotNull
+    private final LongAdder hits = new LongAdder();
+    @NotNull
+    private final LongAdder misses = new LongAdder();
+    @NotNull
+    private final LongAdder expired = new LongAdder();
+    @NotNull
+    private final LongAdder evicted = new LongAdder();
+    // Time the hits would have taken, measured when their entries were stored
+    @NotNull
+    private final LongAdder savedMs = new LongAdder();
+
+    public CachingLlmClient(@NotNull ILlmInlineClient delegate, int maxEntries, long maxBytes, long ttlMs) {
+        if (maxEntries <= 0 || maxBytes <= 0 || ttlMs <= 0) {
+            throw new IllegalArgumentException("Cache bounds should be positive: maxEntries=" + maxEntries
+                    + ", maxBytes=" + maxBytes
+                    + ", ttlMs=" + ttlMs);
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+    }
+
+    @Override
+    public @Nullable String generate(@NotNull ICompletionPrompt<?> prompt) {
+        return generate(prompt, System.currentTimeMillis(), NO_CANCEL);
+    }
+
+    @Override
+    public @Nullable String generate(@NotNull ICompletionPrompt<?> prompt, long scheduledMs) {
+        return generate(prompt, scheduledMs, NO_CANCEL);
+    }
+
+    @Override
+    public @Nullable String generate(@NotNull ICompletionPrompt<?> prompt, long scheduledMs, long cancelAfterMs) {
+        final Key key = Key.of(prompt);
+        if (key == null) {
+            return delegate.generate(prompt, scheduledMs, cancelAfterMs);
+        }
+        final String cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final long startMs = System.currentTimeMillis();
+        final String completion = delegate.generate(prompt, scheduledMs, cancelAfterMs);
+        put(key, completion, System.currentTimeMillis() - startMs);
+        return completion;
+    }
+
+    @Override
+    public @NotNull CompletableFuture<@Nullable String> generateAsync(
+            @NotNull ICompletionPrompt<?> prompt,
+            long scheduledMs,
+            long cancelAfterMs
+    ) {
+        final Key key = Key.of(prompt);
+        if (key == null) {
+            return delegate.generateAsync(prompt, scheduledMs, cancelAfterMs);
+        }
+        final String cached = get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final long startMs = System.currentTimeMillis();
+        final CompletableFuture<String> response = delegate.generateAsync(prompt, scheduledMs, cancelAfterMs);
+        final CompletableFuture<String> cachedResponse = response.thenApply(completion -> {
+            put(key, completion, System.currentTimeMillis() - startMs);
+            return completion;
+        });
+        // Cancelling the returned future has to reach the request itself
+        cachedResponse.whenComplete((completion, error) -> {
+            if (cachedResponse.isCancelled()) {
+                response.cancel(false);
+            }
+        });
+        return cachedResponse;
+    }
+
+    // Hits are answered from the cache, the misses go out as one smaller batch
+    @Override
+    public @NotNull List<@Nullable String> generateBatch(
+            @NotNull List<? extends ICompletionPrompt<?>> prompts,
+            long scheduledMs
+    ) {
+        final List<String> results = new ArrayList<>(prompts.size());
+        final List<ICompletionPrompt<?>> missed = new ArrayList<>();
+        final List<Integer> missedPositions = new ArrayList<>();
+        for (ICompletionPrompt<?> prompt : prompts) {
+            final Key key = Key.of(prompt);
+            final String cached = key == null ? null : get(key);
+            if (cached == null) {
+                missedPositions.add(results.size());
+                missed.add(prompt);
+            }
+            results.add(cached);
+        }
+        if (missed.isEmpty()) {
+            return results;
+        }
+
+        final long startMs = System.currentTimeMillis();
+        final List<String> completions = delegate.generateBatch(missed, scheduledMs);
+        final long timeMs = System.currentTimeMillis() - startMs;
+        for (int i = 0; i < missed.size(); i++) {
+            final Key key = Key.of(missed.get(i));
+            if (key != null) {
+                put(key, completions.get(i), timeMs);
+            }
+            results.set(missedPositions.get(i), completions.get(i));
+        }
+        return results;
+    }
+
+    @Override
+    public void prerender(@NotNull Collection<TokenizedCompletionPrompt> prompts) {
+        delegate.prerender(prompts);
+    }
+
+    @Nullable
+    private String get(@NotNull Key key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.storedMs >= ttlMs) {
+            // Removed when the completion is stored again or the entry reaches the LRU end
+            expired.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        savedMs.add(entry.timeMs);
+        recordRead(entry);
+        return entry.completion;
+    }
+
+    private void recordRead(@NotNull Entry entry) {
+        final long index = readCount.getAndIncrement();
+        readBuffer.lazySet((int) (index & (READ_BUFFER_SIZE - 1)), entry);
+        if ((index & (READ_BUFFER_SIZE - 1)) == READ_BUFFER_SIZE - 1 && lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void put(@NotNull Key key, @Nullable String completion, long timeMs) {
+        if (completion == null) {
+            return;
+        }
+        final Entry entry = new Entry(key, completion, System.currentTimeMillis(), timeMs);
+        // It would take the cache over its byte bound on its own
+        if (entry.bytes() > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            drainReads();
+            final Entry previous = accessOrder.put(key, entry);
+            entries.put(key, entry);
+            long size = bytes + entry.bytes();
+            if (previous != null) {
+                size -= previous.bytes();
+            }
+            // Expired entries are dropped when they reach the LRU end, even if the cache isn't full
+            final Iterator<Map.Entry<Key, Entry>> iterator = accessOrder.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Entry eldest = iterator.next().getValue();
+                final boolean full = accessOrder.size() > maxEntries || size > maxBytes;
+                if (eldest == entry || !full && entry.storedMs - eldest.storedMs < ttlMs) {
+                    break;
+                }
+                iterator.remove();
+                entries.remove(eldest.key, eldest);
+                size -= eldest.bytes();
+                evicted.increment();
+            }
+            bytes = size;
+            maxSeenBytes = Math.max(maxSeenBytes, size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Should be called under lock
+    private void drainReads() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            final Entry entry = readBuffer.getAndSet(i, null);
+            if (entry != null) {
+                // Moves the key to the most recently used end, no-op if it was evicted since the read
+                accessOrder.get(entry.key);
+            }
+        }
+    }
+
+    @NotNull
+    public String getReport() {
+        final long hitCount = hits.sum();
+        final long lookups = hitCount + misses.sum();
+        return String.format(
+                "cache: hits=%d, misses=%d, hitRate=%.1f%%, expired=%d, evicted=%d, savedMs=%d (%.1f per hit), "
+                        + "entries=%d, bytes=%d, maxBytes=%d, limits=%d entries, %d bytes, ttl %dms\n",
+                hitCount,
+                misses.sum(),
+                lookups == 0 ? 0 : hitCount * 100.0 / lookups,
+                expired.sum(),
+                evicted.sum(),
+                savedMs.sum(),
+                hitCount == 0 ? 0 : (double) savedMs.sum() / hitCount,
+                entries.size(),
+                bytes,
+                maxSeenBytes,
+                maxEntries,
+                maxBytes,
+                ttlMs
+        );
+    }
+
+    private record Key(long hash, long check) {
+        private static final long SEED = 0x9E3779B97F4A7C15L;
+
+        // null for prompts that aren't token ids, those bypass the cache
+        @Nullable
+        static Key of(@NotNull ICompletionPrompt<?> prompt) {
+            if (!(prompt instanceof TokenizedCompletionPrompt tokenized)) {
+                return null;
+            }
+            final long[] ids = tokenized.getIds();
+            long hash = ids.length;
+            long check = SEED ^ ids.length;
+            for (long id : ids) {
+                hash = mix(hash * 31 + id);
+                check = check * 0x100000001B3L ^ id;
+            }
+            return new Key(hash, mix(check));
+        }
+
+        // SplitMix64 finalizer
+        private static long mix(long value) {
+            value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+            value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+            return value ^ (value >>> 31);
+        }
+    }
+
+    private record Entry(@NotNull Key key, @NotNull String completion, long storedMs, long timeMs) {
+        long bytes() {
+            return ENTRY_OVERHEAD_BYTES + 2L * completion.length();
+        }
+    }
+}
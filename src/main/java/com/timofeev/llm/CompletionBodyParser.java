@@ -0,0 +1,121 @@
+package com.timofeev.llm;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Pulls text and finish_reason of the first choice and usage out of a completion response
+// while it is read, skipping everything else (other choices, logprobs) without building objects for it.
+// Works for whole bodies and for streamed chunks, which have the same shape.
+// Batched requests keep every choice with its index, as choices may come in any order.
+public class CompletionBodyParser {
+
+    @NotNull
+    public static ParsedCompletion parse(@NotNull Reader reader) throws IOException {
+        return parse(reader, false);
+    }
+
+    @NotNull
+    public static ParsedCompletion parse(@NotNull Reader reader, boolean allChoices) throws IOException {
+        final JsonReader json = new JsonReader(reader);
+        json.setStrictness(Strictness.LENIENT);
+
+        String text = null;
+        String finishReason = null;
+        int choices = 0;
+        int promptTokens = -1;
+        int completionTokens = -1;
+        final List<Choice> indexed = allChoices ? new ArrayList<>() : List.of();
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "choices" -> {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        if (choices++ > 0 && !allChoices) {
+                            json.skipValue();
+                            continue;
+                        }
+                        int choiceIndex = indexed.size();
+                        String choiceText = null;
+                        String choiceFinishReason = null;
+                        json.beginObject();
+                        while (json.hasNext()) {
+                            switch (json.nextName()) {
+                                case "index" -> choiceIndex = json.nextInt();
+                                case "text" -> choiceText = nextStringOrNull(json);
+                                case "finish_reason" -> choiceFinishReason = nextStringOrNull(json);
+                                default -> json.skipValue();
+                            }
+                        }
+                        json.endObject();
+                        if (choices == 1) {
+                            text = choiceText;
+                            finishReason = choiceFinishReason;
+                        }
+                        if (allChoices) {
+                            indexed.add(new Choice(choiceIndex, choiceText, choiceFinishReason));
+                        }
+                    }
+                    json.endArray();
+                }
+                case "usage" -> {
+                    if (json.peek() == JsonToken.NULL) {
+                        json.nextNull();
+                        continue;
+                    }
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        switch (json.nextName()) {
+                            case "prompt_tokens" -> promptTokens = json.nextInt();
+                            case "completion_tokens" -> completionTokens = json.nextInt();
+                            default -> json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                }
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+
+        return new ParsedCompletion(choices, text, finishReason, promptTokens, completionTokens, indexed);
+    }
+
+    @Nullable
+    private static String nextStringOrNull(@NotNull JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+
+    // Token counts are -1 when the server didn't send usage, they cover the whole batch.
+    // indexed is only filled when all choices were requested.
+    public record ParsedCompletion(
+            int choices,
+            @Nullable String text,
+            @Nullable String finishReason,
+            int promptTokens,
+            int completionTokens,
+            @NotNull List<Choice> indexed
+    ) {
+    }
+
+    // index is the position of the prompt in the batch, the position in the array if the server omits it
+    public record Choice(
+            int index,
+            @Nullable String text,
+            @Nullable String finishReason
+    ) {
+    }
+}
@@ -0,0 +1,59 @@
+package com.timofeev.llm;
+
+import com.timofeev.benchmark.LatencyHistogram;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+
+// When to send a second copy of a request that hasn't been answered yet: after the given percentile
+// of the answer times seen so far, so only the slowest requests get a copy.
+// Hedging starts after MIN_SAMPLES answers, before that the percentile means nothing.
+// Answer times are those of primary exchanges, a primary beaten by its copy counts with the time it ran,
+// so copies that win don't pull the threshold down.
+public class HedgingPolicy {
+
+    private static final int MIN_SAMPLES = 20;
+
+    private final double percentile;
+
+    // Where copies go, null means the endpoint of the request
+    @Nullable
+    private final URI hedgeUri;
+
+    @NotNull
+    private final LatencyHistogram answerTimes = new LatencyHistogram();
+
+    public HedgingPolicy(double percentile, @Nullable URI hedgeUri) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile should be in (0, 100): " + percentile);
+        }
+        this.percentile = percentile;
+        this.hedgeUri = hedgeUri;
+    }
+
+    // -1 while there aren't enough answers to hedge
+    synchronized long hedgeAfterMs() {
+        if (answerTimes.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+        return answerTimes.getValueAtQuantile(percentile / 100);
+    }
+
+    synchronized void recordAnswer(long timeMs) {
+        answerTimes.record(timeMs);
+    }
+
+    @Nullable
+    URI getHedgeUri() {
+        return hedgeUri;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return "HedgingPolicy{" +
+                "percentile=" + percentile +
+                ", hedgeUri=" + hedgeUri +
+                '}';
+    }
+}
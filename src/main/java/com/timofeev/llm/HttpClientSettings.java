@@ -0,0 +1,54 @@
+package com.timofeev.llm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+// How OpenAiLlmClient talks to the server.
+// By default one client is shared for the whole run, so connections (and TLS sessions) are reused
+// and handshakes don't end up in the measured request time.
+// newConnectionPerRequest restores a fresh client per request to measure that cost on purpose.
+public record HttpClientSettings(
+        @NotNull HttpClient.Version version,
+        boolean newConnectionPerRequest,
+        int connectionPoolSize,
+        int keepAliveSec
+) {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(60);
+
+    public static final HttpClientSettings DEFAULT = new HttpClientSettings(
+            HttpClient.Version.HTTP_1_1,
+            false,
+            0,
+            30
+    );
+
+    @NotNull
+    public HttpClient newClient() {
+        return HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    // The JDK client reads pool settings once, when the first client is created,
+    // so they apply to the whole process rather than to a single client.
+    public void applyPoolProperties() {
+        // 0 means unbounded
+        System.setProperty("jdk.httpclient.connectionPoolSize", String.valueOf(connectionPoolSize));
+        System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(keepAliveSec));
+        System.setProperty("jdk.httpclient.keepalive.timeout.h2", String.valueOf(keepAliveSec));
+    }
+
+    // Accepts 1.1, 2, HTTP_1_1 or HTTP_2
+    @NotNull
+    public static HttpClient.Version parseVersion(@NotNull String value) {
+        final String normalized = value.trim().toUpperCase();
+        return switch (normalized) {
+            case "1.1", "HTTP/1.1" -> HttpClient.Version.HTTP_1_1;
+            case "2", "HTTP/2" -> HttpClient.Version.HTTP_2;
+            default -> HttpClient.Version.valueOf(normalized);
+        };
+    }
+}
@@ -0,0 +1,54 @@
+package com.timofeev.llm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+
+// Non-200 response. retryAfterMs comes from the Retry-After header, -1 without one.
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMs;
+
+    public HttpStatusException(int statusCode, long retryAfterMs, @NotNull String body) {
+        super("Request failed with code: " + statusCode + "; body:" + body);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    // Retry-After is either a number of seconds or an HTTP date
+    static long retryAfterMs(@NotNull HttpHeaders headers) {
+        final Optional<String> value = headers.firstValue("Retry-After");
+        if (value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.get().trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // Not seconds, may be a date
+        }
+        try {
+            final long atMs = ZonedDateTime.parse(value.get().trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant()
+                    .toEpochMilli();
+            return Math.max(0, atMs - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
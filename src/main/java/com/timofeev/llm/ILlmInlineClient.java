@@ -1,11 +1,59 @@
 package com.timofeev.llm;
 
 import com.timofeev.prompt.ICompletionPrompt;
+import com.timofeev.prompt.TokenizedCompletionPrompt;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface ILlmInlineClient {
 
+    long NO_CANCEL = -1;
+
+    // Prepares whatever the client can before the measured phase, e.g. request bodies
+    default void prerender(@NotNull Collection<TokenizedCompletionPrompt> prompts) {
+    }
+
     @Nullable
     String generate(@NotNull ICompletionPrompt<?> prompt);
+
+    // scheduledMs is the time the request was supposed to be sent.
+    // Open-loop runs pass it so that queueing on the client side isn't hidden from the report.
+    @Nullable
+    default String generate(@NotNull ICompletionPrompt<?> prompt, long scheduledMs) {
+        return generate(prompt);
+    }
+
+    // cancelAfterMs aborts the request that long after it was sent, as an editor does when the user keeps typing.
+    // NO_CANCEL lets it complete.
+    @Nullable
+    default String generate(@NotNull ICompletionPrompt<?> prompt, long scheduledMs, long cancelAfterMs) {
+        return generate(prompt, scheduledMs);
+    }
+
+    // Returns as soon as the request is submitted, cancelling the future aborts the request.
+    // Clients without a non-blocking transport fall back to the blocking call on the caller's thread.
+    @NotNull
+    default CompletableFuture<@Nullable String> generateAsync(
+            @NotNull ICompletionPrompt<?> prompt,
+            long scheduledMs,
+            long cancelAfterMs
+    ) {
+        return CompletableFuture.completedFuture(generate(prompt, scheduledMs, cancelAfterMs));
+    }
+
+    // Several prompts in one request, results are in the order of the prompts.
+    // Clients that can't batch send them one by one.
+    @NotNull
+    default List<@Nullable String> generateBatch(@NotNull List<? extends ICompletionPrompt<?>> prompts, long scheduledMs) {
+        final List<String> results = new ArrayList<>(prompts.size());
+        for (ICompletionPrompt<?> prompt : prompts) {
+            results.add(generate(prompt, scheduledMs));
+        }
+        return results;
+    }
 }
@@ -14,17 +14,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
-public class OpenAiLlmClient implements ILlmInlineClient {
+public class OpenAiLlmClient implements ILlmInlineClient, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(OpenAiLlmClient.class);
 
     public static final Gson GSON = new GsonBuilder()
@@ -35,6 +52,14 @@ public class OpenAiLlmClient implements ILlmInlineClient {
 
     private static final int MAX_TOKENS = 100;
 
+    // With contextBandOnly only prompts filling the last CONTEXT_BAND_TOKENS of the context are sent
+    private static final int CONTEXT_BAND_TOKENS = 600;
+
+    private static final String SSE_DATA_PREFIX = "data:";
+    private static final String SSE_DONE = "[DONE]";
+
+    private static final String MOCKED_ANSWER = "// MOCKED ANSWER";
+
     @NotNull
     private static final List<String> STOP_TOKENS = List.of(
          "\n"
@@ -46,110 +71,983 @@ public class OpenAiLlmClient implements ILlmInlineClient {
     @NotNull
     private final OpenAiLlmClient.IHttpClientCall clientCall;
 
+    @NotNull
+    private final HttpClientSettings httpClientSettings;
+
+    // null when every request gets its own client
+    @Nullable
+    private final HttpClient sharedHttpClient;
+
+    @NotNull
+    private final RetryPolicy retryPolicy;
+
+    // null means no hedging
+    @Nullable
+    private final HedgingPolicy hedgingPolicy;
+
     @NotNull
     private final LlmTimingHolder timingHolder;
 
+    @NotNull
+    private final RequestBodyEncoder bodyEncoder;
+
+    // Bodies rendered before the run by prerender(), keyed by prompt identity
+    @NotNull
+    private final Map<TokenizedCompletionPrompt, byte[]> renderedBodies = new ConcurrentHashMap<>();
+
+
+    public OpenAiLlmClient(
+            @NotNull OpenAiLlmClientInfo llmClientInfo,
+            @NotNull IHttpClientCall clientCall,
+            @NotNull LlmTimingHolder timingHolder
+
+    ) {
+        this(llmClientInfo, clientCall, HttpClientSettings.DEFAULT, timingHolder);
+    }
 
     public OpenAiLlmClient(
             @NotNull OpenAiLlmClientInfo llmClientInfo,
             @NotNull IHttpClientCall clientCall,
+            @NotNull HttpClientSettings httpClientSettings,
             @NotNull LlmTimingHolder timingHolder
+    ) {
+        this(llmClientInfo, clientCall, httpClientSettings, RetryPolicy.NONE, null, timingHolder);
+    }
 
+    public OpenAiLlmClient(
+            @NotNull OpenAiLlmClientInfo llmClientInfo,
+            @NotNull IHttpClientCall clientCall,
+            @NotNull HttpClientSettings httpClientSettings,
+            @NotNull RetryPolicy retryPolicy,
+            @Nullable HedgingPolicy hedgingPolicy,
+            @NotNull LlmTimingHolder timingHolder
     ) {
         this.llmClientInfo = llmClientInfo;
         this.clientCall = clientCall;
+        this.httpClientSettings = httpClientSettings;
+        this.retryPolicy = retryPolicy;
+        this.hedgingPolicy = hedgingPolicy;
+        this.sharedHttpClient = httpClientSettings.newConnectionPerRequest() ? null : httpClientSettings.newClient();
         this.timingHolder = timingHolder;
+        this.bodyEncoder = new RequestBodyEncoder(newRequest(llmClientInfo, new TokenizedCompletionPrompt(new long[0], "")));
+    }
+
+    // Renders request bodies up front, so JSON encoding stays off the timed path.
+    // Prompts that aren't in the map are still encoded from their primitive ids when sent.
+    @Override
+    public void prerender(@NotNull Collection<TokenizedCompletionPrompt> prompts) {
+        if (!llmClientInfo.preRenderBodies) {
+            return;
+        }
+        final long startNs = System.nanoTime();
+        long bytes = 0;
+        for (TokenizedCompletionPrompt prompt : prompts) {
+            if (fitsContext(prompt) && !renderedBodies.containsKey(prompt)) {
+                final byte[] body = bodyEncoder.encode(prompt.getIds());
+                renderedBodies.put(prompt, body);
+                bytes += body.length;
+            }
+        }
+        LOG.info(
+                "Pre-rendered {} request bodies, {} KB in {}ms",
+                renderedBodies.size(),
+                bytes / 1024,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs)
+        );
     }
 
     @Override
     public @Nullable String generate(@NotNull ICompletionPrompt<?> prompt) {
+        return generate(prompt, System.currentTimeMillis());
+    }
+
+    @Override
+    public @Nullable String generate(@NotNull ICompletionPrompt<?> prompt, long scheduledMs) {
+        return generate(prompt, scheduledMs, NO_CANCEL);
+    }
+
+    @Override
+    public @Nullable String generate(@NotNull ICompletionPrompt<?> prompt, long scheduledMs, long cancelAfterMs) {
         if (!isValid(prompt)) {
             return null;
         }
 
+        // Retries and hedges need several exchanges in flight, they run on the async transport
+        if (isResilient()) {
+            try {
+                return generateAsync(prompt, scheduledMs, cancelAfterMs).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("generateAsync doesn't complete exceptionally", e);
+            }
+        }
+
         final TokenizedCompletionPrompt tokenizedCompletionPrompt = (TokenizedCompletionPrompt) prompt;
 
-        try (
-                final HttpClient httpClient = HttpClient.newBuilder()
-                        .version(HttpClient.Version.HTTP_1_1)
-                        .connectTimeout(Duration.ofSeconds(60))
-                        .build()
-        ) {
-            final OpenAiLlmClientInlineRequest request = OpenAiLlmClientInlineRequest.builder()
-                    .withModel(llmClientInfo.modelName)
-                    .withMaxTokens(MAX_TOKENS)
-                    .withStop(STOP_TOKENS)
-                    .withPrompt(tokenizedCompletionPrompt.getValue())
-                    .build();
-            final String jsonRequest = GSON.toJson(request);
-            final HttpRequest.Builder httpRequestBuilder = HttpRequest.newBuilder()
-                    .uri(URI.create(llmClientInfo.modelUrl))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonRequest));
-
-            if (llmClientInfo.apiKey != null) {
-                httpRequestBuilder.header("Authorization", "Bearer " + llmClientInfo.apiKey);
-            }
-
-            final HttpRequest httpRequest = httpRequestBuilder.build();
-
-            final long startMs = System.currentTimeMillis();
-            final HttpResponse<String> httpResponse = clientCall.call(
+        final HttpClient httpClient = sharedHttpClient != null ? sharedHttpClient : httpClientSettings.newClient();
+        final OpenAiLlmClientInlineRequest request = newRequest(tokenizedCompletionPrompt);
+        final byte[] body = body(tokenizedCompletionPrompt, request);
+        final RequestPhases phases = new RequestPhases();
+        final HttpRequest httpRequest = newHttpRequest(body, phases);
+
+        timingHolder.requestStarted();
+        final long startMs = System.currentTimeMillis();
+        final long startNs = System.nanoTime();
+        final RequestCancellation cancellation = cancelAfterMs != NO_CANCEL
+                ? RequestCancellation.schedule(cancelAfterMs)
+                : null;
+        try {
+            final Completion completion;
+            try {
+                completion = llmClientInfo.stream
+                        ? callStreaming(httpClient, httpRequest, request, startNs, phases)
+                        : call(httpClient, httpRequest, request, phases);
+            } catch (IOException | InterruptedException e) {
+                if (cancellation != null && cancellation.finish()) {
+                    timingHolder.addCancelled(startMs, cancelAfterMs);
+                    return null;
+                }
+                throw e;
+            }
+
+            // The response may have arrived just as the cancellation fired, the user has moved on anyway
+            if (cancellation != null && cancellation.finish()) {
+                timingHolder.addCancelled(startMs, cancelAfterMs);
+                return null;
+            }
+
+            return record(completion, request, tokenizedCompletionPrompt, scheduledMs, startMs, startNs, 1);
+        } catch (IOException | InterruptedException e) {
+            LOG.error("Generation failed", e);
+            recordFailure(tokenizedCompletionPrompt, scheduledMs, startMs, startNs, 1);
+        } finally {
+            // Unchecked failures too: an armed cancel would interrupt whatever this thread runs next
+            if (cancellation != null) {
+                cancellation.finish();
+            }
+            timingHolder.requestFinished();
+            if (httpClient != sharedHttpClient) {
+                httpClient.close();
+            }
+        }
+        return null;
+    }
+
+    // Non-blocking variant: the calling thread only submits the request, the response is timed
+    // when it completes, on the HTTP client's side. The future never completes exceptionally,
+    // failures and cancellations are recorded and give null. Cancelling it aborts the request.
+    // Retries and hedges are exchanges of the same request: it is timed from the first one to the answer.
+    @Override
+    public @NotNull CompletableFuture<@Nullable String> generateAsync(
+            @NotNull ICompletionPrompt<?> prompt,
+            long scheduledMs,
+            long cancelAfterMs
+    ) {
+        if (!isValid(prompt)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final TokenizedCompletionPrompt tokenizedCompletionPrompt = (TokenizedCompletionPrompt) prompt;
+        final HttpClient httpClient = sharedHttpClient != null ? sharedHttpClient : httpClientSettings.newClient();
+        final OpenAiLlmClientInlineRequest request = newRequest(tokenizedCompletionPrompt);
+        final byte[] body = body(tokenizedCompletionPrompt, request);
+
+        final ResilientCall<Completion> call = new ResilientCall<>(
+                hedge -> send(httpClient, request, body, hedge),
+                retryPolicy,
+                hedgingPolicy
+        );
+        timingHolder.requestStarted();
+        final long startMs = System.currentTimeMillis();
+        final long startNs = System.nanoTime();
+        final CompletableFuture<ResilientCall.Answer<Completion>> answer = call.start();
+
+        if (cancelAfterMs != NO_CANCEL) {
+            CompletableFuture.delayedExecutor(cancelAfterMs, TimeUnit.MILLISECONDS)
+                    .execute(call::cancel);
+        }
+
+        final CompletableFuture<@Nullable String> recorded = answer.handle((result, error) -> {
+            timingHolder.requestFinished();
+            if (httpClient != sharedHttpClient) {
+                // close() would wait for this very callback
+                httpClient.shutdown();
+            }
+            // Without retries and hedging every request is one exchange, there is nothing to report
+            if (isResilient()) {
+                timingHolder.addAttempts(call.attempts(), call.retries(), call.hedges(), result != null && result.hedge());
+            }
+            if (answer.isCancelled()) {
+                timingHolder.addCancelled(startMs, cancelAfterMs);
+                return null;
+            }
+            if (error != null) {
+                LOG.error("Generation failed", error);
+                recordFailure(tokenizedCompletionPrompt, scheduledMs, startMs, startNs, call.attempts());
+                return null;
+            }
+            // Streamed times are relative to the exchange that answered
+            final Completion completion = result.value() == null
+                    ? null
+                    : result.value().sentLater(result.startNs() - startNs);
+            return record(completion, request, tokenizedCompletionPrompt, scheduledMs, startMs, startNs, call.attempts());
+        });
+        // Cancelling the returned future aborts the exchanges too, the cancellation is recorded as above
+        recorded.whenComplete((result, error) -> {
+            if (recorded.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return recorded;
+    }
+
+    // One exchange on the async transport, cancelling the transport future aborts it.
+    // Non-200 responses fail the answer with HttpStatusException, so the retry policy can look at them.
+    @NotNull
+    private ResilientCall.Exchange<Completion> send(
+            @NotNull HttpClient httpClient,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            byte @NotNull [] body,
+            boolean hedge
+    ) {
+        final URI uri = hedge && hedgingPolicy != null && hedgingPolicy.getHedgeUri() != null
+                ? hedgingPolicy.getHedgeUri()
+                : URI.create(llmClientInfo.modelUrl);
+        final RequestPhases phases = new RequestPhases();
+        final HttpRequest httpRequest = newHttpRequest(uri, body, phases);
+
+        final long startNs = System.nanoTime();
+        if (llmClientInfo.stream) {
+            final StreamedCompletion streamed = new StreamedCompletion(startNs, llmClientInfo.streamingParser, 1);
+            final CompletableFuture<HttpResponse<Void>> response = clientCall.callStreamingAsync(
                     httpClient,
                     httpRequest,
-                    request
+                    request,
+                    streamed,
+                    phases
             );
-            final long endMs = System.currentTimeMillis();
+            return new ResilientCall.Exchange<>(startNs, response, response.thenApply(httpResponse -> {
+                if (httpResponse != null && httpResponse.statusCode() != 200) {
+                    throw new CompletionException(new HttpStatusException(
+                            httpResponse.statusCode(),
+                            HttpStatusException.retryAfterMs(httpResponse.headers()),
+                            streamed.unparsed.toString()
+                    ));
+                }
+                phases.parsed();
+                return streamed.finish().withPhases(phases);
+            }));
+        }
 
-            final String responseText;
-            if (httpResponse == null) {
-                responseText = "// MOCKED ANSWER";
-            } else {
-                final String body = httpResponse.body();
-                int statusCode = httpResponse.statusCode();
-                if (statusCode != 200) {
-                    LOG.error("Request failed with code: {}; body:{}", statusCode, body);
-                    return null;
+        final CompletableFuture<HttpResponse<String>> response = clientCall.callAsync(
+                httpClient,
+                httpRequest,
+                request,
+                phases
+        );
+        return new ResilientCall.Exchange<>(startNs, response, response.thenApply(httpResponse -> {
+            try {
+                final WholeResponse whole = parseResponse(httpResponse, request, false, System.nanoTime());
+                phases.parsed();
+                final Completion completion = whole == null ? null : toCompletion(whole.parsed, whole.endNs);
+                return completion == null ? null : completion.withPhases(phases);
+            } catch (HttpStatusException e) {
+                throw new CompletionException(e);
+            }
+        }));
+    }
+
+    // Sends the prompts in one request, as the prompt array of the completions API.
+    // Every prompt gets its own timing row and the whole request is recorded as a batch.
+    // Prompts that don't fit the context are left out and get null.
+    @Override
+    public @NotNull List<@Nullable String> generateBatch(
+            @NotNull List<? extends ICompletionPrompt<?>> prompts,
+            long scheduledMs
+    ) {
+        final List<String> results = Arrays.asList(new String[prompts.size()]);
+        final List<TokenizedCompletionPrompt> batch = new ArrayList<>(prompts.size());
+        final int[] positions = new int[prompts.size()];
+        for (int i = 0; i < prompts.size(); i++) {
+            if (isValid(prompts.get(i))) {
+                positions[batch.size()] = i;
+                batch.add((TokenizedCompletionPrompt) prompts.get(i));
+            }
+        }
+        if (batch.isEmpty()) {
+            return results;
+        }
+
+        final HttpClient httpClient = sharedHttpClient != null ? sharedHttpClient : httpClientSettings.newClient();
+        final OpenAiLlmClientInlineRequest request = newBatchRequest(batch);
+        final byte[] body = batchBody(batch, request);
+        final RequestPhases phases = new RequestPhases();
+        final HttpRequest httpRequest = newHttpRequest(body, phases);
+
+        timingHolder.requestStarted();
+        final long startMs = System.currentTimeMillis();
+        final long startNs = System.nanoTime();
+        try {
+            final List<Completion> completions = llmClientInfo.stream
+                    ? callStreamingBatch(httpClient, httpRequest, request, startNs, batch.size(), phases)
+                    : callBatch(httpClient, httpRequest, request, batch.size(), phases);
+            if (completions == null) {
+                for (TokenizedCompletionPrompt prompt : batch) {
+                    recordFailure(prompt, scheduledMs, startMs, startNs, 1);
+                }
+                return results;
+            }
+
+            long endNs = startNs;
+            for (Completion completion : completions) {
+                if (completion != null && completion.endNs - endNs > 0) {
+                    endNs = completion.endNs;
                 }
+            }
+            timingHolder.addBatch(batch.size(), TimeUnit.NANOSECONDS.toMillis(endNs - startNs));
+            for (int i = 0; i < batch.size(); i++) {
+                results.set(
+                        positions[i],
+                        record(completions.get(i), request, batch.get(i), scheduledMs, startMs, startNs, 1)
+                );
+            }
+        } catch (IOException | InterruptedException e) {
+            LOG.error("Batch generation failed", e);
+            for (TokenizedCompletionPrompt prompt : batch) {
+                recordFailure(prompt, scheduledMs, startMs, startNs, 1);
+            }
+        } finally {
+            timingHolder.requestFinished();
+            if (httpClient != sharedHttpClient) {
+                httpClient.close();
+            }
+        }
+        return results;
+    }
+
+    @NotNull
+    OpenAiLlmClientInlineRequest newBatchRequest(@NotNull List<TokenizedCompletionPrompt> batch) {
+        return OpenAiLlmClientInlineRequest.builder()
+                .withModel(llmClientInfo.modelName)
+                .withMaxTokens(MAX_TOKENS)
+                .withStop(STOP_TOKENS)
+                .withPrompt(batch.stream().map(TokenizedCompletionPrompt::getValue).toList())
+                .withStream(llmClientInfo.stream)
+                .build();
+    }
+
+    // Batches are formed during the run, so their bodies are encoded when sent
+    private byte @NotNull [] batchBody(
+            @NotNull List<TokenizedCompletionPrompt> batch,
+            @NotNull OpenAiLlmClientInlineRequest request
+    ) {
+        if (!llmClientInfo.preRenderBodies) {
+            return GSON.toJson(request).getBytes(StandardCharsets.UTF_8);
+        }
+        return bodyEncoder.encodeBatch(batch.stream().map(TokenizedCompletionPrompt::getIds).toList());
+    }
+
+    @NotNull
+    OpenAiLlmClientInlineRequest newRequest(@NotNull TokenizedCompletionPrompt tokenizedCompletionPrompt) {
+        return newRequest(llmClientInfo, tokenizedCompletionPrompt);
+    }
+
+    // Static, so the constructor can build the body encoder's template without calling an overridable method
+    @NotNull
+    private static OpenAiLlmClientInlineRequest newRequest(
+            @NotNull OpenAiLlmClientInfo llmClientInfo,
+            @NotNull TokenizedCompletionPrompt tokenizedCompletionPrompt
+    ) {
+        return OpenAiLlmClientInlineRequest.builder()
+                .withModel(llmClientInfo.modelName)
+                .withMaxTokens(MAX_TOKENS)
+                .withStop(STOP_TOKENS)
+                .withPrompt(tokenizedCompletionPrompt.getValue())
+                .withStream(llmClientInfo.stream)
+                .build();
+    }
+
+    // Without preRenderBodies the request is serialized by GSON on the sending thread, as it used to be
+    byte @NotNull [] body(
+            @NotNull TokenizedCompletionPrompt tokenizedCompletionPrompt,
+            @NotNull OpenAiLlmClientInlineRequest request
+    ) {
+        if (!llmClientInfo.preRenderBodies) {
+            return GSON.toJson(request).getBytes(StandardCharsets.UTF_8);
+        }
+        final byte[] body = renderedBodies.get(tokenizedCompletionPrompt);
+        return body != null ? body : bodyEncoder.encode(tokenizedCompletionPrompt.getIds());
+    }
+
+    @NotNull
+    RequestBodyEncoder getBodyEncoder() {
+        return bodyEncoder;
+    }
+
+    @NotNull
+    private HttpRequest newHttpRequest(byte @NotNull [] body, @NotNull RequestPhases phases) {
+        return newHttpRequest(URI.create(llmClientInfo.modelUrl), body, phases);
+    }
+
+    @NotNull
+    private HttpRequest newHttpRequest(@NotNull URI uri, byte @NotNull [] body, @NotNull RequestPhases phases) {
+        final HttpRequest.Builder httpRequestBuilder = HttpRequest.newBuilder()
+                .uri(uri)
+                .header("Content-Type", "application/json")
+                .POST(phases.publisher(body));
+
+        if (llmClientInfo.apiKey != null) {
+            httpRequestBuilder.header("Authorization", "Bearer " + llmClientInfo.apiKey);
+        }
+
+        return httpRequestBuilder.build();
+    }
+
+    // Adds the completion to the timing holder, null completion is a failure.
+    // startMs is the wall-clock send time written to the report, durations are measured from startNs.
+    // attempts counts the exchanges sent for the request, retries and hedges included.
+    @Nullable
+    private String record(
+            @Nullable Completion completion,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            @NotNull TokenizedCompletionPrompt tokenizedCompletionPrompt,
+            long scheduledMs,
+            long startMs,
+            long startNs,
+            int attempts
+    ) {
+        if (completion == null) {
+            recordFailure(tokenizedCompletionPrompt, scheduledMs, startMs, startNs, attempts);
+            return null;
+        }
+
+        final long timeMs = TimeUnit.NANOSECONDS.toMillis(completion.endNs - startNs);
+        final String responseText = completion.text;
+        timingHolder.addTimingInfo(
+                new LlmTimingHolder.TimingInfo(
+                        timeMs,
+                        tokenizedCompletionPrompt.getValue().size(),
+                        responseText.length(),
+                        scheduledMs,
+                        startMs,
+                        completion.ttftMs,
+                        completion.tokens,
+                        completion.maxTokenGapMs(),
+                        attempts,
+                        completion.phases
+                ),
+                completion.tokenGapsMs
+        );
+
+        LOG.debug("Time: {}, Response: {}; Request(size={}): {}",
+                timeMs,
+                responseText,
+                request.prompt instanceof Collection ? ((Collection<?>) request.prompt).size() : null,
+                request.prompt
+        );
 
-                final OpenAiLlmClientInlineResponse response = GSON.fromJson(
-                        body,
-                        OpenAiLlmClientInlineResponse.class
+        return responseText;
+    }
+
+    // Failed requests get a row as well, timed until the client gave up on them
+    private void recordFailure(
+            @NotNull TokenizedCompletionPrompt tokenizedCompletionPrompt,
+            long scheduledMs,
+            long startMs,
+            long startNs,
+            int attempts
+    ) {
+        timingHolder.addFailure(
+                new LlmTimingHolder.TimingInfo(
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs),
+                        tokenizedCompletionPrompt.getValue().size(),
+                        0,
+                        scheduledMs,
+                        startMs,
+                        -1,
+                        -1,
+                        -1,
+                        attempts,
+                        LlmTimingHolder.Phases.NONE
+                )
+        );
+    }
+
+    @Nullable
+    private Completion call(
+            @NotNull HttpClient httpClient,
+            @NotNull HttpRequest httpRequest,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            @NotNull RequestPhases phases
+    ) throws IOException, InterruptedException {
+        final WholeResponse response = callWhole(httpClient, httpRequest, request, false, phases);
+        final Completion completion = response == null ? null : toCompletion(response.parsed, response.endNs);
+        return completion == null ? null : completion.withPhases(phases);
+    }
+
+    // Non-streamed response of a batch, choices are matched to the prompts by index
+    @Nullable
+    private List<@Nullable Completion> callBatch(
+            @NotNull HttpClient httpClient,
+            @NotNull HttpRequest httpRequest,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            int prompts,
+            @NotNull RequestPhases phases
+    ) throws IOException, InterruptedException {
+        final WholeResponse response = callWhole(httpClient, httpRequest, request, true, phases);
+        if (response == null) {
+            return null;
+        }
+
+        final List<Completion> completions = Arrays.asList(new Completion[prompts]);
+        for (CompletionBodyParser.Choice choice : response.parsed.indexed()) {
+            if (choice.index() < 0 || choice.index() >= prompts || choice.text() == null) {
+                LOG.error("Unexpected choice for a batch of {}: {}", prompts, choice);
+                continue;
+            }
+            completions.set(choice.index(), Completion.whole(choice.text(), response.endNs, -1).withPhases(phases));
+        }
+        LOG.debug("Batch of {}, usage: {}/{}", prompts, response.parsed.promptTokens(), response.parsed.completionTokens());
+        return completions;
+    }
+
+    // Returns null on failure, marks the response parsed
+    @Nullable
+    private WholeResponse callWhole(
+            @NotNull HttpClient httpClient,
+            @NotNull HttpRequest httpRequest,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            boolean allChoices,
+            @NotNull RequestPhases phases
+    ) throws IOException, InterruptedException {
+        if (llmClientInfo.streamingParser) {
+            final WholeResponse response = callParsingBody(httpClient, httpRequest, request, allChoices, phases);
+            phases.parsed();
+            return response;
+        }
+
+        final HttpResponse<String> httpResponse = clientCall.call(
+                httpClient,
+                httpRequest,
+                request,
+                phases
+        );
+        final WholeResponse response = parseResponse(httpResponse, request, allChoices, System.nanoTime());
+        phases.parsed();
+        return response;
+    }
+
+    // The body is parsed from the byte stream while it is received, it's never materialized as a String
+    @Nullable
+    private WholeResponse callParsingBody(
+            @NotNull HttpClient httpClient,
+            @NotNull HttpRequest httpRequest,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            boolean allChoices,
+            @NotNull RequestPhases phases
+    ) throws IOException, InterruptedException {
+        final HttpResponse<InputStream> httpResponse = clientCall.callInputStream(
+                httpClient,
+                httpRequest,
+                request,
+                phases
+        );
+        if (httpResponse == null) {
+            return new WholeResponse(mockedResponse(request), System.nanoTime());
+        }
+
+        try (final InputStream body = httpResponse.body()) {
+            if (httpResponse.statusCode() != 200) {
+                throw new HttpStatusException(
+                        httpResponse.statusCode(),
+                        HttpStatusException.retryAfterMs(httpResponse.headers()),
+                        new String(body.readAllBytes(), StandardCharsets.UTF_8)
                 );
+            }
 
-                if (response == null) {
-                    LOG.error("Failed to parse response: {}", body);
-                    return null;
+            final CompletionBodyParser.ParsedCompletion response;
+            try {
+                response = CompletionBodyParser.parse(new InputStreamReader(body, StandardCharsets.UTF_8), allChoices);
+            } catch (IllegalStateException | NumberFormatException e) {
+                LOG.error("Failed to parse response", e);
+                return null;
+            }
+            // The parser stops at the end of the JSON, closing the body may cancel it before its end is seen
+            phases.lastByte();
+            return new WholeResponse(response, System.nanoTime());
+        }
+    }
+
+    // endNs is when the body was received, before it's parsed
+    @Nullable
+    private WholeResponse parseResponse(
+            @Nullable HttpResponse<String> httpResponse,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            boolean allChoices,
+            long endNs
+    ) throws HttpStatusException {
+        if (httpResponse == null) {
+            return new WholeResponse(mockedResponse(request), endNs);
+        }
+
+        final String body = httpResponse.body();
+        int statusCode = httpResponse.statusCode();
+        if (statusCode != 200) {
+            throw new HttpStatusException(statusCode, HttpStatusException.retryAfterMs(httpResponse.headers()), body);
+        }
+
+        final CompletionBodyParser.ParsedCompletion response = parse(body, llmClientInfo.streamingParser, allChoices);
+        if (response == null) {
+            LOG.error("Failed to parse response: {}", body);
+            return null;
+        }
+        return new WholeResponse(response, endNs);
+    }
+
+    // A mocked call answers every prompt of the request with the same text
+    @NotNull
+    private static CompletionBodyParser.ParsedCompletion mockedResponse(@NotNull OpenAiLlmClientInlineRequest request) {
+        final int prompts = promptCount(request);
+        return new CompletionBodyParser.ParsedCompletion(
+                prompts,
+                MOCKED_ANSWER,
+                null,
+                -1,
+                -1,
+                IntStream.range(0, prompts)
+                        .mapToObj(index -> new CompletionBodyParser.Choice(index, MOCKED_ANSWER, null))
+                        .toList()
+        );
+    }
+
+    // 1 unless the prompt is an array of token arrays
+    private static int promptCount(@NotNull OpenAiLlmClientInlineRequest request) {
+        if (request.prompt instanceof List<?> prompt && !prompt.isEmpty() && prompt.getFirst() instanceof Collection<?>) {
+            return prompt.size();
+        }
+        return 1;
+    }
+
+    @Nullable
+    private static Completion toCompletion(@NotNull CompletionBodyParser.ParsedCompletion response, long endNs) {
+        if (response.choices() == 0 || response.text() == null) {
+           LOG.error("Choices are empty!");
+           return null;
+        }
+
+        LOG.debug("Finish reason: {}, usage: {}/{}", response.finishReason(), response.promptTokens(), response.completionTokens());
+        return Completion.whole(response.text(), endNs, response.completionTokens());
+    }
+
+    @Nullable
+    static CompletionBodyParser.ParsedCompletion parse(@NotNull String body, boolean streamingParser) {
+        return parse(body, streamingParser, false);
+    }
+
+    // streamingParser picks CompletionBodyParser, otherwise the whole response is mapped by GSON
+    @Nullable
+    static CompletionBodyParser.ParsedCompletion parse(@NotNull String body, boolean streamingParser, boolean allChoices) {
+        try {
+            if (streamingParser) {
+                return CompletionBodyParser.parse(new StringReader(body), allChoices);
+            }
+            final OpenAiLlmClientInlineResponse response = GSON.fromJson(
+                    body,
+                    OpenAiLlmClientInlineResponse.class
+            );
+            if (response == null || response.choices == null) {
+                return null;
+            }
+            final OpenAiLlmClientInlineResponse.Usage usage = response.usage;
+            final List<OpenAiLlmClientInlineResponse.Choice> choices = response.choices;
+            return new CompletionBodyParser.ParsedCompletion(
+                    choices.size(),
+                    choices.isEmpty() ? null : choices.getFirst().text(),
+                    choices.isEmpty() ? null : choices.getFirst().finish_reason(),
+                    usage == null ? -1 : usage.prompt_tokens(),
+                    usage == null ? -1 : usage.completion_tokens(),
+                    !allChoices ? List.of() : IntStream.range(0, choices.size())
+                            .mapToObj(i -> new CompletionBodyParser.Choice(
+                                    choices.get(i).index() != null ? choices.get(i).index() : i,
+                                    choices.get(i).text(),
+                                    choices.get(i).finish_reason()
+                            ))
+                            .toList()
+            );
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // endNs is System.nanoTime
+    private record WholeResponse(@NotNull CompletionBodyParser.ParsedCompletion parsed, long endNs) {
+    }
+
+    @Nullable
+    private Completion callStreaming(
+            @NotNull HttpClient httpClient,
+            @NotNull HttpRequest httpRequest,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            long startNs,
+            @NotNull RequestPhases phases
+    ) throws IOException, InterruptedException {
+        final StreamedCompletion streamed = new StreamedCompletion(startNs, llmClientInfo.streamingParser, 1);
+        stream(httpClient, httpRequest, request, streamed, phases);
+        phases.parsed();
+        return streamed.finish().withPhases(phases);
+    }
+
+    // Chunks of a batch carry the index of their prompt, every prompt is timed on its own
+    @Nullable
+    private List<@Nullable Completion> callStreamingBatch(
+            @NotNull HttpClient httpClient,
+            @NotNull HttpRequest httpRequest,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            long startNs,
+            int prompts,
+            @NotNull RequestPhases phases
+    ) throws IOException, InterruptedException {
+        final StreamedCompletion streamed = new StreamedCompletion(startNs, llmClientInfo.streamingParser, prompts);
+        stream(httpClient, httpRequest, request, streamed, phases);
+        phases.parsed();
+        return streamed.finishAll().stream()
+                .map(completion -> completion == null ? null : completion.withPhases(phases))
+                .toList();
+    }
+
+    // Non-200 responses throw HttpStatusException
+    private void stream(
+            @NotNull HttpClient httpClient,
+            @NotNull HttpRequest httpRequest,
+            @NotNull OpenAiLlmClientInlineRequest request,
+            @NotNull StreamedCompletion streamed,
+            @NotNull RequestPhases phases
+    ) throws IOException, InterruptedException {
+        final StreamingResponse response = clientCall.callStreaming(
+                httpClient,
+                httpRequest,
+                request,
+                phases
+        );
+
+        if (response.statusCode() != 200) {
+            try (final Stream<String> lines = response.lines()) {
+                throw new HttpStatusException(response.statusCode(), response.retryAfterMs(), String.join("\n", lines.toList()));
+            }
+        }
+
+        try (final Stream<String> lines = response.lines()) {
+            final Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext() && streamed.onLine(iterator.next())) {
+                // Lines are consumed by onLine
+            }
+            // Reading stops at [DONE], closing the lines may cancel the body before its end is seen
+            phases.lastByte();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Reads server-sent events as they arrive and timestamps every non-empty text chunk with System.nanoTime.
+    // Servers send one chunk per generated token, so chunks are counted as tokens.
+    // Also a line subscriber for async requests, where lines arrive on the HTTP client's threads.
+    private static class StreamedCompletion implements Flow.Subscriber<String> {
+        // Enough of a non-200 body to log it
+        private static final int UNPARSED_LIMIT = 1000;
+
+        private final long startNs;
+        private final boolean streamingParser;
+        // One per prompt of the request, chunks of a batch interleave
+        @NotNull
+        private final StreamedChoice[] choices;
+        @NotNull
+        private final StringBuilder unparsed = new StringBuilder();
+        private boolean done = false;
+
+        private StreamedCompletion(long startNs, boolean streamingParser, int prompts) {
+            this.startNs = startNs;
+            this.streamingParser = streamingParser;
+            this.choices = new StreamedChoice[prompts];
+            for (int i = 0; i < prompts; i++) {
+                choices[i] = new StreamedChoice();
+            }
+        }
+
+        // Returns false once the stream is over
+        private synchronized boolean onLine(@NotNull String line) {
+            if (done) {
+                return false;
+            }
+            // Blank event separators, comments and event names carry no text
+            if (!line.startsWith(SSE_DATA_PREFIX)) {
+                if (unparsed.length() < UNPARSED_LIMIT) {
+                    unparsed.append(line).append('\n');
                 }
+                return true;
+            }
+            final String data = line.substring(SSE_DATA_PREFIX.length()).trim();
+            if (SSE_DONE.equals(data)) {
+                done = true;
+                return false;
+            }
 
-                if (response.choices.isEmpty()) {
-                   LOG.error("Choices are empty!");
-                   return null;
+            final boolean batch = choices.length > 1;
+            final CompletionBodyParser.ParsedCompletion chunk = parse(data, streamingParser, batch);
+            if (chunk == null) {
+                return true;
+            }
+            final long nowNs = System.nanoTime();
+            if (!batch) {
+                choices[0].onChunk(chunk.text(), chunk.finishReason(), nowNs);
+                return true;
+            }
+            for (CompletionBodyParser.Choice choice : chunk.indexed()) {
+                if (choice.index() >= 0 && choice.index() < choices.length) {
+                    choices[choice.index()].onChunk(choice.text(), choice.finishReason(), nowNs);
                 }
+            }
+            return true;
+        }
+
+        @NotNull
+        private synchronized Completion finish() {
+            done = true;
+            return choices[0].toCompletion(startNs, System.nanoTime());
+        }
 
-                responseText = response.choices.getFirst().text();
+        // A prompt of a batch ends when its finish_reason arrives, not when the whole stream does
+        @NotNull
+        private synchronized List<@Nullable Completion> finishAll() {
+            done = true;
+            final long endNs = System.nanoTime();
+            final List<Completion> completions = new ArrayList<>(choices.length);
+            for (StreamedChoice choice : choices) {
+                completions.add(choice.toCompletion(startNs, choice.finished ? choice.finishedNs : endNs));
             }
+            return completions;
+        }
 
-            timingHolder.addTimingInfo(
-                    new LlmTimingHolder.TimingInfo(
-                            endMs - startMs,
-                            tokenizedCompletionPrompt.getValue().size(),
-                            responseText.length()
-                    )
-            );
+        @Override
+        public void onSubscribe(@NotNull Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(@NotNull String line) {
+            onLine(line);
+        }
+
+        @Override
+        public void onError(@NotNull Throwable throwable) {
+            // Reported by the response future
+        }
 
-            LOG.debug("Time: {}, Response: {}; Request(size={}): {}",
-                    endMs - startMs,
-                    responseText,
-                    request.prompt instanceof Collection ? ((Collection<?>) request.prompt).size() : null,
-                    request.prompt
+        @Override
+        public void onComplete() {
+            // finish() is called by the response future
+        }
+    }
+
+    // Text and token times of one prompt of a stream, guarded by its StreamedCompletion.
+    // Times are System.nanoTime, which can be negative: tokens and finished tell whether they are set.
+    private static class StreamedChoice {
+        @NotNull
+        private final StringBuilder text = new StringBuilder();
+        private long @NotNull [] tokenGapsMs = new long[MAX_TOKENS];
+        private int tokens = 0;
+        private long firstTokenNs;
+        private long lastTokenNs;
+        private boolean finished = false;
+        private long finishedNs;
+
+        private void onChunk(@Nullable String chunkText, @Nullable String finishReason, long nowNs) {
+            if (finishReason != null && !finished) {
+                finished = true;
+                finishedNs = nowNs;
+            }
+            if (chunkText == null || chunkText.isEmpty()) {
+                return;
+            }
+
+            if (tokens == 0) {
+                firstTokenNs = nowNs;
+            } else {
+                if (tokens > tokenGapsMs.length) {
+                    tokenGapsMs = Arrays.copyOf(tokenGapsMs, tokenGapsMs.length * 2);
+                }
+                tokenGapsMs[tokens - 1] = TimeUnit.NANOSECONDS.toMillis(nowNs - lastTokenNs);
+            }
+            lastTokenNs = nowNs;
+            tokens++;
+            text.append(chunkText);
+        }
+
+        // Stopped before producing any text, e.g. on the stop token: the first token is the end of the stream
+        @NotNull
+        private Completion toCompletion(long startNs, long endNs) {
+            return new Completion(
+                    text.toString(),
+                    endNs,
+                    TimeUnit.NANOSECONDS.toMillis((tokens == 0 ? endNs : firstTokenNs) - startNs),
+                    tokens,
+                    Arrays.copyOf(tokenGapsMs, Math.max(0, tokens - 1)),
+                    LlmTimingHolder.Phases.NONE
             );
+        }
+    }
 
-            return responseText;
-        } catch (IOException | InterruptedException e) {
-            LOG.error("Generation failed", e);
+    // endNs is System.nanoTime when the completion was received.
+    // ttftMs is -1 when the response wasn't streamed, tokens then come from usage if the server sent it.
+    // phases are of the exchange that produced the completion.
+    private record Completion(
+            @NotNull String text,
+            long endNs,
+            long ttftMs,
+            int tokens,
+            long @NotNull [] tokenGapsMs,
+            @NotNull LlmTimingHolder.Phases phases
+    ) {
+        @NotNull
+        static Completion whole(@NotNull String text, long endNs, int tokens) {
+            return new Completion(text, endNs, -1, tokens, new long[0], LlmTimingHolder.Phases.NONE);
+        }
+
+        @NotNull
+        Completion withPhases(@NotNull RequestPhases phases) {
+            return new Completion(text, endNs, ttftMs, tokens, tokenGapsMs, phases.toPhases());
+        }
+
+        // The same completion timed from a request sent delayNs earlier
+        @NotNull
+        Completion sentLater(long delayNs) {
+            if (delayNs == 0 || ttftMs < 0) {
+                return this;
+            }
+            final long ttftMs = this.ttftMs + TimeUnit.NANOSECONDS.toMillis(delayNs);
+            return new Completion(text, endNs, ttftMs, tokens, tokenGapsMs, phases);
+        }
+
+        long maxTokenGapMs() {
+            long max = ttftMs < 0 ? -1 : 0;
+            for (long gapMs : tokenGapsMs) {
+                max = Math.max(max, gapMs);
+            }
+            return max;
+        }
+    }
+
+    // Waits for in-flight requests on the shared client and releases its connections
+    @Override
+    public void close() {
+        if (sharedHttpClient != null) {
+            sharedHttpClient.close();
         }
-        return null;
+    }
+
+    private boolean isResilient() {
+        return retryPolicy.maxRetries() > 0 || hedgingPolicy != null;
     }
 
     private boolean isValid(@NotNull ICompletionPrompt<?> prompt) {
@@ -157,8 +1055,7 @@ public class OpenAiLlmClient implements ILlmInlineClient {
             throw new IllegalArgumentException("prompt should implement TokenizedCompletionPrompt");
         }
 
-        if (tokenizedCompletionPrompt.getValue().size() + MAX_TOKENS >= llmClientInfo.contextSize
-        || tokenizedCompletionPrompt.getValue().size() + MAX_TOKENS <= llmClientInfo.contextSize - 600) {
+        if (!fitsContext(tokenizedCompletionPrompt)) {
             LOG.warn(
                     "Prompt will be ignored: Context overflow(modelSize:{}, promptSize:{}, maxTokens:{})",
                     llmClientInfo.contextSize,
@@ -171,15 +1068,64 @@ public class OpenAiLlmClient implements ILlmInlineClient {
         return true;
     }
 
+    boolean fitsContext(@NotNull TokenizedCompletionPrompt tokenizedCompletionPrompt) {
+        return tokenizedCompletionPrompt.getValue().size() + MAX_TOKENS < llmClientInfo.contextSize
+                && !(llmClientInfo.contextBandOnly
+                && tokenizedCompletionPrompt.getValue().size() + MAX_TOKENS <= llmClientInfo.contextSize - CONTEXT_BAND_TOKENS);
+    }
+
     // Dumb interface for mocking http calls.
     // Dumb parameters to exclude any other calculations time.
+    // phases: the request body marks connected and sent, implementations mark firstByte and lastByte.
     public interface IHttpClientCall {
         @Nullable
         HttpResponse<String> call(
                 @NotNull HttpClient client,
                 @NotNull HttpRequest httpRequest,
-                @NotNull OpenAiLlmClientInlineRequest request
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        ) throws IOException, InterruptedException;
+
+        // The body is handed over as soon as the headers arrive and is read while it's received
+        @Nullable
+        HttpResponse<InputStream> callInputStream(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        ) throws IOException, InterruptedException;
+
+        // Body lines are read lazily, so the caller sees every event when it arrives
+        @NotNull
+        StreamingResponse callStreaming(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
         ) throws IOException, InterruptedException;
+
+        // Async variants must return the future of the exchange itself, cancelling it aborts the request
+        @NotNull
+        CompletableFuture<@Nullable HttpResponse<String>> callAsync(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        );
+
+        // Body lines are pushed to lines as they arrive, the future completes after the last one
+        @NotNull
+        CompletableFuture<@Nullable HttpResponse<Void>> callStreamingAsync(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull Flow.Subscriber<String> lines,
+                @NotNull RequestPhases phases
+        );
+    }
+
+    // retryAfterMs is -1 without a Retry-After header
+    public record StreamingResponse(int statusCode, long retryAfterMs, @NotNull Stream<String> lines) {
     }
 
     public static class RealHttpClientCall implements IHttpClientCall {
@@ -188,39 +1134,227 @@ public class OpenAiLlmClient implements ILlmInlineClient {
         public @NotNull HttpResponse<String> call(
                 @NotNull HttpClient client,
                 @NotNull HttpRequest httpRequest,
-                @NotNull OpenAiLlmClientInlineRequest request
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
         ) throws IOException, InterruptedException {
             return client.send(
                     httpRequest,
-                    HttpResponse.BodyHandlers.ofString()
+                    phases.handler(HttpResponse.BodyHandlers.ofString())
+            );
+        }
+
+        @Override
+        public @NotNull HttpResponse<InputStream> callInputStream(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        ) throws IOException, InterruptedException {
+            return client.send(
+                    httpRequest,
+                    phases.handler(HttpResponse.BodyHandlers.ofInputStream())
+            );
+        }
+
+        @Override
+        public @NotNull StreamingResponse callStreaming(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        ) throws IOException, InterruptedException {
+            final HttpResponse<Stream<String>> response = client.send(
+                    httpRequest,
+                    phases.handler(HttpResponse.BodyHandlers.ofLines())
+            );
+            return new StreamingResponse(
+                    response.statusCode(),
+                    HttpStatusException.retryAfterMs(response.headers()),
+                    response.body()
+            );
+        }
+
+        @Override
+        public @NotNull CompletableFuture<@Nullable HttpResponse<String>> callAsync(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        ) {
+            return client.sendAsync(
+                    httpRequest,
+                    phases.handler(HttpResponse.BodyHandlers.ofString())
+            );
+        }
+
+        @Override
+        public @NotNull CompletableFuture<@Nullable HttpResponse<Void>> callStreamingAsync(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull Flow.Subscriber<String> lines,
+                @NotNull RequestPhases phases
+        ) {
+            return client.sendAsync(
+                    httpRequest,
+                    phases.handler(HttpResponse.BodyHandlers.fromLineSubscriber(lines))
             );
         }
     }
 
     public static class MockedHttpClientCall implements IHttpClientCall {
         private static final long MODEL_ANSWER_TIME_MS = 300;
+        private static final long MODEL_TOKEN_TIME_MS = 15;
+        private static final int MOCKED_TOKENS = 10;
+        // Mocked events are cheap, they run on the timer thread instead of a pool
+        private static final Executor DIRECT = Runnable::run;
+        private static final String MOCKED_TOKEN_EVENT = SSE_DATA_PREFIX + " {\"choices\":[{\"text\":\"// MOCKED\"}]}";
+        private static final String MOCKED_BATCH_TOKEN_EVENT = SSE_DATA_PREFIX + " {\"choices\":[{\"index\":%d,\"text\":\"// MOCKED\"}]}";
         private static final Random RANDOM = new Random();
 
         @Override
         public @Nullable HttpResponse<String> call(
                 @NotNull HttpClient client,
                 @NotNull HttpRequest httpRequest,
-                @NotNull OpenAiLlmClientInlineRequest request
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
         ) throws InterruptedException {
-            // 100 tokens prompt => +10ms
-            // 2000 tokens prompt => +200ms
-            // + random (0ms - 50ms)
-            final int additionalTimeMs;
+            sent(phases);
+            Thread.sleep(MODEL_ANSWER_TIME_MS + additionalTimeMs(request));
+            received(phases);
+            return null;
+        }
+
+        @Override
+        public @Nullable HttpResponse<InputStream> callInputStream(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        ) throws InterruptedException {
+            sent(phases);
+            Thread.sleep(MODEL_ANSWER_TIME_MS + additionalTimeMs(request));
+            received(phases);
+            return null;
+        }
+
+        // The mocked request is sent at once, the response arrives in one piece
+        private static void sent(@NotNull RequestPhases phases) {
+            phases.connected();
+            phases.sent();
+        }
+
+        private static void received(@NotNull RequestPhases phases) {
+            phases.firstByte();
+            phases.lastByte();
+        }
+
+        // 100 tokens prompt => +10ms
+        // 2000 tokens prompt => +200ms
+        // + random (0ms - 50ms)
+        private static int additionalTimeMs(@NotNull OpenAiLlmClientInlineRequest request) {
             if (request.prompt instanceof Collection<?>) {
-                additionalTimeMs = ((Collection<?>)request.prompt).size() / 10 + RANDOM.nextInt(50);
+                // A batch costs the prompt part of all of its prompts, the rest is shared
+                return ((Collection<?>)request.prompt).stream()
+                        .mapToInt(prompt -> prompt instanceof Collection<?> batched ? batched.size() : 1)
+                        .sum() / 10 + RANDOM.nextInt(50);
             } else if (request.prompt instanceof String){
-                additionalTimeMs = ((String)request.prompt).length() / 10 / 4 + RANDOM.nextInt(50);
-            } else {
-                additionalTimeMs = RANDOM.nextInt(50);
+                return ((String)request.prompt).length() / 10 / 4 + RANDOM.nextInt(50);
             }
+            return RANDOM.nextInt(50);
+        }
 
-            Thread.sleep(MODEL_ANSWER_TIME_MS + additionalTimeMs);
-            return null;
+        private static long prefillTimeMs(@NotNull OpenAiLlmClientInlineRequest request) {
+            return MODEL_ANSWER_TIME_MS - MOCKED_TOKENS * MODEL_TOKEN_TIME_MS + additionalTimeMs(request);
+        }
+
+        // Every prompt of a batch gets its own event per token
+        @NotNull
+        private static List<String> tokenEvents(@NotNull OpenAiLlmClientInlineRequest request) {
+            final int prompts = promptCount(request);
+            if (prompts == 1) {
+                return List.of(MOCKED_TOKEN_EVENT);
+            }
+            return IntStream.range(0, prompts)
+                    .mapToObj(index -> MOCKED_BATCH_TOKEN_EVENT.formatted(index))
+                    .toList();
+        }
+
+        // Same total time as call(): the prompt part before the first token, then one event per token
+        @Override
+        public @NotNull StreamingResponse callStreaming(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        ) throws InterruptedException {
+            sent(phases);
+            Thread.sleep(prefillTimeMs(request));
+            phases.firstByte();
+
+            final List<String> tokenEvents = tokenEvents(request);
+            final Stream<String> lines = IntStream.rangeClosed(1, MOCKED_TOKENS + 1).boxed().flatMap(token -> {
+                if (token > MOCKED_TOKENS) {
+                    phases.lastByte();
+                    return Stream.of(SSE_DATA_PREFIX + " " + SSE_DONE);
+                }
+                try {
+                    Thread.sleep(MODEL_TOKEN_TIME_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException());
+                }
+                return tokenEvents.stream();
+            });
+            return new StreamingResponse(200, -1, lines);
+        }
+
+        // Timers instead of sleeping threads, so the mock doesn't limit async concurrency. null means 200.
+        @Override
+        public @NotNull CompletableFuture<@Nullable HttpResponse<String>> callAsync(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull RequestPhases phases
+        ) {
+            sent(phases);
+            return CompletableFuture.supplyAsync(
+                    () -> {
+                        received(phases);
+                        return null;
+                    },
+                    CompletableFuture.delayedExecutor(MODEL_ANSWER_TIME_MS + additionalTimeMs(request), TimeUnit.MILLISECONDS, DIRECT)
+            );
+        }
+
+        @Override
+        public @NotNull CompletableFuture<@Nullable HttpResponse<Void>> callStreamingAsync(
+                @NotNull HttpClient client,
+                @NotNull HttpRequest httpRequest,
+                @NotNull OpenAiLlmClientInlineRequest request,
+                @NotNull Flow.Subscriber<String> lines,
+                @NotNull RequestPhases phases
+        ) {
+            final List<String> tokenEvents = tokenEvents(request);
+            sent(phases);
+            CompletableFuture<Void> events = CompletableFuture.runAsync(
+                    phases::firstByte,
+                    CompletableFuture.delayedExecutor(prefillTimeMs(request), TimeUnit.MILLISECONDS, DIRECT)
+            );
+            for (int token = 0; token < MOCKED_TOKENS; token++) {
+                events = events.thenRunAsync(
+                        () -> tokenEvents.forEach(lines::onNext),
+                        CompletableFuture.delayedExecutor(MODEL_TOKEN_TIME_MS, TimeUnit.MILLISECONDS, DIRECT)
+                );
+            }
+            final CompletableFuture<@Nullable HttpResponse<Void>> response = new CompletableFuture<>();
+            events.whenComplete((ignored, error) -> {
+                phases.lastByte();
+                lines.onNext(SSE_DATA_PREFIX + " " + SSE_DONE);
+                lines.onComplete();
+                response.complete(null);
+            });
+            return response;
         }
     }
 
@@ -228,7 +1362,11 @@ public class OpenAiLlmClient implements ILlmInlineClient {
             @NotNull String modelName,
             @NotNull String modelUrl,
             int contextSize,
-            @Nullable String apiKey
+            @Nullable String apiKey,
+            boolean contextBandOnly,
+            boolean stream,
+            boolean preRenderBodies,
+            boolean streamingParser
     ) {
         @Override
         public @NotNull String toString() {
@@ -237,25 +1375,35 @@ public class OpenAiLlmClient implements ILlmInlineClient {
                     ", modelUrl='" + modelUrl + '\'' +
                     ", contextSize=" + contextSize +
                     ", apiKey='" + apiKey + '\'' +
+                    ", contextBandOnly=" + contextBandOnly +
+                    ", stream=" + stream +
+                    ", preRenderBodies=" + preRenderBodies +
+                    ", streamingParser=" + streamingParser +
                     '}';
         }
     }
 
-    public record OpenAiLlmClientInlineResponse(@NotNull List<Choice> choices) {
+    public record OpenAiLlmClientInlineResponse(@NotNull List<Choice> choices, @Nullable Usage usage) {
 
-        public record Choice(@NotNull String text) {
+        public record Choice(@Nullable Integer index, @NotNull String text, @Nullable String finish_reason) {
             @Override
             public @NotNull String toString() {
                 return "Choice{" +
-                        "text='" + text + '\'' +
+                        "index=" + index +
+                        ", text='" + text + '\'' +
+                        ", finish_reason='" + finish_reason + '\'' +
                         '}';
             }
         }
 
+        public record Usage(int prompt_tokens, int completion_tokens) {
+        }
+
         @Override
         public @NotNull String toString() {
             return "OpenAiLlmClientInlineResponse{" +
                     "choices=" + choices +
+                    ", usage=" + usage +
                     '}';
         }
     }
@@ -0,0 +1,112 @@
+package com.timofeev.llm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Writes completion request bodies straight to JSON bytes.
+// Everything but the prompt is the same for every request of a client, so it is rendered once
+// and only the token ids are written per request, from the primitive array without boxing.
+// The output is byte-for-byte what GSON produces for OpenAiLlmClientInlineRequest, field order included.
+public class RequestBodyEncoder {
+
+    private final byte @NotNull [] prefix;
+    private final byte @NotNull [] suffix;
+
+    public RequestBodyEncoder(@NotNull OpenAiLlmClient.OpenAiLlmClientInlineRequest template) {
+        prefix = ("{\"model\":" + OpenAiLlmClient.GSON.toJson(template.model) + ",\"prompt\":")
+                .getBytes(StandardCharsets.UTF_8);
+        suffix = (",\"stream\":" + template.stream
+                + ",\"stop\":" + OpenAiLlmClient.GSON.toJson(template.stop)
+                + ",\"max_tokens\":" + template.max_tokens
+                + ",\"n\":" + template.n
+                + ",\"temperature\":" + template.temperature
+                + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    public byte @NotNull [] encode(long @NotNull [] ids) {
+        // Exact size first, so the body is a single allocation
+        final byte[] body = new byte[prefix.length + size(ids) + suffix.length];
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+        final int position = write(ids, body, prefix.length);
+        System.arraycopy(suffix, 0, body, position, suffix.length);
+        return body;
+    }
+
+    // Several prompts in one request: the prompt is an array of token id arrays
+    public byte @NotNull [] encodeBatch(@NotNull List<long[]> batch) {
+        int size = prefix.length + 2 + Math.max(0, batch.size() - 1) + suffix.length;
+        for (long[] ids : batch) {
+            size += size(ids);
+        }
+
+        final byte[] body = new byte[size];
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+        int position = prefix.length;
+        body[position++] = '[';
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                body[position++] = ',';
+            }
+            position = write(batch.get(i), body, position);
+        }
+        body[position++] = ']';
+        System.arraycopy(suffix, 0, body, position, suffix.length);
+        return body;
+    }
+
+    // Size of the ids written as a JSON array
+    private static int size(long @NotNull [] ids) {
+        int size = 2 + Math.max(0, ids.length - 1);
+        for (long id : ids) {
+            size += digits(id);
+        }
+        return size;
+    }
+
+    // Returns the position after the written array
+    private static int write(long @NotNull [] ids, byte @NotNull [] body, int position) {
+        body[position++] = '[';
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                body[position++] = ',';
+            }
+            position = write(ids[i], body, position);
+        }
+        body[position++] = ']';
+        return position;
+    }
+
+    private static int digits(long value) {
+        if (value < 0) {
+            return value == Long.MIN_VALUE ? 20 : 1 + digits(-value);
+        }
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    // Returns the position after the written number
+    private static int write(long value, byte @NotNull [] body, int position) {
+        if (value == Long.MIN_VALUE) {
+            final byte[] text = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(text, 0, body, position, text.length);
+            return position + text.length;
+        }
+        if (value < 0) {
+            body[position++] = '-';
+            value = -value;
+        }
+        final int end = position + digits(value);
+        int index = end;
+        do {
+            body[--index] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        return end;
+    }
+}
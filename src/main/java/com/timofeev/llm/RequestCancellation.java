@@ -0,0 +1,65 @@
+package com.timofeev.llm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Aborts a blocking HTTP exchange the way an editor drops a stale completion:
+// interrupting the thread waiting in HttpClient.send cancels the underlying exchange.
+// Both sides synchronize on the instance, so the interrupt never leaks past finish().
+class RequestCancellation {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "request-canceller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @NotNull
+    private final Thread thread;
+
+    @NotNull
+    private final ScheduledFuture<?> task;
+
+    private boolean done = false;
+    private boolean cancelled = false;
+    private boolean finished = false;
+
+    private RequestCancellation(long afterMs) {
+        this.thread = Thread.currentThread();
+        this.task = SCHEDULER.schedule(this::cancel, afterMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Interrupts the current thread after afterMs unless finish() is called first
+    @NotNull
+    static RequestCancellation schedule(long afterMs) {
+        return new RequestCancellation(afterMs);
+    }
+
+    private synchronized void cancel() {
+        if (!done) {
+            cancelled = true;
+            done = true;
+            thread.interrupt();
+        }
+    }
+
+    // Must be called by the requesting thread once the exchange is over, however it ended.
+    // Returns true if the request was cancelled, the interrupt caused by it is cleared.
+    // Repeated calls return the same and leave the interrupt status alone.
+    synchronized boolean finish() {
+        if (finished) {
+            return cancelled;
+        }
+        finished = true;
+        task.cancel(false);
+        if (cancelled) {
+            Thread.interrupted();
+            return true;
+        }
+        done = true;
+        return false;
+    }
+}
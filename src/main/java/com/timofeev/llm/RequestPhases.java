@@ -0,0 +1,151 @@
+package com.timofeev.llm;
+
+import com.timofeev.benchmark.LlmTimingHolder;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+// Monotonic timestamps of one exchange, so the phases of a slow request can be told apart.
+// The JDK client has no connection events, the phases are seen through the request body and the response handler:
+// connected - the client subscribed to the body, so it has a connection and has written the headers
+// sent - the last body byte was handed to the connection
+// firstByte - response headers arrived; non-streamed servers send them with the whole completion
+// lastByte - the body was fully received
+// parsed - the completion was extracted from the body
+// Marks are set from whichever thread sees the event, only the first one counts.
+public class RequestPhases {
+    private final long startNs = System.nanoTime();
+
+    private volatile long connectedNs = -1;
+    private volatile long sentNs = -1;
+    private volatile long firstByteNs = -1;
+    private volatile long lastByteNs = -1;
+    private volatile long parsedNs = -1;
+
+    public void connected() {
+        if (connectedNs < 0) {
+            connectedNs = System.nanoTime();
+        }
+    }
+
+    public void sent() {
+        if (sentNs < 0) {
+            sentNs = System.nanoTime();
+        }
+    }
+
+    public void firstByte() {
+        if (firstByteNs < 0) {
+            firstByteNs = System.nanoTime();
+        }
+    }
+
+    public void lastByte() {
+        if (lastByteNs < 0) {
+            lastByteNs = System.nanoTime();
+        }
+    }
+
+    public void parsed() {
+        if (parsedNs < 0) {
+            parsedNs = System.nanoTime();
+        }
+    }
+
+    // Microseconds since the exchange started, -1 for phases that weren't seen
+    @NotNull
+    public LlmTimingHolder.Phases toPhases() {
+        return new LlmTimingHolder.Phases(
+                sinceStartUs(connectedNs),
+                sinceStartUs(sentNs),
+                sinceStartUs(firstByteNs),
+                sinceStartUs(lastByteNs),
+                sinceStartUs(parsedNs)
+        );
+    }
+
+    private long sinceStartUs(long ns) {
+        return ns < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(ns - startNs);
+    }
+
+    // The body as it's sent, marks connected and sent
+    @NotNull
+    public HttpRequest.BodyPublisher publisher(byte @NotNull [] body) {
+        final HttpRequest.BodyPublisher delegate = HttpRequest.BodyPublishers.ofByteArray(body);
+        return new HttpRequest.BodyPublisher() {
+            @Override
+            public long contentLength() {
+                return delegate.contentLength();
+            }
+
+            @Override
+            public void subscribe(@NotNull Flow.Subscriber<? super ByteBuffer> subscriber) {
+                connected();
+                delegate.subscribe(new Flow.Subscriber<>() {
+                    @Override
+                    public void onSubscribe(@NotNull Flow.Subscription subscription) {
+                        subscriber.onSubscribe(subscription);
+                    }
+
+                    @Override
+                    public void onNext(@NotNull ByteBuffer item) {
+                        subscriber.onNext(item);
+                    }
+
+                    @Override
+                    public void onError(@NotNull Throwable throwable) {
+                        subscriber.onError(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        sent();
+                        subscriber.onComplete();
+                    }
+                });
+            }
+        };
+    }
+
+    // Marks firstByte and lastByte around the body of handler
+    @NotNull
+    public <T> HttpResponse.BodyHandler<T> handler(@NotNull HttpResponse.BodyHandler<T> handler) {
+        return responseInfo -> {
+            firstByte();
+            final HttpResponse.BodySubscriber<T> delegate = handler.apply(responseInfo);
+            return new HttpResponse.BodySubscriber<>() {
+                @Override
+                public @NotNull CompletionStage<T> getBody() {
+                    return delegate.getBody();
+                }
+
+                @Override
+                public void onSubscribe(@NotNull Flow.Subscription subscription) {
+                    delegate.onSubscribe(subscription);
+                }
+
+                @Override
+                public void onNext(@NotNull List<ByteBuffer> item) {
+                    delegate.onNext(item);
+                }
+
+                @Override
+                public void onError(@NotNull Throwable throwable) {
+                    delegate.onError(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    lastByte();
+                    delegate.onComplete();
+                }
+            };
+        };
+    }
+}
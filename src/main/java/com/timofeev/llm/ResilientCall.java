@@ -0,0 +1,200 @@
+package com.timofeev.llm;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+// One logical request on the async transport, with retries and hedging.
+// Completes with the first non-null answer of any exchange and cancels the others.
+// Once every exchange of an attempt has failed, the failure is retried if the policy allows it,
+// otherwise the call fails with it. A null answer is a failure no retry fixes, the call completes with it.
+// Exchanges are counted, so the report can show how much extra load retries and hedging put on the server.
+class ResilientCall<T> {
+    // Timers only send or cancel exchanges, that doesn't need a pool
+    private static final Executor DIRECT = Runnable::run;
+
+    @NotNull
+    private final IExchangeFactory<T> factory;
+    @NotNull
+    private final RetryPolicy retryPolicy;
+    @Nullable
+    private final HedgingPolicy hedgingPolicy;
+
+    @NotNull
+    private final CompletableFuture<Answer<T>> result = new CompletableFuture<>();
+    @NotNull
+    private final List<Exchange<T>> inFlight = new ArrayList<>();
+    // The exchange of the current attempt that isn't a hedge
+    @Nullable
+    private Exchange<T> primary;
+
+    private int attempts = 0;
+    private int retries = 0;
+    private int hedges = 0;
+
+    ResilientCall(
+            @NotNull IExchangeFactory<T> factory,
+            @NotNull RetryPolicy retryPolicy,
+            @Nullable HedgingPolicy hedgingPolicy
+    ) {
+        this.factory = factory;
+        this.retryPolicy = retryPolicy;
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    @NotNull
+    CompletableFuture<Answer<T>> start() {
+        attempt();
+        return result;
+    }
+
+    synchronized void cancel() {
+        result.cancel(false);
+        cancelInFlight();
+    }
+
+    // Exchanges sent so far, retries and hedges included
+    synchronized int attempts() {
+        return attempts;
+    }
+
+    synchronized int retries() {
+        return retries;
+    }
+
+    synchronized int hedges() {
+        return hedges;
+    }
+
+    private void attempt() {
+        final Exchange<T> primary = send(false);
+        if (primary == null || hedgingPolicy == null) {
+            return;
+        }
+        final long hedgeAfterMs = hedgingPolicy.hedgeAfterMs();
+        if (hedgeAfterMs < 0) {
+            return;
+        }
+        CompletableFuture.delayedExecutor(hedgeAfterMs, TimeUnit.MILLISECONDS, DIRECT).execute(() -> {
+            synchronized (this) {
+                // Answered, failed or cancelled in the meantime
+                if (!inFlight.contains(primary)) {
+                    return;
+                }
+            }
+            send(true);
+        });
+    }
+
+    @Nullable
+    private Exchange<T> send(boolean hedge) {
+        final Exchange<T> exchange;
+        synchronized (this) {
+            if (result.isDone()) {
+                return null;
+            }
+            attempts++;
+            if (hedge) {
+                hedges++;
+            }
+            exchange = factory.send(hedge);
+            inFlight.add(exchange);
+            if (!hedge) {
+                primary = exchange;
+            }
+        }
+        exchange.answer.whenComplete((value, error) -> onDone(exchange, hedge, value, error));
+        return exchange;
+    }
+
+    private synchronized void onDone(
+            @NotNull Exchange<T> exchange,
+            boolean hedge,
+            @Nullable T value,
+            @Nullable Throwable error
+    ) {
+        if (!inFlight.remove(exchange) || result.isDone()) {
+            return;
+        }
+
+        if (error == null && value != null) {
+            if (hedgingPolicy != null) {
+                recordAnswer(hedgingPolicy, exchange, hedge);
+            }
+            result.complete(new Answer<>(value, exchange.startNs, hedge));
+            cancelInFlight();
+            return;
+        }
+        // The other copy may still answer
+        if (!inFlight.isEmpty()) {
+            return;
+        }
+
+        if (error == null) {
+            result.complete(new Answer<>(null, exchange.startNs, hedge));
+            return;
+        }
+        final Throwable cause = unwrap(error);
+        if (retries < retryPolicy.maxRetries() && retryPolicy.isRetryable(cause)) {
+            retries++;
+            CompletableFuture.delayedExecutor(retryPolicy.delayMs(retries, cause), TimeUnit.MILLISECONDS, DIRECT)
+                    .execute(this::attempt);
+            return;
+        }
+        result.completeExceptionally(cause);
+    }
+
+    // Only primaries are sampled, a copy is sent late and answering sooner is what it's for.
+    // A primary the copy beat is about to be cancelled: it took at least this long, which is recorded
+    // as a lower bound, so the slow requests that got hedged still push the threshold up.
+    // A primary that had already failed has no answer time.
+    private void recordAnswer(@NotNull HedgingPolicy hedgingPolicy, @NotNull Exchange<T> answered, boolean hedge) {
+        final long nowNs = System.nanoTime();
+        if (!hedge) {
+            hedgingPolicy.recordAnswer(TimeUnit.NANOSECONDS.toMillis(nowNs - answered.startNs));
+        } else if (primary != null && inFlight.contains(primary)) {
+            hedgingPolicy.recordAnswer(TimeUnit.NANOSECONDS.toMillis(nowNs - primary.startNs));
+        }
+    }
+
+    // A cancelled exchange completes right away and calls onDone, it has to be out of inFlight by then
+    private void cancelInFlight() {
+        final List<Exchange<T>> exchanges = new ArrayList<>(inFlight);
+        inFlight.clear();
+        for (Exchange<T> exchange : exchanges) {
+            exchange.cancel();
+        }
+    }
+
+    @NotNull
+    private static Throwable unwrap(@NotNull Throwable error) {
+        if ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    interface IExchangeFactory<T> {
+        // hedge is set for the copy sent while the original is still running
+        @NotNull
+        Exchange<T> send(boolean hedge);
+    }
+
+    // cancel() aborts the transport, the answer then completes exceptionally. startNs is System.nanoTime.
+    record Exchange<T>(long startNs, @NotNull CompletableFuture<?> transport, @NotNull CompletableFuture<T> answer) {
+        void cancel() {
+            transport.cancel(true);
+        }
+    }
+
+    // startNs is when the exchange that answered was sent, System.nanoTime
+    record Answer<T>(@Nullable T value, long startNs, boolean hedge) {
+    }
+}
@@ -0,0 +1,36 @@
+package com.timofeev.llm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+// How a failed request is retried: up to maxRetries more attempts, each after backoffMs * 2^(retry - 1)
+// with jitter, or after Retry-After when a 429 or 503 response has one.
+// Only failures a retry can fix are retried: connection errors, timeouts, 429 and 5xx.
+public record RetryPolicy(int maxRetries, long backoffMs) {
+
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0);
+
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    boolean isRetryable(@NotNull Throwable error) {
+        if (error instanceof HttpStatusException status) {
+            return status.getStatusCode() == 429 || status.getStatusCode() >= 500;
+        }
+        return error instanceof IOException && !(error instanceof InterruptedIOException);
+    }
+
+    // retry is 1 for the first retry
+    long delayMs(int retry, @NotNull Throwable error) {
+        if (error instanceof HttpStatusException status
+                && (status.getStatusCode() == 429 || status.getStatusCode() == 503)
+                && status.getRetryAfterMs() >= 0) {
+            return status.getRetryAfterMs();
+        }
+        final long backoffMs = Math.min(MAX_BACKOFF_MS, this.backoffMs << Math.min(retry - 1, 20));
+        // Half of it random, so requests that failed together don't all come back at once
+        return backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+    }
+}
@@ -0,0 +1,180 @@
+package com.timofeev.llm;
+
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Client CPU time and allocation per request of every way to get a request body:
+// GSON over boxed token ids (the old path), RequestBodyEncoder on the fly, and a pre-rendered lookup.
+// Response side compares GSON mapping of the body String against CompletionBodyParser over the bytes,
+// on synthetic responses shaped like a server's: logprobs for every token and usage.
+// Measured on the calling thread with ThreadMXBean, after a warmup pass, without sending anything.
+public class SerializationCost {
+    private static final Logger LOG = LoggerFactory.getLogger(SerializationCost.class);
+
+    private static final int WARMUP_PASSES = 3;
+
+    private static final int RESPONSE_TOKENS = 100;
+    private static final int RESPONSE_TOP_LOGPROBS = 5;
+    private static final long RESPONSE_SEED = 42;
+
+    @NotNull
+    public static List<Result> measure(
+            @NotNull OpenAiLlmClient llmClient,
+            @NotNull List<TokenizedCompletionPrompt> tokenizedPrompts
+    ) {
+        final List<TokenizedCompletionPrompt> prompts = tokenizedPrompts.stream()
+                .filter(llmClient::fitsContext)
+                .toList();
+        if (prompts.isEmpty()) {
+            throw new IllegalArgumentException("No prompts fit the context, nothing to measure");
+        }
+        final List<OpenAiLlmClient.OpenAiLlmClientInlineRequest> requests = prompts.stream()
+                .map(llmClient::newRequest)
+                .toList();
+        final RequestBodyEncoder encoder = llmClient.getBodyEncoder();
+        final List<byte[]> rendered = new ArrayList<>(prompts.size());
+        for (TokenizedCompletionPrompt prompt : prompts) {
+            rendered.add(encoder.encode(prompt.getIds()));
+        }
+
+        final List<Result> results = new ArrayList<>();
+        results.add(measure(REQUEST, "gson", prompts.size(), i ->
+                OpenAiLlmClient.GSON.toJson(requests.get(i)).getBytes(StandardCharsets.UTF_8).length
+        ));
+        results.add(measure(REQUEST, "encoder", prompts.size(), i -> encoder.encode(prompts.get(i).getIds()).length));
+        results.add(measure(REQUEST, "prerendered", prompts.size(), i -> rendered.get(i).length));
+
+        final Random random = new Random(RESPONSE_SEED);
+        final List<byte[]> responses = new ArrayList<>(prompts.size());
+        for (int i = 0; i < prompts.size(); i++) {
+            responses.add(syntheticResponse(random, prompts.get(i).getIds().length));
+        }
+        // Both paths start from the received bytes, as ofString decodes them into a String first
+        results.add(measure(RESPONSE, "gson", responses.size(), i ->
+                parsedLength(OpenAiLlmClient.parse(new String(responses.get(i), StandardCharsets.UTF_8), false))
+        ));
+        results.add(measure(RESPONSE, "streaming", responses.size(), i -> {
+            try {
+                return parsedLength(CompletionBodyParser.parse(new InputStreamReader(
+                        new ByteArrayInputStream(responses.get(i)),
+                        StandardCharsets.UTF_8
+                )));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+
+        final byte[] gson = OpenAiLlmClient.GSON.toJson(requests.getFirst()).getBytes(StandardCharsets.UTF_8);
+        if (!new String(gson, StandardCharsets.UTF_8).equals(new String(rendered.getFirst(), StandardCharsets.UTF_8))) {
+            LOG.warn("Encoder output differs from GSON, bodies aren't equivalent");
+        }
+        return results;
+    }
+
+    public static final String REQUEST = "request";
+    public static final String RESPONSE = "response";
+
+    private static long parsedLength(@Nullable CompletionBodyParser.ParsedCompletion parsed) {
+        if (parsed == null || parsed.text() == null) {
+            throw new IllegalStateException("Synthetic response wasn't parsed");
+        }
+        return parsed.text().length();
+    }
+
+    // An OpenAI completions response with one choice of RESPONSE_TOKENS tokens and their logprobs
+    private static byte @NotNull [] syntheticResponse(@NotNull Random random, int promptTokens) {
+        final StringBuilder text = new StringBuilder();
+        final StringBuilder tokens = new StringBuilder();
+        final StringBuilder logprobs = new StringBuilder();
+        final StringBuilder topLogprobs = new StringBuilder();
+        final StringBuilder offsets = new StringBuilder();
+        for (int i = 0; i < RESPONSE_TOKENS; i++) {
+            final String token = syntheticToken(random);
+            final String separator = i == 0 ? "" : ",";
+            offsets.append(separator).append(text.length());
+            text.append(token);
+            tokens.append(separator).append(OpenAiLlmClient.GSON.toJson(token));
+            logprobs.append(separator).append(-random.nextDouble() * 5);
+            topLogprobs.append(separator).append('{');
+            for (int j = 0; j < RESPONSE_TOP_LOGPROBS; j++) {
+                topLogprobs.append(j == 0 ? "" : ",")
+                        .append(OpenAiLlmClient.GSON.toJson(j == 0 ? token : syntheticToken(random)))
+                        .append(':')
+                        .append(-random.nextDouble() * 10);
+            }
+            topLogprobs.append('}');
+        }
+
+        final String body = "{\"id\":\"cmpl-" + random.nextInt(Integer.MAX_VALUE) + "\","
+                + "\"object\":\"text_completion\",\"created\":1754474828,\"model\":\"model\","
+                + "\"choices\":[{\"index\":0,\"text\":" + OpenAiLlmClient.GSON.toJson(text.toString()) + ","
+                + "\"logprobs\":{\"tokens\":[" + tokens + "],\"token_logprobs\":[" + logprobs + "],"
+                + "\"top_logprobs\":[" + topLogprobs + "],\"text_offset\":[" + offsets + "]},"
+                + "\"finish_reason\":\"length\"}],"
+                + "\"usage\":{\"prompt_tokens\":" + promptTokens + ",\"completion_tokens\":" + RESPONSE_TOKENS
+                + ",\"total_tokens\":" + (promptTokens + RESPONSE_TOKENS) + "}}";
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static String syntheticToken(@NotNull Random random) {
+        final char[] token = new char[1 + random.nextInt(6)];
+        for (int i = 0; i < token.length; i++) {
+            token[i] = (char) ('a' + random.nextInt(26));
+        }
+        return random.nextInt(4) == 0 ? "\n    " + new String(token) : " " + new String(token);
+    }
+
+    @NotNull
+    private static Result measure(@NotNull String kind, @NotNull String mode, int count, @NotNull ICase work) {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long bytes = 0;
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            for (int i = 0; i < count; i++) {
+                bytes += work.run(i);
+            }
+        }
+
+        bytes = 0;
+        final long cpuStartNs = threads.getCurrentThreadCpuTime();
+        final long allocatedStart = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < count; i++) {
+            bytes += work.run(i);
+        }
+        final long cpuNs = threads.getCurrentThreadCpuTime() - cpuStartNs;
+        final long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedStart;
+
+        final Result result = new Result(kind, mode, count, cpuNs / 1000.0 / count, (double) allocated / count, (double) bytes / count);
+        LOG.info("Serialization cost: {}", result);
+        return result;
+    }
+
+    // Returns the size of what was produced, so the work can't be optimized away
+    private interface ICase {
+        long run(int index);
+    }
+
+    // kind is REQUEST or RESPONSE, the first result of each kind is the GSON baseline
+    public record Result(
+            @NotNull String kind,
+            @NotNull String mode,
+            int requests,
+            double cpuUsPerRequest,
+            double allocatedBytesPerRequest,
+            double bodyBytesPerRequest
+    ) {
+    }
+}
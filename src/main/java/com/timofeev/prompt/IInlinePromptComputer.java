@@ -3,9 +3,19 @@ package com.timofeev.prompt;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+
 public interface IInlinePromptComputer {
 
     @Nullable
     String computeInlinePrompt(@NotNull String promptJsonData);
 
+    // Successive prompts of a user typing at the cursor, up to maxKeystrokes after the first one.
+    // Computers that can't tell what would be typed return the single prompt.
+    @Nullable
+    default List<String> computeTypingSession(@NotNull String promptJsonData, int maxKeystrokes) {
+        final String prompt = computeInlinePrompt(promptJsonData);
+        return prompt == null ? null : List.of(prompt);
+    }
+
 }
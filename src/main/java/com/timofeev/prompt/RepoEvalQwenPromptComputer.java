@@ -6,6 +6,9 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class RepoEvalQwenPromptComputer implements IInlinePromptComputer {
     private static final Logger LOG = LoggerFactory.getLogger(RepoEvalQwenPromptComputer.class);
 
@@ -42,6 +45,47 @@ public class RepoEvalQwenPromptComputer implements IInlinePromptComputer {
         return FILE_SEPARATOR_TOKEN + "\n" + PREFIX_TOKEN + promptText + FIM_TOKEN;
     }
 
+    // Someone typing the target line: the first prompt has the line's indentation only (auto-indent),
+    // every next one adds a character. The target line is metadata.ground_truth,
+    // rows without it type the line below the cursor.
+    @Override
+    public @Nullable List<String> computeTypingSession(@NotNull String promptJsonData, int maxKeystrokes) {
+        final RepoEvalQwenPromptComputer.DatasetRow datasetRow = OpenAiLlmClient.GSON.fromJson(
+                promptJsonData,
+                RepoEvalQwenPromptComputer.DatasetRow.class
+        );
+        if (datasetRow == null) {
+            LOG.error("Failed to parse json line: {}", promptJsonData);
+            return null;
+        }
+
+        String line = datasetRow.metadata.ground_truth;
+        if (line == null) {
+            final String[] lines = datasetRow.prompt.split("\n", -1);
+            line = datasetRow.metadata.line_no < lines.length ? lines[datasetRow.metadata.line_no] : "";
+        }
+        final int lineEnd = line.indexOf('\n');
+        if (lineEnd >= 0) {
+            line = line.substring(0, lineEnd);
+        }
+        int indent = 0;
+        while (indent < line.length() && Character.isWhitespace(line.charAt(indent))) {
+            indent++;
+        }
+
+        final int typedEnd = Math.min(line.length(), indent + maxKeystrokes);
+        final List<String> prompts = new ArrayList<>(typedEnd - indent + 1);
+        for (int typed = indent; typed <= typedEnd; typed++) {
+            final String promptText = insertLine(
+                    datasetRow.prompt,
+                    line.substring(0, typed) + SUFFIX_TOKEN,
+                    datasetRow.metadata.line_no + 1
+            );
+            prompts.add(FILE_SEPARATOR_TOKEN + "\n" + PREFIX_TOKEN + promptText + FIM_TOKEN);
+        }
+        return prompts;
+    }
+
     @NotNull
     public static String insertLine(
             @NotNull String original,
@@ -99,14 +143,20 @@ public class RepoEvalQwenPromptComputer implements IInlinePromptComputer {
         public static class MetaData {
             public final int line_no;
 
-            public MetaData(int lineNo) {
+            // The line to complete, absent in some dataset exports
+            @Nullable
+            public final String ground_truth;
+
+            public MetaData(int lineNo, @Nullable String groundTruth) {
                 line_no = lineNo;
+                ground_truth = groundTruth;
             }
 
             @Override
             public String toString() {
                 return "MetaData{" +
                         "line_no=" + line_no +
+                        ", ground_truth='" + ground_truth + '\'' +
                         '}';
             }
         }
@@ -2,22 +2,56 @@ package com.timofeev.prompt;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 
 public class TokenizedCompletionPrompt implements ICompletionPrompt<List<Long>> {
 
+    // Primitive storage: prompts are up to 25k tokens and the whole dataset is kept in memory
+    private final long @NotNull [] ids;
+
     @NotNull
     private final List<Long> tokens;
 
     public final String promptStr;
 
     public TokenizedCompletionPrompt(@NotNull List<Long> tokens, String promptStr) {
-        this.tokens = tokens;
+        this(tokens.stream().mapToLong(Long::longValue).toArray(), promptStr);
+    }
+
+    public TokenizedCompletionPrompt(long @NotNull [] ids, String promptStr) {
+        this.ids = ids;
+        this.tokens = new LongListView(ids);
         this.promptStr = promptStr;
     }
 
+    // Read-only view over the ids, boxes on access
     @Override
     public @NotNull List<Long> getValue() {
         return tokens;
     }
+
+    // Not copied, must not be modified
+    public long @NotNull [] getIds() {
+        return ids;
+    }
+
+    private static class LongListView extends AbstractList<Long> implements RandomAccess {
+        private final long @NotNull [] values;
+
+        private LongListView(long @NotNull [] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Long get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
 }
@@ -0,0 +1,364 @@
+package com.timofeev.server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.timofeev.llm.OpenAiLlmClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// OpenAI-compatible /v1/completions served from this process, streaming and not, so mocked runs go through
+// the whole client stack: connections, request serialization, response parsing, server side queueing.
+// Latency model: a request waits in a FIFO queue for one of the batch slots, then pays the overhead
+// and prefill for every prompt token, then decode for every output token. Streamed tokens are sent
+// as they are decoded. A batched request takes one slot, its prompts are decoded in lockstep.
+// A client that goes away (a cancelled request) frees its slot on the next write.
+public class LocalCompletionServer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalCompletionServer.class);
+
+    private static final String PATH = "/v1/completions";
+    private static final int MAX_TOKENS_DEFAULT = 16;
+    private static final int BACKLOG = 1024;
+
+    @NotNull
+    private final LatencyModel model;
+
+    @NotNull
+    private final HttpServer server;
+
+    // Handlers mostly sleep, a virtual thread per request keeps queued requests cheap
+    @NotNull
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Fair, so slots are handed out in arrival order
+    @NotNull
+    private final Semaphore slots;
+
+    @NotNull
+    private final AtomicInteger queued = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    @NotNull
+    private final AtomicLong requests = new AtomicLong();
+    @NotNull
+    private final AtomicLong abandoned = new AtomicLong();
+
+    private LocalCompletionServer(@NotNull LatencyModel model) throws IOException {
+        this.model = model;
+        this.slots = new Semaphore(model.slots, true);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), BACKLOG);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    @NotNull
+    public static LocalCompletionServer start(@NotNull LatencyModel model) throws IOException {
+        final LocalCompletionServer server = new LocalCompletionServer(model);
+        server.server.start();
+        LOG.info("Local completion server started at {} with {}", server.getUrl(), model);
+        return server;
+    }
+
+    @NotNull
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PATH;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        LOG.info(
+                "Local completion server stopped: {} requests, {} abandoned by the client, max queue {}",
+                requests.get(),
+                abandoned.get(),
+                maxQueued.get()
+        );
+    }
+
+    private void handle(@NotNull HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Only POST is supported");
+                return;
+            }
+
+            final JsonObject request;
+            try {
+                request = OpenAiLlmClient.GSON.fromJson(
+                        new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8),
+                        JsonObject.class
+                );
+            } catch (JsonParseException e) {
+                sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+                return;
+            }
+            final List<Integer> promptTokens = request == null ? null : promptTokens(request.get("prompt"));
+            if (promptTokens == null || promptTokens.isEmpty()) {
+                sendError(exchange, 400, "prompt should be a string, token ids or an array of them");
+                return;
+            }
+            final Integer maxTokens = intField(request, "max_tokens", MAX_TOKENS_DEFAULT);
+            if (maxTokens == null) {
+                sendError(exchange, 400, "max_tokens should be a non-negative integer: " + request.get("max_tokens"));
+                return;
+            }
+            final Boolean stream = booleanField(request, "stream", false);
+            if (stream == null) {
+                sendError(exchange, 400, "stream should be a boolean: " + request.get("stream"));
+                return;
+            }
+            final String modelName = stringField(request, "model", "local");
+            if (modelName == null) {
+                sendError(exchange, 400, "model should be a string: " + request.get("model"));
+                return;
+            }
+            final Completion completion = new Completion(
+                    "cmpl-" + requests.incrementAndGet(),
+                    modelName,
+                    promptTokens,
+                    Math.min(maxTokens, model.outputTokens)
+            );
+
+            maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                queued.decrementAndGet();
+            }
+            try {
+                Thread.sleep(model.prefillMs(completion.totalPromptTokens()));
+                if (stream) {
+                    stream(exchange, completion);
+                } else {
+                    Thread.sleep(model.decodeMs * completion.outputTokens);
+                    send(exchange, 200, "application/json", completion.whole().toString());
+                }
+            } catch (IOException e) {
+                abandoned.incrementAndGet();
+                LOG.debug("Client went away", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                slots.release();
+            }
+        }
+    }
+
+    private void stream(
+            @NotNull HttpExchange exchange,
+            @NotNull Completion completion
+    ) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        final OutputStream body = exchange.getResponseBody();
+        for (int token = 0; token < completion.outputTokens; token++) {
+            Thread.sleep(model.decodeMs);
+            final boolean last = token == completion.outputTokens - 1;
+            for (int index = 0; index < completion.promptTokens.size(); index++) {
+                body.write(("data: " + completion.chunk(index, last) + "\n\n").getBytes(StandardCharsets.UTF_8));
+            }
+            body.flush();
+        }
+        body.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        body.flush();
+    }
+
+    private static void sendError(@NotNull HttpExchange exchange, int statusCode, @NotNull String message) throws IOException {
+        final JsonObject error = new JsonObject();
+        error.addProperty("message", message);
+        final JsonObject response = new JsonObject();
+        response.add("error", error);
+        send(exchange, statusCode, "application/json", response.toString());
+    }
+
+    private static void send(
+            @NotNull HttpExchange exchange,
+            int statusCode,
+            @NotNull String contentType,
+            @NotNull String body
+    ) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    // defaultValue when the field is absent or null, null when it isn't a non-negative integer
+    @Nullable
+    private static Integer intField(@NotNull JsonObject request, @NotNull String name, int defaultValue) {
+        final JsonElement field = request.get(name);
+        if (field == null || field.isJsonNull()) {
+            return defaultValue;
+        }
+        if (!field.isJsonPrimitive() || !field.getAsJsonPrimitive().isNumber()) {
+            return null;
+        }
+        try {
+            final int value = field.getAsBigDecimal().intValueExact();
+            return value >= 0 ? value : null;
+        } catch (ArithmeticException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // defaultValue when the field is absent or null, null when it isn't a boolean
+    @Nullable
+    private static Boolean booleanField(@NotNull JsonObject request, @NotNull String name, boolean defaultValue) {
+        final JsonElement field = request.get(name);
+        if (field == null || field.isJsonNull()) {
+            return defaultValue;
+        }
+        return field.isJsonPrimitive() && field.getAsJsonPrimitive().isBoolean() ? field.getAsBoolean() : null;
+    }
+
+    // defaultValue when the field is absent or null, null when it isn't a string
+    @Nullable
+    private static String stringField(@NotNull JsonObject request, @NotNull String name, @NotNull String defaultValue) {
+        final JsonElement field = request.get(name);
+        if (field == null || field.isJsonNull()) {
+            return defaultValue;
+        }
+        return field.isJsonPrimitive() && field.getAsJsonPrimitive().isString() ? field.getAsString() : null;
+    }
+
+    // Token count of every prompt: token ids are counted, text is taken as 4 characters per token.
+    // null if the prompt isn't one of the shapes the completions API accepts.
+    @Nullable
+    private static List<Integer> promptTokens(@Nullable JsonElement prompt) {
+        if (prompt == null || prompt.isJsonNull()) {
+            return null;
+        }
+        if (prompt.isJsonPrimitive()) {
+            return List.of(prompt.getAsString().length() / 4);
+        }
+        if (!prompt.isJsonArray()) {
+            return null;
+        }
+        final JsonArray array = prompt.getAsJsonArray();
+        if (array.isEmpty() || array.get(0).isJsonPrimitive() && ((JsonPrimitive) array.get(0)).isNumber()) {
+            return List.of(array.size());
+        }
+        final List<Integer> tokens = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            if (element.isJsonArray()) {
+                tokens.add(element.getAsJsonArray().size());
+            } else if (element.isJsonPrimitive()) {
+                tokens.add(element.getAsString().length() / 4);
+            } else {
+                return null;
+            }
+        }
+        return tokens;
+    }
+
+    private record Completion(
+            @NotNull String id,
+            @NotNull String modelName,
+            @NotNull List<Integer> promptTokens,
+            int outputTokens
+    ) {
+        private static final String TOKEN = " tok";
+
+        int totalPromptTokens() {
+            return promptTokens.stream().mapToInt(Integer::intValue).sum();
+        }
+
+        @NotNull
+        JsonObject whole() {
+            final JsonArray choices = new JsonArray();
+            for (int index = 0; index < promptTokens.size(); index++) {
+                choices.add(choice(index, TOKEN.repeat(outputTokens), "length"));
+            }
+            final JsonObject usage = new JsonObject();
+            usage.addProperty("prompt_tokens", totalPromptTokens());
+            usage.addProperty("completion_tokens", outputTokens * promptTokens.size());
+            usage.addProperty("total_tokens", totalPromptTokens() + outputTokens * promptTokens.size());
+
+            final JsonObject response = header();
+            response.add("choices", choices);
+            response.add("usage", usage);
+            return response;
+        }
+
+        @NotNull
+        JsonObject chunk(int index, boolean last) {
+            final JsonArray choices = new JsonArray();
+            choices.add(choice(index, TOKEN, last ? "length" : null));
+            final JsonObject response = header();
+            response.add("choices", choices);
+            return response;
+        }
+
+        @NotNull
+        private JsonObject header() {
+            final JsonObject response = new JsonObject();
+            response.addProperty("id", id);
+            response.addProperty("object", "text_completion");
+            response.addProperty("created", System.currentTimeMillis() / 1000);
+            response.addProperty("model", modelName);
+            return response;
+        }
+
+        @NotNull
+        private static JsonObject choice(int index, @NotNull String text, @Nullable String finishReason) {
+            final JsonObject choice = new JsonObject();
+            choice.addProperty("index", index);
+            choice.addProperty("text", text);
+            choice.add("logprobs", null);
+            choice.addProperty("finish_reason", finishReason);
+            return choice;
+        }
+    }
+
+    // Per-request costs of the simulated model. outputTokens caps max_tokens of the request,
+    // inline completions are short.
+    public record LatencyModel(
+            int slots,
+            long overheadMs,
+            double prefillUsPerToken,
+            long decodeMs,
+            int outputTokens
+    ) {
+        public static final LatencyModel DEFAULT = new LatencyModel(8, 20, 100, 15, 10);
+
+        public LatencyModel {
+            if (slots <= 0) {
+                throw new IllegalArgumentException("slots should be positive: " + slots);
+            }
+            if (overheadMs < 0 || prefillUsPerToken < 0 || decodeMs < 0 || outputTokens <= 0) {
+                throw new IllegalArgumentException("Invalid latency model: overheadMs=" + overheadMs
+                        + ", prefillUsPerToken=" + prefillUsPerToken
+                        + ", decodeMs=" + decodeMs
+                        + ", outputTokens=" + outputTokens);
+            }
+        }
+
+        long prefillMs(int promptTokens) {
+            return overheadMs + (long) (promptTokens * prefillUsPerToken / 1000);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.timofeev.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// Serves GET /metrics in the Prometheus text format while a run goes on.
+// Listens on all interfaces, so a Prometheus on another host can scrape it. Port 0 picks a free one.
+// Metrics are rendered on every scrape, the benchmark itself doesn't wait for them.
+public class MetricsServer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsServer.class);
+
+    private static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @NotNull
+    private final HttpServer server;
+
+    // Scrapes are rare, one thread is plenty
+    @NotNull
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "metrics-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @NotNull
+    private final Supplier<String> metrics;
+
+    private MetricsServer(int port, @NotNull Supplier<String> metrics) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    @NotNull
+    public static MetricsServer start(int port, @NotNull Supplier<String> metrics) throws IOException {
+        final MetricsServer server = new MetricsServer(port, metrics);
+        server.server.start();
+        LOG.info("Metrics served at {}", server.getUrl());
+        return server;
+    }
+
+    // The server listens on the wildcard address, the URL names this host
+    @NotNull
+    public String getUrl() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = InetAddress.getLoopbackAddress().getHostAddress();
+        }
+        return "http://" + host + ":" + server.getAddress().getPort() + PATH;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(@NotNull HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final byte[] body = metrics.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+}
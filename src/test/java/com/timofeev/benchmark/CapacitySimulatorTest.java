@@ -0,0 +1,78 @@
+package com.timofeev.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CapacitySimulatorTest {
+
+    private static final double SERVICE_MS = 100;
+
+    // Every request takes SERVICE_MS, so one slot is an M/D/1 queue
+    private static final FittedLatencyModel CONSTANT = new FittedLatencyModel(
+            SERVICE_MS, 0, 0, "token", 1, 0, 0, new double[]{0}
+    );
+    private static final List<FittedLatencyModel.Sample> SAMPLES = List.of(
+            new FittedLatencyModel.Sample(Math.round(SERVICE_MS), 100, 10)
+    );
+
+    @Test
+    void saturationRateCountsEverySlot() {
+        assertEquals(10, simulator(1, 1, 1).saturationRate(), 1e-9);
+        assertEquals(80, simulator(2, 4, 1).saturationRate(), 1e-9);
+        assertEquals(20, simulator(1, 1, 2).saturationRate(), 1e-9);
+    }
+
+    @Test
+    void lightLoadIsServiceTime() {
+        final CapacitySimulator.Result result = simulator(1, 1, 1).run(0.1);
+        assertEquals(SERVICE_MS, result.percentileMs(50), 1);
+        assertEquals(0.01, result.utilization(), 0.002);
+    }
+
+    // Pollaczek-Khinchine: mean wait of M/D/1 is rho / (2 * mu * (1 - rho))
+    @Test
+    void singleSlotMatchesMD1() {
+        final double rate = 5;
+        final double rho = rate * SERVICE_MS / 1000;
+        final double expectedMs = SERVICE_MS + rho * SERVICE_MS / (2 * (1 - rho));
+
+        final CapacitySimulator.Result result = simulator(1, 1, 1).run(rate);
+
+        assertEquals(expectedMs, mean(result.sortedResponseTimesMs()), expectedMs * 0.05);
+        assertEquals(rho, result.utilization(), 0.02);
+    }
+
+    @Test
+    void moreSlotsQueueLess() {
+        final CapacitySimulator.Result one = simulator(1, 1, 1).run(8);
+        final CapacitySimulator.Result four = simulator(1, 4, 1).run(8);
+        final CapacitySimulator.Result twoGpus = simulator(2, 2, 1).run(8);
+
+        assertTrue(four.percentileMs(95) < one.percentileMs(95));
+        assertTrue(four.maxQueue() < one.maxQueue());
+        assertEquals(SERVICE_MS, twoGpus.percentileMs(50), 1);
+        assertEquals(0.2, four.utilization(), 0.02);
+    }
+
+    @Test
+    void speedupShortensService() {
+        final CapacitySimulator.Result result = simulator(1, 1, 2).run(0.1);
+        assertEquals(SERVICE_MS / 2, result.percentileMs(50), 1);
+    }
+
+    private static CapacitySimulator simulator(int gpus, int slots, double speedup) {
+        return new CapacitySimulator(CONSTANT, SAMPLES, gpus, slots, speedup, 20_000, 0);
+    }
+
+    private static double mean(long[] values) {
+        double sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+}
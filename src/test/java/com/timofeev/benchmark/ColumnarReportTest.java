@@ -0,0 +1,113 @@
+package com.timofeev.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ColumnarReportTest {
+
+    private static final String PARAMS =
+            "INFO: BenchmarkParams{modelName='qwen, coder', sweep=1,2,4, slo=null, prompt=\"a=b, c\", threads=8}\n\n";
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(ColumnarReport.Encoding.class)
+    void roundTripKeepsTheCsv(ColumnarReport.Encoding encoding) throws IOException {
+        final String content = PARAMS + table(1000) + "END\n\nsummary\n";
+        final File csv = write("report.csv", content);
+        final File binary = directory.resolve("report.bin").toFile();
+
+        ColumnarReport.fromCsv(csv, binary, encoding);
+
+        final ColumnarReport report = ColumnarReport.open(binary);
+        assertEquals(1000, report.size());
+        assertEquals("qwen, coder", report.getParams().get("modelName"));
+        assertEquals("1,2,4", report.getParams().get("sweep"));
+        assertNull(report.getParams().get("slo"));
+        assertEquals("a=b, c", report.getParams().get("prompt"));
+        assertEquals("8", report.getParams().get("threads"));
+        final LongBuffer timeMs = report.column("timeMs");
+        final LongBuffer parsedUs = report.column("parsedUs");
+        for (int row = 0; row < 1000; row++) {
+            assertEquals(100 + row, timeMs.get(row));
+            assertEquals(row * 13L + 13, parsedUs.get(row));
+        }
+
+        final File back = directory.resolve("back.csv").toFile();
+        report.writeCsv(back);
+        assertEquals(content, Files.readString(back.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void partialLastRowIsSkipped() throws IOException {
+        final String table = table(10);
+        // Killed in the middle of the last row
+        final File csv = write("killed.csv", PARAMS + table + rowLine(10).substring(0, 7));
+        final File binary = directory.resolve("killed.bin").toFile();
+
+        ColumnarReport.fromCsv(csv, binary, ColumnarReport.Encoding.RAW);
+
+        final ColumnarReport report = ColumnarReport.open(binary);
+        assertEquals(10, report.size());
+        assertEquals(109, report.column("timeMs").get(9));
+        final File back = directory.resolve("back.csv").toFile();
+        report.writeCsv(back);
+        assertEquals(PARAMS + table, Files.readString(back.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void unsupportedEncodingIsRejected() throws IOException {
+        final File csv = write("report.csv", PARAMS + table(3) + "END\n");
+        final File binary = directory.resolve("report.bin").toFile();
+        ColumnarReport.fromCsv(csv, binary, ColumnarReport.Encoding.RAW);
+        // The encoding byte follows the magic and the version
+        try (RandomAccessFile file = new RandomAccessFile(binary, "rw")) {
+            file.seek(Integer.BYTES + Short.BYTES);
+            file.writeByte(42);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> ColumnarReport.open(binary));
+    }
+
+    private File write(String name, String content) throws IOException {
+        final File file = directory.resolve(name).toFile();
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static String table(int rows) {
+        final StringBuilder table = new StringBuilder(LlmTimingHolder.TIMING_HEADER);
+        for (int row = 0; row < rows; row++) {
+            table.append(rowLine(row)).append('\n');
+        }
+        return table.toString();
+    }
+
+    // timeMs is 100 + row, the other columns multiples of row + 1
+    private static String rowLine(int row) {
+        final int columns = LlmTimingHolder.TIMING_HEADER.split(",").length;
+        final List<String> values = new ArrayList<>();
+        values.add(Long.toString(100 + row));
+        for (int column = 1; column < columns; column++) {
+            values.add(Long.toString((long) (row + 1) * column));
+        }
+        return String.join(", ", values);
+    }
+}
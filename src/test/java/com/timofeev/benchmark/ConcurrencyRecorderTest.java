@@ -0,0 +1,60 @@
+package com.timofeev.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConcurrencyRecorderTest {
+
+    @Test
+    void constantConcurrency() {
+        final ConcurrencyRecorder recorder = new ConcurrencyRecorder();
+        // 4 requests back to back on each of 3 workers, 1000ms each
+        for (int worker = 0; worker < 3; worker++) {
+            for (int i = 0; i < 4; i++) {
+                recorder.record(10_000 + i * 1000L, 10_000 + (i + 1) * 1000L);
+            }
+        }
+        final ConcurrencyRecorder.Timeline timeline = recorder.compute(4);
+
+        assertEquals(1000, timeline.bucketMs());
+        assertArrayEquals(new double[]{3, 3, 3, 3}, timeline.concurrency(), 1e-9);
+    }
+
+    // Long runs grow the buckets, the result stays close to the exact one from all the requests
+    @Test
+    void matchesExactTimeline() {
+        final Random random = new Random(0);
+        final int requests = 100_000;
+        final long[] startMs = new long[requests];
+        final long[] endMs = new long[requests];
+        final ConcurrencyRecorder recorder = new ConcurrencyRecorder();
+        for (int i = 0; i < requests; i++) {
+            // Load ramps up over the run
+            startMs[i] = 1_000_000 + i * 10L;
+            endMs[i] = startMs[i] + 10 + random.nextInt(1 + i / 100);
+            recorder.record(startMs[i], endMs[i]);
+        }
+        final ConcurrencyRecorder.Timeline timeline = recorder.compute(20);
+
+        long last = 0;
+        for (long end : endMs) {
+            last = Math.max(last, end);
+        }
+        final long bucketMs = ConcurrencyTimeline.bucketMs(last - startMs[0], 20);
+        final double[] expected = ConcurrencyTimeline.compute(startMs, endMs, bucketMs);
+        assertEquals(bucketMs, timeline.bucketMs());
+        assertEquals(expected.length, timeline.concurrency().length);
+        for (int i = 0; i < expected.length - 1; i++) {
+            assertEquals(expected[i], timeline.concurrency()[i], expected[i] * 0.02 + 0.01, "bucket " + i);
+        }
+    }
+
+    @Test
+    void emptyBeforeAnythingIsRecorded() {
+        assertEquals(0, new ConcurrencyRecorder().compute(20).concurrency().length);
+    }
+}
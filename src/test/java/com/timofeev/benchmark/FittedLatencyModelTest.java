@@ -0,0 +1,94 @@
+package com.timofeev.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FittedLatencyModelTest {
+
+    @Test
+    void recoversExactCoefficients() {
+        final List<FittedLatencyModel.Sample> samples = new ArrayList<>();
+        for (int prompt = 100; prompt <= 1000; prompt += 100) {
+            for (int output = 10; output <= 50; output += 10) {
+                samples.add(new FittedLatencyModel.Sample(Math.round(20 + 0.05 * prompt + 3.0 * output), prompt, output));
+            }
+        }
+        final FittedLatencyModel model = FittedLatencyModel.fit(samples, "token");
+
+        assertEquals(20, model.overheadMs(), 1e-6);
+        assertEquals(0.05, model.prefillMsPerToken(), 1e-9);
+        assertEquals(3.0, model.decodeMsPerUnit(), 1e-9);
+        assertEquals(1.0, model.r2(), 1e-9);
+        assertEquals(0, model.rmseMs(), 1e-6);
+        assertEquals(samples.size(), model.residualsMs().length);
+        assertEquals(20 + 0.05 * 500 + 3.0 * 20, model.predictMs(500, 20), 1e-6);
+    }
+
+    @Test
+    void fitsNoisySamples() {
+        final Random random = new Random(0);
+        final List<FittedLatencyModel.Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final int prompt = 100 + random.nextInt(4000);
+            final int output = 1 + random.nextInt(100);
+            final double noise = random.nextGaussian() * 5;
+            samples.add(new FittedLatencyModel.Sample(Math.round(50 + 0.02 * prompt + 2.0 * output + noise), prompt, output));
+        }
+        final FittedLatencyModel model = FittedLatencyModel.fit(samples, "token");
+
+        assertEquals(50, model.overheadMs(), 2);
+        assertEquals(0.02, model.prefillMsPerToken(), 0.001);
+        assertEquals(2.0, model.decodeMsPerUnit(), 0.02);
+        assertTrue(model.r2() > 0.99, "R2 " + model.r2());
+        assertEquals(5, model.rmseMs(), 0.5);
+        double residualSum = 0;
+        for (double residual : model.residualsMs()) {
+            residualSum += residual;
+        }
+        // Least squares with an intercept leaves residuals centered
+        assertEquals(0, residualSum / samples.size(), 1e-6);
+    }
+
+    // Output that grows with the prompt can't be told apart, the time is put on the prompt alone
+    @Test
+    void collinearRegressorsFallBackToOne() {
+        final List<FittedLatencyModel.Sample> samples = new ArrayList<>();
+        for (int prompt = 100; prompt <= 1000; prompt += 100) {
+            samples.add(new FittedLatencyModel.Sample(10 + prompt / 10, prompt, prompt / 10));
+        }
+        final FittedLatencyModel model = FittedLatencyModel.fit(samples, "token");
+
+        assertEquals(0, model.decodeMsPerUnit());
+        assertEquals(0.1, model.prefillMsPerToken(), 1e-9);
+        assertEquals(10, model.overheadMs(), 1e-6);
+    }
+
+    @Test
+    void constantOutputFitsPromptOnly() {
+        final List<FittedLatencyModel.Sample> samples = List.of(
+                new FittedLatencyModel.Sample(110, 100, 16),
+                new FittedLatencyModel.Sample(120, 200, 16),
+                new FittedLatencyModel.Sample(130, 300, 16)
+        );
+        final FittedLatencyModel model = FittedLatencyModel.fit(samples, "char");
+
+        assertEquals(0.1, model.prefillMsPerToken(), 1e-9);
+        assertEquals(0, model.decodeMsPerUnit());
+        assertEquals(100, model.overheadMs(), 1e-6);
+    }
+
+    @Test
+    void needsThreeSamples() {
+        assertThrows(IllegalArgumentException.class, () -> FittedLatencyModel.fit(
+                List.of(new FittedLatencyModel.Sample(1, 1, 1), new FittedLatencyModel.Sample(2, 2, 2)),
+                "token"
+        ));
+    }
+}
@@ -0,0 +1,29 @@
+package com.timofeev.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class PrometheusMetricsTest {
+
+    // A bound must start a histogram bucket, otherwise its count would take in values above it
+    @Test
+    void timeBoundsAreBucketEdges() {
+        for (long boundMs : PrometheusMetrics.TIME_BUCKETS_MS) {
+            assertNotEquals(LatencyHistogram.indexOf(boundMs - 1), LatencyHistogram.indexOf(boundMs), "le=" + boundMs);
+        }
+    }
+
+    // Times are whole ms truncated from ns, so one recorded as the bound itself took longer than the bound
+    @Test
+    void bucketCountsAreExact() {
+        for (long boundMs : PrometheusMetrics.TIME_BUCKETS_MS) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(boundMs - 1);
+            histogram.record(boundMs);
+            histogram.record(boundMs + 1);
+            assertEquals(1, histogram.getCountAtOrBelow(boundMs - 1), "le=" + boundMs);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.timofeev.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReportWriterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void finishEndsTableAndMergesParts() throws IOException {
+        final File file;
+        try (ReportWriter writer = ReportWriter.open(directory.toFile(), "INFO: params\n\n")) {
+            file = writer.getFile();
+            writer.addRow(ReportWriter.Section.WARMUP, row(1));
+            for (int i = 0; i < 1000; i++) {
+                writer.addRow(ReportWriter.Section.MEASURED, row(100 + i));
+            }
+            writer.addRow(ReportWriter.Section.FAILED, row(2));
+            writer.finish("summary\n");
+            // After the run
+            writer.addRow(ReportWriter.Section.MEASURED, row(5));
+        }
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals("INFO: params", lines.get(0));
+        assertEquals(LlmTimingHolder.TIMING_HEADER.trim(), lines.get(2));
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(lines.get(3 + i).startsWith((100 + i) + ", "), lines.get(3 + i));
+        }
+        assertEquals("END", lines.get(1003));
+        assertEquals("summary", lines.get(1005));
+        assertEquals("report rows: 1000, writer stalls: 0", lines.get(1006));
+        assertEquals(List.of(
+                "",
+                "warmup rows:",
+                LlmTimingHolder.TIMING_HEADER.trim(),
+                rowLine(1),
+                "",
+                "failed rows:",
+                LlmTimingHolder.TIMING_HEADER.trim(),
+                rowLine(2)
+        ), lines.subList(1007, lines.size()));
+        assertOnlyReportLeft(file);
+    }
+
+    // What the shutdown hook does when the run is killed before finish()
+    @Test
+    void abortEndsTableWithoutStatistics() throws IOException {
+        final ReportWriter writer = ReportWriter.open(directory.toFile(), "INFO: params\n\n");
+        final File file = writer.getFile();
+        writer.addRow(ReportWriter.Section.MEASURED, row(100));
+        writer.addRow(ReportWriter.Section.FAILED, row(2));
+        writer.abort();
+        writer.close();
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(List.of(
+                "INFO: params",
+                "",
+                LlmTimingHolder.TIMING_HEADER.trim(),
+                rowLine(100),
+                "END",
+                "",
+                "run interrupted, no statistics",
+                "report rows: 1, writer stalls: 0",
+                "",
+                "failed rows:",
+                LlmTimingHolder.TIMING_HEADER.trim(),
+                rowLine(2)
+        ), lines);
+        assertOnlyReportLeft(file);
+    }
+
+    @Test
+    void abortAfterFinishChangesNothing() throws IOException {
+        final File file;
+        try (ReportWriter writer = ReportWriter.open(directory.toFile(), "INFO: params\n\n")) {
+            file = writer.getFile();
+            writer.addRow(ReportWriter.Section.MEASURED, row(100));
+            writer.finish("summary\n");
+            writer.abort();
+        }
+
+        final String report = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        assertTrue(report.endsWith("END\n\nsummary\nreport rows: 1, writer stalls: 0\n"), report);
+        assertFalse(report.contains("interrupted"));
+    }
+
+    // A row that can't be formatted fails the report, rows after it are drained so nobody waits on a full queue
+    @Test
+    void writerErrorFailsFinishWithoutBlocking() {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (ReportWriter writer = ReportWriter.open(directory.toFile(), "INFO: params\n\n")) {
+                writer.addRow(ReportWriter.Section.MEASURED, new LlmTimingHolder.TimingInfo(
+                        100, 10, 20, 1000, 1001, -1, -1, -1, 1, null
+                ));
+                for (int i = 0; i < 100_000; i++) {
+                    writer.addRow(ReportWriter.Section.MEASURED, row(i));
+                }
+                final IOException error = assertThrows(IOException.class, () -> writer.finish("summary\n"));
+                assertInstanceOf(NullPointerException.class, error.getCause());
+            }
+        });
+    }
+
+    @Test
+    void everyRunGetsItsOwnFile() throws IOException {
+        try (
+                ReportWriter first = ReportWriter.open(directory.toFile(), "");
+                ReportWriter second = ReportWriter.open(directory.toFile(), "")
+        ) {
+            assertNotEquals(first.getFile(), second.getFile());
+            assertTrue(first.getFile().exists());
+            assertTrue(second.getFile().exists());
+        }
+    }
+
+    private static LlmTimingHolder.TimingInfo row(long timeMs) {
+        return new LlmTimingHolder.TimingInfo(timeMs, 10, 20, 1000, 1001);
+    }
+
+    private static String rowLine(long timeMs) {
+        final StringBuilder line = new StringBuilder();
+        LlmTimingHolder.appendTimingRow(line, row(timeMs));
+        return line.toString().trim();
+    }
+
+    private void assertOnlyReportLeft(File file) throws IOException {
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(file.toPath()), files.toList());
+        }
+    }
+}
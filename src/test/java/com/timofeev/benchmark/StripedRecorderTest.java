@@ -0,0 +1,148 @@
+package com.timofeev.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedRecorderTest {
+
+    private enum Metric {
+        FIRST,
+        SECOND
+    }
+
+    @Test
+    void concurrentHistogramMergesLikeRecordedOne() {
+        final Random random = new Random(0);
+        final ConcurrentLatencyHistogram concurrent = new ConcurrentLatencyHistogram();
+        final LatencyHistogram expected = new LatencyHistogram();
+        for (int i = 0; i < 100_000; i++) {
+            final long value = (long) Math.abs(random.nextGaussian() * 2000);
+            concurrent.record(value);
+            expected.record(value);
+        }
+        final LatencyHistogram merged = new LatencyHistogram();
+        merged.record(5);
+        expected.record(5);
+        merged.add(concurrent);
+
+        assertSame(expected, merged);
+    }
+
+    @Test
+    void emptyConcurrentHistogramKeepsMinAndMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        histogram.add(new ConcurrentLatencyHistogram());
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(10, histogram.getMin());
+        assertEquals(20, histogram.getMax());
+    }
+
+    @Test
+    void concurrentHistogramClampsOutOfRange() {
+        final ConcurrentLatencyHistogram concurrent = new ConcurrentLatencyHistogram(10_000);
+        concurrent.record(-5);
+        concurrent.record(1_000_000);
+        final LatencyHistogram merged = new LatencyHistogram(10_000);
+        merged.add(concurrent);
+
+        assertEquals(2, merged.getCount());
+        assertEquals(0, merged.getMin());
+        assertEquals(10_000, merged.getMax());
+    }
+
+    // Snapshots taken while threads record must neither lose nor double count a value
+    @Test
+    void snapshotsDuringRecordingAddUp() throws Exception {
+        final StripedRecorder<Metric> recorder = new StripedRecorder<>(Metric.class, 4);
+        final int threads = 8;
+        final int valuesPerThread = 50_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < valuesPerThread; i++) {
+                    recorder.record(Metric.FIRST, valueOf(thread, i));
+                    if (i % 2 == 0) {
+                        recorder.record(Metric.SECOND, i % 100);
+                    }
+                }
+            }));
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final List<Long> counts = new ArrayList<>();
+        final Thread reader = Thread.ofPlatform().start(() -> {
+            while (!done.get()) {
+                counts.add(recorder.snapshot(Metric.FIRST).getCount());
+            }
+        });
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        done.set(true);
+        reader.join();
+
+        // Counts only grow between snapshots
+        for (int i = 1; i < counts.size(); i++) {
+            assertTrue(counts.get(i) >= counts.get(i - 1));
+        }
+
+        final LatencyHistogram expected = new LatencyHistogram();
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < valuesPerThread; i++) {
+                expected.record(valueOf(t, i));
+            }
+        }
+        final EnumMap<Metric, LatencyHistogram> snapshot = recorder.snapshot();
+        assertSame(expected, snapshot.get(Metric.FIRST));
+        assertEquals((long) threads * valuesPerThread / 2, snapshot.get(Metric.SECOND).getCount());
+        assertEquals(98, snapshot.get(Metric.SECOND).getMax());
+    }
+
+    @Test
+    void snapshotIsACopy() {
+        final StripedRecorder<Metric> recorder = new StripedRecorder<>(Metric.class, 2);
+        recorder.record(Metric.FIRST, 10);
+        final LatencyHistogram first = recorder.snapshot(Metric.FIRST);
+        first.record(20);
+        recorder.record(Metric.FIRST, 30);
+
+        assertEquals(2, first.getCount());
+        final LatencyHistogram second = recorder.snapshot(Metric.FIRST);
+        assertEquals(2, second.getCount());
+        assertEquals(30, second.getMax());
+    }
+
+    private static long valueOf(int thread, int i) {
+        return (thread * 7919L + i * 31L) % 100_000;
+    }
+
+    private static void assertSame(LatencyHistogram expected, LatencyHistogram actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMean(), actual.getMean(), 1e-9);
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        for (double quantile : new double[]{0.01, 0.25, 0.5, 0.9, 0.95, 0.99, 0.999}) {
+            assertEquals(expected.getValueAtQuantile(quantile), actual.getValueAtQuantile(quantile), "q" + quantile);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.timofeev.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WindowRingTest {
+
+    private static final long WINDOW_MS = 1000;
+
+    @Test
+    void eventsGoToTheWindowOfTheirTime() {
+        final WindowRing ring = new WindowRing(WINDOW_MS);
+        ring.recordResponse(10_000, 100, 100);
+        ring.recordResponse(10_500, 300, 200);
+        ring.recordFailure(12_100);
+        ring.recordCancelled(12_900);
+        ring.recordResponse(13_000, 50, 1000);
+
+        final List<long[]> rows = rows(ring);
+        assertEquals(4, rows.size());
+        assertRow(rows.get(0), 0, 2, 0, 0);
+        assertRow(rows.get(1), 1, 0, 0, 0);
+        assertRow(rows.get(2), 2, 0, 1, 1);
+        assertRow(rows.get(3), 3, 1, 0, 0);
+    }
+
+    // An event for a window whose slot was reused already is added to it, not dropped
+    @Test
+    void lateEventsAreKept() {
+        final WindowRing ring = new WindowRing(WINDOW_MS);
+        for (int second = 0; second < 20; second++) {
+            ring.recordResponse(second * WINDOW_MS, 10, 10);
+        }
+        ring.recordResponse(1500, 10, 10);
+        ring.recordFailure(2500);
+
+        final List<long[]> rows = rows(ring);
+        assertEquals(20, rows.size());
+        assertRow(rows.get(1), 1, 2, 0, 0);
+        assertRow(rows.get(2), 2, 1, 1, 0);
+        assertEquals(21, total(rows, 1));
+    }
+
+    @Test
+    void windowCountIsCapped() {
+        final WindowRing ring = new WindowRing(WINDOW_MS);
+        final int seconds = 10_000;
+        for (int second = 0; second < seconds; second++) {
+            ring.recordResponse(second * WINDOW_MS, 10, 10);
+            ring.recordFailure(second * WINDOW_MS + 1);
+        }
+
+        final List<long[]> rows = rows(ring);
+        assertTrue(rows.size() <= WindowRing.MAX_WINDOWS, rows.size() + " windows");
+        // 10000 s in at most 256 windows: doubled 6 times to 64 s
+        assertEquals(64, rows.get(1)[0]);
+        assertEquals(seconds, total(rows, 1));
+        assertEquals(seconds, total(rows, 2));
+    }
+
+    @Test
+    void concurrentWritersLoseNothing() throws Exception {
+        final WindowRing ring = new WindowRing(WINDOW_MS);
+        final int threads = 8;
+        final int eventsPerThread = 100_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            writers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                // Time moves forward about together on all threads, with some jitter, across 1000 windows
+                for (int i = 0; i < eventsPerThread; i++) {
+                    final long atMs = i * 10L + (i * 7919L) % 50;
+                    if (i % 10 == 0) {
+                        ring.recordCancelled(atMs);
+                    } else {
+                        ring.recordResponse(atMs, i % 500, 1);
+                    }
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        final List<long[]> rows = rows(ring);
+        assertEquals((long) threads * eventsPerThread * 9 / 10, total(rows, 1));
+        assertEquals((long) threads * eventsPerThread / 10, total(rows, 3));
+    }
+
+    // windowStartSec, requests, failures, cancelled
+    private static List<long[]> rows(WindowRing ring) {
+        final StringBuilder report = new StringBuilder();
+        ring.appendTo(report);
+        final List<long[]> rows = new ArrayList<>();
+        final String[] lines = report.toString().split("\n");
+        for (int i = 3; i < lines.length; i++) {
+            final String[] cells = lines[i].split(", ");
+            rows.add(new long[]{
+                    Long.parseLong(cells[0]),
+                    Long.parseLong(cells[1]),
+                    Long.parseLong(cells[2]),
+                    Long.parseLong(cells[3])
+            });
+        }
+        return rows;
+    }
+
+    private static long total(List<long[]> rows, int column) {
+        return rows.stream().mapToLong(row -> row[column]).sum();
+    }
+
+    private static void assertRow(long[] row, long startSec, long requests, long failures, long cancelled) {
+        assertEquals(startSec, row[0]);
+        assertEquals(requests, row[1]);
+        assertEquals(failures, row[2]);
+        assertEquals(cancelled, row[3]);
+    }
+}
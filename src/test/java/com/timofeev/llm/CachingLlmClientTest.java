@@ -0,0 +1,173 @@
+package com.timofeev.llm;
+
+import com.timofeev.prompt.ICompletionPrompt;
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingLlmClientTest {
+
+    private static final long HOUR_MS = 3_600_000;
+    // ENTRY_OVERHEAD_BYTES plus two bytes per char of a 100-char completion
+    private static final long ENTRY_BYTES = 160 + 2 * 100;
+
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+    // Answers with 100 chars per prompt, or as many chars as the first token id says if it's above 1000
+    private final ILlmInlineClient delegate = prompt -> {
+        final TokenizedCompletionPrompt tokenized = (TokenizedCompletionPrompt) prompt;
+        calls.computeIfAbsent(tokenized.promptStr, name -> new AtomicInteger()).incrementAndGet();
+        final long first = tokenized.getIds()[0];
+        return "x".repeat(first > 1000 ? (int) first : 100);
+    };
+
+    @Test
+    void repeatedPromptIsServedFromMemory() {
+        final CachingLlmClient cache = new CachingLlmClient(delegate, 10, 1_000_000, HOUR_MS);
+        final ICompletionPrompt<?> a = prompt("a", 1);
+
+        assertEquals(cache.generate(a), cache.generate(a));
+        assertEquals(cache.generate(a), cache.generateAsync(a, 0, ILlmInlineClient.NO_CANCEL).join());
+
+        assertEquals(1, calls("a"));
+        assertEquals(3, reported(cache, "hits"));
+        assertEquals(1, reported(cache, "misses"));
+    }
+
+    // Different ids are different keys, the prompt text isn't part of the key
+    @Test
+    void keyIsTheTokenIds() {
+        final CachingLlmClient cache = new CachingLlmClient(delegate, 10, 1_000_000, HOUR_MS);
+        cache.generate(prompt("a", 1, 2));
+        cache.generate(prompt("b", 2, 1));
+        cache.generate(prompt("c", 1, 2));
+
+        assertEquals(1, calls("a"));
+        assertEquals(1, calls("b"));
+        assertEquals(0, calls("c"));
+    }
+
+    // A hit only goes to the read buffer, it's applied to the LRU order before the next insert
+    @Test
+    void evictsLeastRecentlyUsed() {
+        final CachingLlmClient cache = new CachingLlmClient(delegate, 2, 1_000_000, HOUR_MS);
+        cache.generate(prompt("a", 1));
+        cache.generate(prompt("b", 2));
+        cache.generate(prompt("a", 1));
+        cache.generate(prompt("c", 3));
+
+        cache.generate(prompt("a", 1));
+        assertEquals(1, calls("a"));
+        cache.generate(prompt("b", 2));
+        assertEquals(2, calls("b"));
+        assertEquals(2, reported(cache, "evicted"));
+    }
+
+    // Reads that fill the buffer are drained on their own, without a write
+    @Test
+    void lruOrderSurvivesManyReads() {
+        final CachingLlmClient cache = new CachingLlmClient(delegate, 3, 1_000_000, HOUR_MS);
+        cache.generate(prompt("a", 1));
+        cache.generate(prompt("b", 2));
+        cache.generate(prompt("c", 3));
+        for (int i = 0; i < 1000; i++) {
+            cache.generate(prompt("a", 1));
+            cache.generate(prompt("c", 3));
+        }
+        cache.generate(prompt("d", 4));
+
+        cache.generate(prompt("a", 1));
+        cache.generate(prompt("c", 3));
+        assertEquals(1, calls("a"));
+        assertEquals(1, calls("c"));
+        cache.generate(prompt("b", 2));
+        assertEquals(2, calls("b"));
+    }
+
+    @Test
+    void entriesExpire() throws InterruptedException {
+        final CachingLlmClient cache = new CachingLlmClient(delegate, 10, 1_000_000, 50);
+        cache.generate(prompt("a", 1));
+        Thread.sleep(100);
+        cache.generate(prompt("a", 1));
+        cache.generate(prompt("a", 1));
+
+        assertEquals(2, calls("a"));
+        assertEquals(1, reported(cache, "expired"));
+        assertEquals(1, reported(cache, "hits"));
+    }
+
+    @Test
+    void bytesStayWithinTheBound() {
+        final long maxBytes = 2 * ENTRY_BYTES + ENTRY_BYTES / 2;
+        final CachingLlmClient cache = new CachingLlmClient(delegate, 100, maxBytes, HOUR_MS);
+        final List<ICompletionPrompt<?>> prompts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            prompts.add(prompt("p" + i, i));
+        }
+        for (ICompletionPrompt<?> prompt : prompts) {
+            cache.generate(prompt);
+        }
+
+        assertEquals(2, reported(cache, "entries"));
+        assertEquals(2 * ENTRY_BYTES, reported(cache, "bytes"));
+        assertTrue(reported(cache, "maxBytes") <= maxBytes);
+        assertEquals(8, reported(cache, "evicted"));
+    }
+
+    // A completion larger than the whole cache isn't kept, and doesn't evict what is there
+    @Test
+    void oversizedCompletionIsNotCached() {
+        final long maxBytes = 4 * ENTRY_BYTES;
+        final CachingLlmClient cache = new CachingLlmClient(delegate, 100, maxBytes, HOUR_MS);
+        cache.generate(prompt("a", 1));
+        cache.generate(prompt("huge", 5000));
+        cache.generate(prompt("huge", 5000));
+        cache.generate(prompt("a", 1));
+
+        assertEquals(2, calls("huge"));
+        assertEquals(1, calls("a"));
+        assertEquals(ENTRY_BYTES, reported(cache, "bytes"));
+        assertTrue(reported(cache, "maxBytes") <= maxBytes);
+        assertEquals(0, reported(cache, "evicted"));
+    }
+
+    @Test
+    void failuresAreNotCached() {
+        final AtomicInteger failures = new AtomicInteger();
+        final CachingLlmClient cache = new CachingLlmClient(prompt -> {
+            failures.incrementAndGet();
+            return null;
+        }, 10, 1_000_000, HOUR_MS);
+        cache.generate(prompt("a", 1));
+        cache.generate(prompt("a", 1));
+
+        assertEquals(2, failures.get());
+        assertEquals(0, reported(cache, "entries"));
+    }
+
+    private int calls(String name) {
+        final AtomicInteger count = calls.get(name);
+        return count == null ? 0 : count.get();
+    }
+
+    private static TokenizedCompletionPrompt prompt(String name, long... ids) {
+        return new TokenizedCompletionPrompt(ids, name);
+    }
+
+    private static long reported(CachingLlmClient cache, String field) {
+        final Matcher matcher = Pattern.compile("\\b" + field + "=(\\d+)").matcher(cache.getReport());
+        assertTrue(matcher.find(), cache.getReport());
+        return Long.parseLong(matcher.group(1));
+    }
+}
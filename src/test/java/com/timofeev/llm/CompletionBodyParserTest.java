@@ -0,0 +1,128 @@
+package com.timofeev.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Every body is parsed both ways: the streaming parser must give what the GSON mapping gives
+class CompletionBodyParserTest {
+
+    // Data of server-sent events, as vLLM and llama.cpp stream them
+    private static final String FIRST_CHUNK = """
+            {"id":"cmpl-1","object":"text_completion","created":1754474828,"model":"qwen",\
+            "choices":[{"index":0,"text":"if (a \\u003c b) {\\n\\t\\"q\\" \\\\ é中 \\ud83d\\ude00","logprobs":null,"finish_reason":null}],\
+            "usage":null}""";
+    private static final String LAST_CHUNK = """
+            {"id":"cmpl-1","object":"text_completion","created":1754474828,"model":"qwen",\
+            "choices":[{"index":0,"text":"","logprobs":null,"finish_reason":"stop","stop_reason":"\\n"}],\
+            "usage":{"prompt_tokens":1834,"completion_tokens":17,"total_tokens":1851}}""";
+
+    // Whole body with parts the parser skips: nested logprobs, unknown fields before and after choices
+    private static final String WHOLE = """
+            {"id":"cmpl-2","system_fingerprint":null,"choices":[
+              {"text":"return x;","index":0,"logprobs":{"tokens":["return"," x",";"],"top_logprobs":[{"a":-1.5},{},null]},
+               "finish_reason":"length"},
+              {"text":"ignored","index":1,"finish_reason":"stop"}
+            ],"usage":{"completion_tokens":3,"prompt_tokens":10},"extra":[1,[2,{"3":true}]]}""";
+
+    // Chunks of a batch interleave, a chunk may carry several prompts in any order
+    private static final String BATCH_CHUNK = """
+            {"choices":[{"index":2,"text":"c","finish_reason":null},{"index":0,"text":"a\\"","finish_reason":"stop"},\
+            {"index":1,"text":null,"finish_reason":null}]}""";
+
+    // Servers that omit index: the position in the array
+    private static final String BATCH_WITHOUT_INDEX = """
+            {"choices":[{"text":"first"},{"text":"second","finish_reason":"length"}],"usage":{"prompt_tokens":5,"completion_tokens":2}}""";
+
+    @Test
+    void chunkWithEscapesAndUnicode() {
+        final CompletionBodyParser.ParsedCompletion parsed = parseBothWays(FIRST_CHUNK, false);
+        assertEquals("if (a < b) {\n\t\"q\" \\ é中 \uD83D\uDE00", parsed.text());
+        assertNull(parsed.finishReason());
+        assertEquals(-1, parsed.promptTokens());
+        assertEquals(-1, parsed.completionTokens());
+        assertEquals(1, parsed.choices());
+    }
+
+    @Test
+    void lastChunkHasFinishReasonAndUsage() {
+        final CompletionBodyParser.ParsedCompletion parsed = parseBothWays(LAST_CHUNK, false);
+        assertEquals("", parsed.text());
+        assertEquals("stop", parsed.finishReason());
+        assertEquals(1834, parsed.promptTokens());
+        assertEquals(17, parsed.completionTokens());
+    }
+
+    @Test
+    void wholeBodyTakesTheFirstChoice() {
+        final CompletionBodyParser.ParsedCompletion parsed = parseBothWays(WHOLE, false);
+        assertEquals(2, parsed.choices());
+        assertEquals("return x;", parsed.text());
+        assertEquals("length", parsed.finishReason());
+        assertEquals(10, parsed.promptTokens());
+        assertEquals(3, parsed.completionTokens());
+        assertEquals(List.of(), parsed.indexed());
+    }
+
+    @Test
+    void batchKeepsEveryChoiceWithItsIndex() {
+        final CompletionBodyParser.ParsedCompletion parsed = parseBothWays(BATCH_CHUNK, true);
+        assertEquals(List.of(
+                new CompletionBodyParser.Choice(2, "c", null),
+                new CompletionBodyParser.Choice(0, "a\"", "stop"),
+                new CompletionBodyParser.Choice(1, null, null)
+        ), parsed.indexed());
+
+        assertEquals(List.of(
+                new CompletionBodyParser.Choice(0, "first", null),
+                new CompletionBodyParser.Choice(1, "second", "length")
+        ), parseBothWays(BATCH_WITHOUT_INDEX, true).indexed());
+
+        assertEquals(2, parseBothWays(WHOLE, true).indexed().size());
+    }
+
+    @Test
+    void bodyWithoutChoices() {
+        final CompletionBodyParser.ParsedCompletion parsed = parseBothWays("{\"choices\":[],\"usage\":null}", false);
+        assertEquals(0, parsed.choices());
+        assertNull(parsed.text());
+    }
+
+    // Neither path returns a completion for these, the streaming parser throws and the client logs it
+    @Test
+    void malformedBodiesFailBothWays() {
+        for (String body : List.of(
+                "",
+                "not json",
+                "[]",
+                "{\"choices\":[{\"text\":\"cut off",
+                "{\"choices\":[{\"text\":\"a\"}]",
+                "{\"choices\":{\"text\":\"a\"}}",
+                "{\"choices\":[{\"index\":\"first\",\"text\":\"a\"}]}",
+                "{\"choices\":[],\"usage\":{\"prompt_tokens\":1.5}}"
+        )) {
+            for (boolean allChoices : new boolean[]{false, true}) {
+                assertNull(OpenAiLlmClient.parse(body, false, allChoices), body);
+                assertNull(OpenAiLlmClient.parse(body, true, allChoices), body);
+                assertThrows(
+                        Exception.class,
+                        () -> CompletionBodyParser.parse(new StringReader(body), allChoices),
+                        body
+                );
+            }
+        }
+    }
+
+    private static CompletionBodyParser.ParsedCompletion parseBothWays(String body, boolean allChoices) {
+        final CompletionBodyParser.ParsedCompletion parsed = OpenAiLlmClient.parse(body, true, allChoices);
+        assertNotNull(parsed, body);
+        assertEquals(OpenAiLlmClient.parse(body, false, allChoices), parsed, body);
+        return parsed;
+    }
+}
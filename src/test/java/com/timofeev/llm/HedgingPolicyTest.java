@@ -0,0 +1,78 @@
+package com.timofeev.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgingPolicyTest {
+
+    @Test
+    void waitsForEnoughAnswers() {
+        final HedgingPolicy policy = new HedgingPolicy(90, null);
+        for (int i = 0; i < 19; i++) {
+            policy.recordAnswer(100);
+        }
+        assertEquals(-1, policy.hedgeAfterMs());
+        policy.recordAnswer(100);
+        assertEquals(100, policy.hedgeAfterMs());
+    }
+
+    @Test
+    void hedgesAfterThePercentile() {
+        final HedgingPolicy policy = new HedgingPolicy(90, null);
+        for (int i = 1; i <= 100; i++) {
+            policy.recordAnswer(i);
+        }
+        assertEquals(90, policy.hedgeAfterMs());
+    }
+
+    @Test
+    void rejectsPercentileOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> new HedgingPolicy(0, null));
+        assertThrows(IllegalArgumentException.class, () -> new HedgingPolicy(100, null));
+    }
+
+    // A copy that answers first must not pull the threshold down: the primary it beat counts with the time it ran
+    @Test
+    void primaryBeatenByCopyCountsWithItsElapsedTime() throws Exception {
+        // The lowest answer time, so a single short sample would show
+        final HedgingPolicy policy = new HedgingPolicy(1, null);
+        for (int i = 0; i < 20; i++) {
+            policy.recordAnswer(200);
+        }
+        final BlockingQueue<CompletableFuture<String>> sent = new LinkedBlockingQueue<>();
+        final ResilientCall<String> call = new ResilientCall<>(
+                hedge -> {
+                    final CompletableFuture<String> transport = new CompletableFuture<>();
+                    sent.add(transport);
+                    return new ResilientCall.Exchange<>(System.nanoTime(), transport, transport.thenApply(s -> s));
+                },
+                RetryPolicy.NONE,
+                policy
+        );
+        final CompletableFuture<ResilientCall.Answer<String>> answer = call.start();
+        final CompletableFuture<String> primary = sent.poll(5, TimeUnit.SECONDS);
+        final CompletableFuture<String> copy = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(primary);
+        assertNotNull(copy);
+
+        // Sent after 200ms, answers right away
+        copy.complete("copy");
+
+        assertTrue(answer.get(5, TimeUnit.SECONDS).hedge());
+        // The loser is cancelled right after the answer completes
+        assertThrows(CancellationException.class, () -> primary.get(5, TimeUnit.SECONDS));
+        assertEquals(2, call.attempts());
+        assertEquals(1, call.hedges());
+        assertTrue(policy.hedgeAfterMs() >= 190, "threshold " + policy.hedgeAfterMs());
+    }
+}
@@ -0,0 +1,76 @@
+package com.timofeev.llm;
+
+import com.timofeev.prompt.TokenizedCompletionPrompt;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The encoder must send exactly what GSON would, otherwise pre-rendering changes what the server receives
+class RequestBodyEncoderTest {
+
+    // Escapes GSON applies: control characters, quotes, backslashes, HTML-safe characters, non-ASCII
+    private static final List<String> STOP_TOKENS = List.of("\n", "\"", "\\", "</s>", "<|endoftext|>", "\t'=&", "конец", " ");
+
+    private static final List<Double> TEMPERATURES = List.of(0.0, 0.2, 0.7, 1.0, 1e-5, 1.5e7);
+
+    private static final long[][] PROMPTS = {
+            {},
+            {0},
+            {1, 22, 333, 4444, 55555, 100000, 151643},
+            {-1, Long.MAX_VALUE, Long.MIN_VALUE, 9, 10, 99, 100}
+    };
+
+    @Test
+    void singlePromptIsWhatGsonWrites() {
+        for (boolean stream : new boolean[]{false, true}) {
+            for (double temperature : TEMPERATURES) {
+                final RequestBodyEncoder encoder = new RequestBodyEncoder(request(List.of(), stream, temperature));
+                for (long[] ids : PROMPTS) {
+                    final OpenAiLlmClient.OpenAiLlmClientInlineRequest request = request(
+                            new TokenizedCompletionPrompt(ids, "").getValue(),
+                            stream,
+                            temperature
+                    );
+                    assertEquals(OpenAiLlmClient.GSON.toJson(request), utf8(encoder.encode(ids)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void batchIsWhatGsonWrites() {
+        for (boolean stream : new boolean[]{false, true}) {
+            for (double temperature : TEMPERATURES) {
+                final RequestBodyEncoder encoder = new RequestBodyEncoder(request(List.of(), stream, temperature));
+                for (int size = 0; size <= PROMPTS.length; size++) {
+                    final List<long[]> batch = List.of(PROMPTS).subList(0, size);
+                    final OpenAiLlmClient.OpenAiLlmClientInlineRequest request = request(
+                            batch.stream().map(ids -> new TokenizedCompletionPrompt(ids, "").getValue()).toList(),
+                            stream,
+                            temperature
+                    );
+                    assertEquals(OpenAiLlmClient.GSON.toJson(request), utf8(encoder.encodeBatch(batch)));
+                }
+            }
+        }
+    }
+
+    private static OpenAiLlmClient.OpenAiLlmClientInlineRequest request(Object prompt, boolean stream, double temperature) {
+        return OpenAiLlmClient.OpenAiLlmClientInlineRequest.builder()
+                .withModel("Qwen/\"coder\" <7b>")
+                .withPrompt(prompt)
+                .withStream(stream)
+                .withStop(STOP_TOKENS)
+                .withMaxTokens(100)
+                .withN(1)
+                .withTemperature(temperature)
+                .build();
+    }
+
+    private static String utf8(byte[] body) {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,39 @@
+package com.timofeev.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestCancellationTest {
+
+    @Test
+    void cancelInterruptsTheRequestingThread() {
+        final RequestCancellation cancellation = RequestCancellation.schedule(10);
+        assertThrows(InterruptedException.class, () -> Thread.sleep(5000));
+        assertTrue(cancellation.finish());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    // The next request on the thread must not be interrupted by the cancel of this one
+    @Test
+    void finishedCancellationNeverInterrupts() throws InterruptedException {
+        final RequestCancellation cancellation = RequestCancellation.schedule(20);
+        assertFalse(cancellation.finish());
+        Thread.sleep(200);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    // finish() in finally runs after the one that saw the cancel, it must not clear a later interrupt
+    @Test
+    void repeatedFinishKeepsTheInterruptStatus() {
+        final RequestCancellation cancellation = RequestCancellation.schedule(10);
+        assertThrows(InterruptedException.class, () -> Thread.sleep(5000));
+        assertTrue(cancellation.finish());
+
+        Thread.currentThread().interrupt();
+        assertTrue(cancellation.finish());
+        assertTrue(Thread.interrupted());
+    }
+}
@@ -0,0 +1,92 @@
+package com.timofeev.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResilientCallTest {
+
+    private final BlockingQueue<CompletableFuture<String>> sent = new LinkedBlockingQueue<>();
+
+    @Test
+    void retriesRetryableFailure() throws Exception {
+        final ResilientCall<String> call = newCall(new RetryPolicy(2, 1));
+        final CompletableFuture<ResilientCall.Answer<String>> answer = call.start();
+
+        next().completeExceptionally(new HttpStatusException(503, 0, ""));
+        next().complete("ok");
+
+        assertEquals("ok", answer.get(5, TimeUnit.SECONDS).value());
+        assertFalse(answer.get().hedge());
+        assertEquals(2, call.attempts());
+        assertEquals(1, call.retries());
+    }
+
+    @Test
+    void failsOnceRetriesRunOut() throws Exception {
+        final ResilientCall<String> call = newCall(new RetryPolicy(1, 1));
+        final CompletableFuture<ResilientCall.Answer<String>> answer = call.start();
+
+        next().completeExceptionally(new HttpStatusException(500, 0, ""));
+        next().completeExceptionally(new HttpStatusException(502, 0, ""));
+
+        final ExecutionException error = assertThrows(ExecutionException.class, () -> answer.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(HttpStatusException.class, error.getCause());
+        assertEquals(502, ((HttpStatusException) error.getCause()).getStatusCode());
+        assertEquals(2, call.attempts());
+    }
+
+    @Test
+    void doesNotRetryClientError() throws Exception {
+        final ResilientCall<String> call = newCall(new RetryPolicy(3, 1));
+        final CompletableFuture<ResilientCall.Answer<String>> answer = call.start();
+
+        next().completeExceptionally(new HttpStatusException(400, -1, ""));
+
+        assertThrows(ExecutionException.class, () -> answer.get(5, TimeUnit.SECONDS));
+        assertEquals(1, call.attempts());
+        assertEquals(0, call.retries());
+    }
+
+    @Test
+    void cancelAbortsExchangeInFlight() throws Exception {
+        final ResilientCall<String> call = newCall(new RetryPolicy(3, 1));
+        final CompletableFuture<ResilientCall.Answer<String>> answer = call.start();
+        final CompletableFuture<String> exchange = next();
+
+        call.cancel();
+
+        assertTrue(answer.isCancelled());
+        assertTrue(exchange.isCancelled());
+        assertEquals(1, call.attempts());
+    }
+
+    private ResilientCall<String> newCall(RetryPolicy retryPolicy) {
+        return new ResilientCall<>(
+                hedge -> {
+                    final CompletableFuture<String> transport = new CompletableFuture<>();
+                    sent.add(transport);
+                    return new ResilientCall.Exchange<>(System.nanoTime(), transport, transport.thenApply(s -> s));
+                },
+                retryPolicy,
+                null
+        );
+    }
+
+    private CompletableFuture<String> next() throws InterruptedException {
+        final CompletableFuture<String> exchange = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(exchange);
+        return exchange;
+    }
+}
@@ -0,0 +1,60 @@
+package com.timofeev.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 100);
+
+    @Test
+    void retriesOnlyFailuresARetryCanFix() {
+        assertTrue(policy.isRetryable(new HttpStatusException(429, -1, "")));
+        assertTrue(policy.isRetryable(new HttpStatusException(500, -1, "")));
+        assertTrue(policy.isRetryable(new HttpStatusException(503, -1, "")));
+        assertTrue(policy.isRetryable(new ConnectException("refused")));
+        assertTrue(policy.isRetryable(new IOException("reset")));
+
+        assertFalse(policy.isRetryable(new HttpStatusException(400, -1, "")));
+        assertFalse(policy.isRetryable(new HttpStatusException(404, -1, "")));
+        assertFalse(policy.isRetryable(new InterruptedIOException("timeout")));
+        assertFalse(policy.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    void backoffDoublesWithJitter() {
+        final IOException error = new IOException();
+        for (int i = 0; i < 100; i++) {
+            assertInRange(50, 100, policy.delayMs(1, error));
+            assertInRange(100, 200, policy.delayMs(2, error));
+            assertInRange(200, 400, policy.delayMs(3, error));
+        }
+    }
+
+    @Test
+    void backoffIsCapped() {
+        final long delayMs = new RetryPolicy(100, 1000).delayMs(60, new IOException());
+        assertInRange(5_000, 10_000, delayMs);
+    }
+
+    @Test
+    void retryAfterWinsOverBackoff() {
+        assertEquals(3000, policy.delayMs(1, new HttpStatusException(429, 3000, "")));
+        assertEquals(0, policy.delayMs(2, new HttpStatusException(503, 0, "")));
+        // Only 429 and 503 are expected to carry it
+        assertInRange(50, 100, policy.delayMs(1, new HttpStatusException(500, 3000, "")));
+        // No header, regular backoff
+        assertInRange(50, 100, policy.delayMs(1, new HttpStatusException(429, -1, "")));
+    }
+
+    private static void assertInRange(long from, long to, long value) {
+        assertTrue(value >= from && value <= to, value + " is not in [" + from + ", " + to + "]");
+    }
+}
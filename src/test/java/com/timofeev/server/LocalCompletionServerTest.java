@@ -0,0 +1,78 @@
+package com.timofeev.server;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalCompletionServerTest {
+
+    private static LocalCompletionServer server;
+    private static HttpClient client;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = LocalCompletionServer.start(new LocalCompletionServer.LatencyModel(2, 0, 0, 0, 3));
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterAll
+    static void stop() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void answersValidRequests() throws IOException, InterruptedException {
+        final HttpResponse<String> whole = post("{\"model\":\"m\",\"prompt\":[1,2,3],\"max_tokens\":2,\"stream\":false}");
+        assertEquals(200, whole.statusCode(), whole.body());
+        assertTrue(whole.body().contains("\"completion_tokens\":2"), whole.body());
+
+        final HttpResponse<String> streamed = post("{\"prompt\":\"text\",\"max_tokens\":16.0,\"stream\":true,\"model\":null}");
+        assertEquals(200, streamed.statusCode(), streamed.body());
+        assertTrue(streamed.body().endsWith("data: [DONE]\n\n"), streamed.body());
+    }
+
+    // Bad fields get a 400 with the reason, not a dropped connection
+    @Test
+    void rejectsFieldsOfTheWrongType() throws IOException, InterruptedException {
+        for (String body : List.of(
+                "{\"prompt\":[1],\"max_tokens\":\"many\"}",
+                "{\"prompt\":[1],\"max_tokens\":{}}",
+                "{\"prompt\":[1],\"max_tokens\":-1}",
+                "{\"prompt\":[1],\"max_tokens\":1.5}",
+                "{\"prompt\":[1],\"max_tokens\":1e20}",
+                "{\"prompt\":[1],\"stream\":\"yes\"}",
+                "{\"prompt\":[1],\"stream\":1}",
+                "{\"prompt\":[1],\"stream\":[true]}",
+                "{\"prompt\":[1],\"model\":{\"name\":\"m\"}}",
+                "{\"prompt\":{}}",
+                "{\"prompt\":[1]",
+                "[1]"
+        )) {
+            final HttpResponse<String> response = post(body);
+            assertEquals(400, response.statusCode(), body);
+            assertTrue(response.body().contains("\"message\""), response.body());
+        }
+    }
+
+    private static HttpResponse<String> post(String body) throws IOException, InterruptedException {
+        return client.send(
+                HttpRequest.newBuilder()
+                        .uri(URI.create(server.getUrl()))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+    }
+}